@@ -0,0 +1,24 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler always attached, so the allocated bytes per op (gc.alloc.rate.norm) is
+ * reported next to the ops/s. The regular jmh arguments can be given, fe. 'java -jar benchmarks.jar Math -f 2'
+ */
+public class BenchRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        var cmdOptions = new CommandLineOptions(args);
+        var options = new OptionsBuilder()
+                .parent(cmdOptions)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
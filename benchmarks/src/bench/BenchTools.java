@@ -0,0 +1,53 @@
+package bench;
+
+import io.forward.LinkedStepsFab;
+import io.forward.steps.AbstractStep;
+import util.data.vals.Rtvals;
+import util.xml.XMLdigger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.io.UncheckedIOException;
+
+/**
+ * Helpers shared by the benchmarks, mainly to build the steps the same way a path in settings.xml is build
+ */
+public class BenchTools {
+
+    /**
+     * Build the steps of a path based on the xml content of the path node.
+     * The xml is written to a temp file first, so it follows the exact same route as a path in settings.xml.
+     *
+     * @param rtvals    The rtvals to use for the path
+     * @param id        The id of the path
+     * @param delimiter The delimiter of the path
+     * @param content   The content of the path node, so the steps
+     * @return The first step of the path
+     */
+    public static AbstractStep buildPath(Rtvals rtvals, String id, String delimiter, String content) {
+        try {
+            var file = Files.createTempFile("bench_" + id, ".xml");
+            Files.writeString(file, "<dcafs><path id='" + id + "' delimiter='" + delimiter + "'>" + content + "</path></dcafs>");
+            var dig = XMLdigger.goIn(file, "dcafs", "path");
+            var steps = LinkedStepsFab.buildLink(dig, rtvals, delimiter);
+            Files.deleteIfExists(file);
+            if (steps.length == 0)
+                throw new IllegalStateException("Failed to build the steps for " + id + " from " + content);
+            return steps[0];
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Make sure the step gave a result, an empty result or null means the setup of the benchmark is wrong
+     *
+     * @param step The step to check
+     * @param line The line to give to the step
+     */
+    public static void verify(AbstractStep step, String line) {
+        var res = step.takeStep(line, null);
+        if (res == null || res.isEmpty() || res.equals("error"))
+            throw new IllegalStateException("Step failed to process " + line + " got '" + res + "'");
+    }
+}
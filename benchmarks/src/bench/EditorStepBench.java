@@ -0,0 +1,55 @@
+package bench;
+
+import io.forward.steps.AbstractStep;
+import org.openjdk.jmh.annotations.*;
+import util.data.vals.Rtvals;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The most used edits in our paths, each applied on the kind of line it's normally used for
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EditorStepBench {
+
+    @Param({"regexsplit", "resplit", "replace", "millisdate"})
+    String edit;
+
+    String line;
+    AbstractStep step;
+
+    @Setup
+    public void setup() {
+        String xml;
+        switch (edit) {
+            case "regexsplit" -> {
+                line = "T=22.51C H=45.2% P=1013.25hPa";
+                xml = "<editor><regexsplit delimiter=';'>[-+]?[0-9]+\\.?[0-9]*</regexsplit></editor>";
+            }
+            case "resplit" -> {
+                line = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47";
+                xml = "<editor><resplit delimiter=',' leftover='remove'>i1;i2;i4;i9</resplit></editor>";
+            }
+            case "replace" -> {
+                line = "22.51;45.2;1013.25;12;0.003;18.1";
+                xml = "<editor><replace find=';'>,</replace></editor>";
+            }
+            default -> {
+                line = "1718960000123,22.51,45.2,1013.25";
+                xml = "<editor><millisdate index='0'>yyyy-MM-dd HH:mm:ss.SSS</millisdate></editor>";
+            }
+        }
+        step = BenchTools.buildPath(new Rtvals(), "editor", ",", xml);
+        BenchTools.verify(step, line);
+    }
+
+    @Benchmark
+    public String editor() {
+        return step.takeStep(line, null);
+    }
+}
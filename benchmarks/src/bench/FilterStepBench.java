@@ -0,0 +1,44 @@
+package bench;
+
+import io.forward.steps.AbstractStep;
+import org.openjdk.jmh.annotations.*;
+import util.data.vals.Rtvals;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filter steps on a regular nmea line, one rule at a time and the combination of all of them
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterStepBench {
+
+    @Param({"start", "items", "regex", "nmea", "combined"})
+    String rule;
+
+    String line = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47";
+    AbstractStep step;
+
+    @Setup
+    public void setup() {
+        var xml = switch (rule) {
+            case "start" -> "<filter><start>$GPGGA</start></filter>";
+            case "items" -> "<filter><minitems>14</minitems></filter>";
+            case "regex" -> "<filter><regex>.*,[NS],.*</regex></filter>";
+            case "nmea" -> "<filter><nmea>true</nmea></filter>";
+            default -> "<filter><start>$GPGGA</start><and/><minitems>14</minitems><and/>"
+                    + "<regex>.*,[NS],.*</regex><and/><nmea>true</nmea></filter>";
+        };
+        step = BenchTools.buildPath(new Rtvals(), "filter", ",", xml);
+        BenchTools.verify(step, line);
+    }
+
+    @Benchmark
+    public String filter() {
+        return step.takeStep(line, null);
+    }
+}
@@ -0,0 +1,73 @@
+package bench;
+
+import util.evalcore.ParseTools;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+/**
+ * Checks that the double variant of each math op gives the same result as the BigDecimal one, for every operator and
+ * every combination of number and index as operands. Run by MathStepBench before the benchmark, can also be run on
+ * its own with 'java -cp target/benchmarks.jar bench.MathOpsCheck'.
+ */
+public class MathOpsCheck {
+
+    static final String[] OPS = {"+", "-", "*", "/", "%", "^", "~", "scale", "ln", "°", "<", ">", "<=", ">=", "==", "!="};
+    static final double[] VALUES = {3, 2.5, -4, 0.5, 2, 1, 0};
+
+    public static void main(String[] args) {
+        verify();
+        System.out.println("Double and BigDecimal ops agree");
+    }
+
+    /**
+     * Compare the results of both variants of all the ops
+     *
+     * @throws IllegalStateException if any of the results differ
+     */
+    public static void verify() {
+        var errors = new ArrayList<String>();
+        for (var op : OPS) {
+            for (double first : op.equals("°") ? new double[]{1, 2, 3, 4, 5} : VALUES) {
+                for (double second : VALUES) {
+                    for (int shape = 0; shape < 4; shape++) {
+                        if (op.equals("°") && (shape & 1) == 1) // The function of an angle op is always a number
+                            continue;
+                        var f = (shape & 1) == 0 ? format(first) : "i0";
+                        var s = (shape & 2) == 0 ? format(second) : "i1";
+                        var error = compare(f, s, op, first, second);
+                        if (error != null)
+                            errors.add(error);
+                    }
+                }
+            }
+        }
+        if (!errors.isEmpty())
+            throw new IllegalStateException("Double and BigDecimal ops differ:\r\n" + String.join("\r\n", errors));
+    }
+
+    private static String compare(String first, String second, String op, double d1, double d2) {
+        var exact = ParseTools.decodeBigDecimalsOp(first, second, op, 0);
+        var fast = ParseTools.decodeDoublesMathOp(first, second, op, 0);
+        if (exact == null || fast == null) // Combination not supported (fe. ln with two numbers)
+            return null;
+
+        BigDecimal bd;
+        try {
+            bd = exact.apply(new BigDecimal[]{new BigDecimal(format(d1)), new BigDecimal(format(d2))});
+        } catch (ArithmeticException | NumberFormatException e) { // No result to compare with (fe. 1/0 or ln(-1))
+            return null;
+        }
+        if (bd == null)
+            return null;
+        var expected = bd.doubleValue();
+        var result = fast.apply(new double[]{d1, d2});
+        if (Double.isNaN(result) || Math.abs(expected - result) > 1e-9 * Math.max(1, Math.abs(expected)))
+            return first + op + second + " with i0=" + d1 + ",i1=" + d2 + " -> exact " + bd.toPlainString() + " but double " + result;
+        return null;
+    }
+
+    private static String format(double d) {
+        return BigDecimal.valueOf(d).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import io.forward.steps.AbstractStep;
+import org.openjdk.jmh.annotations.*;
+import util.data.vals.Rtvals;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Math steps, from a single scaling operation to a couple of chained ops that use temp values.
+ * Each is done with BigDecimals (exact) and doubles.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MathStepBench {
+
+    @Param({"scale", "multi", "scaled"})
+    String ops;
+
+    @Param({"exact", "double"})
+    String precision;
+
+    String line = "1250,98.6,3.3,12.5,0.25";
+    AbstractStep step;
+
+    @Setup
+    public void setup() {
+        MathOpsCheck.verify();
+        var xml = switch (ops) {
+            case "scale" -> "<math><op>i0=i0*0.01+3</op></math>";
+            case "multi" -> "<math><op>i0=i0*0.01+3</op><op>i1=(i1-32)/1.8</op>"
+                    + "<op>t0=i2*i3</op><op>i4=(t0+i4)/2</op></math>";
+            default -> "<math><op scale='2'>i0=i0*0.01+3</op><op scale='3'>i1=(i1-32)/1.8</op></math>";
+        };
+        xml = xml.replace("<math>", "<math precision='" + precision + "'>");
+        step = BenchTools.buildPath(new Rtvals(), "math", ",", xml);
+        BenchTools.verify(step, line);
+    }
+
+    @Benchmark
+    public String math() {
+        return step.takeStep(line, null);
+    }
+}
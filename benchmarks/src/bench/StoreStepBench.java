@@ -0,0 +1,63 @@
+package bench;
+
+import io.forward.steps.AbstractStep;
+import org.openjdk.jmh.annotations.*;
+import util.data.store.ValStore;
+import util.data.vals.Rtvals;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store steps, both through the step and directly on the ValStore
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StoreStepBench {
+
+    @Param({"index", "calval", "map"})
+    String layout;
+
+    String line;
+    AbstractStep step;
+    ValStore store;
+
+    @Setup
+    public void setup() {
+        String xml;
+        switch (layout) {
+            case "index" -> {
+                line = "22.51,45.2,1013.25,12,0.003,18.1";
+                xml = "<store group='bench'><real>temp</real><real>hum</real><real>press</real>"
+                        + "<int>count</int><real>cur</real><real>volt</real></store>";
+            }
+            case "calval" -> {
+                line = "22.51,45.2,1013.25,12,0.003,18.1";
+                xml = "<store group='bench'><real>temp</real><real>hum</real><real>press</real>"
+                        + "<int>count</int><real>cur</real><real>volt</real>"
+                        + "<real o='bench_cur*bench_volt'>power</real></store>";
+            }
+            default -> {
+                line = "temp:22.51";
+                xml = "<store group='bench' map='true' delimiter=':'><real key='hum'>hum</real>"
+                        + "<real key='press'>press</real><real key='temp'>temp</real></store>";
+            }
+        }
+        step = BenchTools.buildPath(new Rtvals(), "store", ",", xml);
+        store = step.getStore();
+        BenchTools.verify(step, line);
+    }
+
+    @Benchmark
+    public String storeStep() {
+        return step.takeStep(line, null);
+    }
+
+    @Benchmark
+    public boolean valStoreApply() {
+        return store.apply(line);
+    }
+}
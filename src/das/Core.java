@@ -1,24 +1,213 @@
 package das;
 
+import io.netty.util.concurrent.FastThreadLocalThread;
+import org.tinylog.Logger;
+import util.tools.TimeTools;
 import worker.Datagram;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Bounded dispatch queue for the datagrams processed by the LabelWorker.
+ * The datagrams are divided over lanes based on their priority or label, lanes are drained in the order they are
+ * defined so commands don't need to wait behind a burst of data.
+ */
 public class Core {
-    private static final BlockingQueue<Datagram> dQueue = new LinkedBlockingQueue<>();
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition notEmpty = lock.newCondition();
+
+    private static final ArrayList<QueueLane> lanes = new ArrayList<>();
+    private static final HashMap<String, QueueLane> labelLanes = new HashMap<>(); // label -> lane
+    private static final HashMap<Integer, QueueLane> priorityLanes = new HashMap<>(); // priority -> lane, checked first
+    private static QueueLane defaultLane; // Lane used for labels that aren't mapped
+
+    private static long blockTimeout = 2000; // Max time in ms a producer is blocked before the oldest is dropped
+    private static volatile Thread consumer; // The thread that retrieves the datagrams, the LabelWorker
+
+    static {
+        applyDefaults();
+    }
+
+    /**
+     * Use the default layout, cmd first, then data and finally log
+     */
+    private static void applyDefaults() {
+        lanes.clear();
+        labelLanes.clear();
+        priorityLanes.clear();
+        addLane("cmd", 1000, QueueLane.Overflow.BLOCK, "cmd,system,matrix,email,telnet", "");
+        defaultLane = addLane("data", 5000, QueueLane.Overflow.DROP_OLDEST, "", "");
+        addLane("log", 1000, QueueLane.Overflow.DROP_OLDEST, "log", "");
+    }
+
+    private static QueueLane addLane(String id, int capacity, QueueLane.Overflow overflow, String labels, String priorities) {
+        var lane = new QueueLane(id, capacity, overflow, lock, notEmpty);
+        lanes.add(lane);
+        for (var label : labels.split(",")) {
+            if (!label.isBlank())
+                labelLanes.put(label.trim().toLowerCase(), lane);
+        }
+        for (var prio : priorities.split(",")) {
+            if (prio.isBlank())
+                continue;
+            try {
+                priorityLanes.put(Integer.parseInt(prio.trim()), lane);
+            } catch (NumberFormatException e) {
+                Logger.error("Invalid priority '" + prio + "' for queue lane " + id);
+            }
+        }
+        return lane;
+    }
+
+    /**
+     * Read the queue node in the settings, replaces the default lanes if any lane is defined.
+     * <queue blocktimeout="2s">
+     *     <lane id="cmd" capacity="1000" overflow="block" labels="cmd,system,matrix,email,telnet"/>
+     *     <lane id="fast" capacity="1000" overflow="dropoldest" priorities="2,3"/>
+     *     <lane id="data" capacity="5000" overflow="spill" default="true"/>
+     * </queue>
+     */
+    public static void readSettings() {
+        var dig = Paths.digInSettings("settings");
+        if (!dig.hasPeek("queue"))
+            return;
+        dig.usePeek();
+        var timeout = dig.attr("blocktimeout", "2s");
+        lock.lock();
+        try {
+            blockTimeout = TimeTools.parsePeriodStringToMillis(timeout);
+            var laneDigs = dig.digOut("lane");
+            if (!laneDigs.isEmpty()) {
+                if (!isEmpty())
+                    Logger.warn("Redefining queue lanes while datagrams are waiting, those are lost.");
+                lanes.clear();
+                labelLanes.clear();
+                priorityLanes.clear();
+                defaultLane = null;
+                for (var laneDig : laneDigs) {
+                    var id = laneDig.attr("id", "lane" + lanes.size());
+                    var lane = addLane(id, laneDig.attr("capacity", 1000),
+                            QueueLane.parseOverflow(laneDig.attr("overflow", "dropoldest")),
+                            laneDig.attr("labels", ""), laneDig.attr("priorities", ""));
+                    if (laneDig.attr("default", false))
+                        defaultLane = lane;
+                }
+                if (defaultLane == null) // None marked as default, so use the last one
+                    defaultLane = lanes.get(lanes.size() - 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Find the lane a datagram belongs in, a lane for the priority goes first. Otherwise it's based on the label, only
+     * the part in front of the : is used
+     *
+     * @param d The datagram to check
+     * @return The lane to use
+     */
+    private static QueueLane findLane(Datagram d) {
+        if (!priorityLanes.isEmpty()) {
+            var lane = priorityLanes.get(d.getPriority());
+            if (lane != null)
+                return lane;
+        }
+        var label = d.getLabel();
+        int index = label.indexOf(":");
+        if (index != -1)
+            label = label.substring(0, index);
+        return labelLanes.getOrDefault(label, defaultLane);
+    }
 
     public static void addToQueue(Datagram d) {
-        dQueue.add(d);
+        lock.lock();
+        try {
+            var lane = findLane(d);
+            if (lane.isFull() && lane.overflow() == QueueLane.Overflow.BLOCK && mayBlock()) {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+                while (lane.isFull() && nanos > 0)
+                    nanos = lane.notFull().awaitNanos(nanos);
+            }
+            lane.offer(d);
+            notEmpty.signal();
+        } catch (InterruptedException e) {
+            Logger.error("Interrupted while waiting for room in queue, datagram lost: " + d.getData());
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check if the current thread may wait for room in a lane. The consumer would wait on itself and netty (or other
+     * pool) threads shouldn't be held up, those get the fallback of the lane instead.
+     *
+     * @return True if it's fine to block this thread
+     */
+    private static boolean mayBlock() {
+        var thread = Thread.currentThread();
+        return thread != consumer && !(thread instanceof FastThreadLocalThread);
     }
 
     public static void queueSystemCmd(String cmd) {
-        dQueue.add(Datagram.system(cmd));
+        addToQueue(Datagram.system(cmd));
     }
+
+    /**
+     * Wait for the next datagram, the lanes are checked in order, so the first one has the highest priority
+     *
+     * @return The datagram
+     * @throws InterruptedException If interrupted while waiting
+     */
     public static Datagram retrieve() throws InterruptedException {
-        return dQueue.take();
+        consumer = Thread.currentThread();
+        lock.lock();
+        try {
+            while (true) {
+                for (var lane : lanes) {
+                    var d = lane.poll();
+                    if (d != null)
+                        return d;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
     }
-    public static int queueSize(){
-        return dQueue.size();
+
+    private static boolean isEmpty() {
+        return lanes.stream().allMatch(QueueLane::isEmpty);
+    }
+
+    public static int queueSize() {
+        lock.lock();
+        try {
+            return lanes.stream().mapToInt(QueueLane::depth).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the status of the lanes, depth and drop counters
+     *
+     * @return One line per lane, starting with !! if the lane is almost full
+     */
+    public static String getStatus() {
+        var join = new StringJoiner("\r\n");
+        lock.lock();
+        try {
+            lanes.forEach(lane -> join.add(lane.getStatus()));
+        } finally {
+            lock.unlock();
+        }
+        return join.toString();
     }
 }
@@ -23,6 +23,7 @@
 import util.LookAndFeel;
 import util.data.vals.Rtvals;
 import util.database.DatabaseManager;
+import util.evalcore.ExprCompiler;
 import util.gis.Waypoints;
 import util.math.MathUtils;
 import util.tasks.TaskManagerPool;
@@ -72,6 +73,7 @@ public class DAS implements Commandable{
     private DatabaseManager dbManager; // Manager for the database interaction
     private MqttPool mqttPool; // Pool for the mqtt connections
     private CollectorPool collectorPool; // Pool of the collector objects (mainly filecollectors)
+    private PathPool pathPool; // Pool of the paths and the lanes they run on
     private CommandPool commandPool; // Pool that holds the references to all the commandables
     private boolean bootOK = false; // Flag to show if booting went ok
     String sdReason = "Unwanted shutdown."; // Reason for shutdown of das, default is unwanted
@@ -102,6 +104,7 @@ public DAS() {
         var digger = Paths.digInSettings(); // Use digger to go through settings.xml
 
         digForSettings( digger );   // Dig for the settings node
+        Core.readSettings();        // Apply the lanes of the dispatch queue
 
         /* CommandPool */
         commandPool = new CommandPool( );
@@ -193,6 +196,7 @@ private void digForSettings( XMLdigger digger ){
             if( maxRawAge==0){
                 Logger.error("Invalid maxrawage value: "+age+" defaulting to 1 hour.");
             }
+            ExprCompiler.setEnabled(digger.peekAt("compileexpressions").value(true));
             if( digger.hasPeek("statuscheck") ){
                 digger.usePeek();
                 var check = digger.peekAt("checkinterval").value("1h");
@@ -211,7 +215,7 @@ private void addRtvals(){
         addCommandable(rtvals,"stop");
     }
     private void prepareForwards(){
-        var pathPool = new PathPool(rtvals);
+        pathPool = new PathPool(rtvals);
         addCommandable(pathPool,"paths","path","pf");
         addCommandable(pathPool, ""); // empty cmd is used to stop data requests
     }
@@ -472,6 +476,10 @@ public void run() {
                 if (streamManager != null)
                     streamManager.disconnectAll();
 
+                // Stop the threads of the paths
+                if (pathPool != null)
+                    pathPool.shutdown();
+
                 Logger.info("All processes terminated!");
                 shutdownTinylog();
 
@@ -556,7 +564,7 @@ public void startAll() {
             nettyGroup.schedule(this::checkStatus,20,TimeUnit.MINUTES); // First check, twenty minutes after startup
 
         if (rawWorker != null)
-            rawWorker.start(true);
+            rawWorker.start();
 
         Logger.info("Finished startAll");
     }
@@ -701,6 +709,7 @@ private void addDbmStatus(StringBuilder report, boolean html) {
     public String getQueueSizes() {
         StringJoiner join = new StringJoiner("\r\n", "", "\r\n");
         join.add("Data buffer: " + Core.queueSize() + " in receive buffer and "+ labelWorker.getWaitingQueueSize()+" waiting...");
+        join.add(Core.getStatus());
 
         if (emailWorker != null)
             join.add("Email backlog: " + emailWorker.getRetryQueueSize() );
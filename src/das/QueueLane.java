@@ -0,0 +1,385 @@
+package das;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.tinylog.Logger;
+import worker.Datagram;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single lane of the dispatch queue in Core, holds the datagrams for a group of labels.
+ * Not thread safe on its own, Core guards every lane with one shared lock. The file access of the spill happens on a
+ * separate thread without that lock, the datagrams are handed over through a buffer in each direction.
+ */
+class QueueLane {
+    private static final ExecutorService spillIO = Executors.newSingleThreadExecutor(new DefaultThreadFactory("queue-spill", true));
+
+    enum Overflow {DROP_OLDEST, BLOCK, SPILL}
+
+    private final String id;
+    private final int capacity;
+    private final Overflow overflow;
+    private final ArrayDeque<Datagram> queue;
+    private final ReentrantLock lock;
+    private final Condition notFull;  // Used by the block policy to park producers
+    private final Condition notEmpty; // Signalled when spilled datagrams are back in memory
+
+    /* Counters */
+    private long dropped = 0;  // Datagrams that got discarded because the lane was full
+    private long total = 0;    // Datagrams that were accepted in the lane
+    private int peak = 0;      // Highest depth since boot
+
+    /* Spill to disk, in order: spillIn, the file, writing and spillOut */
+    private final Path spillPath;
+    private BufferedWriter spillWriter; // Only used by the spill thread
+    private BufferedReader spillReader; // Only used by the spill thread
+    private final ArrayDeque<Datagram> spillOut = new ArrayDeque<>(); // Waiting to be written to the file
+    private final ArrayDeque<Datagram> spillIn = new ArrayDeque<>();  // Read back from the file
+    private int writing = 0;      // Taken from spillOut by the spill thread, but not in the file yet
+    private int onDisk = 0;       // Datagrams in the file that weren't read back yet
+    private int spillDepth = 0;   // Datagrams in any of the above
+    private boolean ioQueued = false;
+    private long spilled = 0;     // Total of datagrams that went to disk
+
+    QueueLane(String id, int capacity, Overflow overflow, ReentrantLock lock, Condition notEmpty) {
+        this.id = id;
+        this.capacity = Math.max(1, capacity);
+        this.overflow = overflow;
+        this.queue = new ArrayDeque<>(Math.min(this.capacity, 256));
+        this.lock = lock;
+        this.notFull = lock.newCondition();
+        this.notEmpty = notEmpty;
+        this.spillPath = Paths.storage().resolve("tmp").resolve("queue_" + id + ".spill");
+    }
+
+    /**
+     * Convert the overflow attribute from the settings to the enum
+     *
+     * @param overflow The value found in the xml
+     * @return The matching overflow, drop oldest if unknown
+     */
+    static Overflow parseOverflow(String overflow) {
+        return switch (overflow.toLowerCase()) {
+            case "block" -> Overflow.BLOCK;
+            case "spill", "disk" -> Overflow.SPILL;
+            case "dropoldest", "drop" -> Overflow.DROP_OLDEST;
+            default -> {
+                Logger.warn("Unknown overflow policy '" + overflow + "', using dropoldest");
+                yield Overflow.DROP_OLDEST;
+            }
+        };
+    }
+
+    String id() {
+        return id;
+    }
+
+    Overflow overflow() {
+        return overflow;
+    }
+
+    Condition notFull() {
+        return notFull;
+    }
+
+    boolean isFull() {
+        return queue.size() >= capacity || spillDepth != 0;
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty() && spillDepth == 0;
+    }
+
+    int depth() {
+        return queue.size() + spillDepth;
+    }
+
+    /**
+     * Add the datagram to this lane, applying the overflow policy if the lane is full.
+     * The caller must hold the lock and already waited in case of the block policy.
+     *
+     * @param d The datagram to add
+     */
+    void offer(Datagram d) {
+        if (isFull()) {
+            switch (overflow) {
+                case SPILL, BLOCK -> { // Block ends up here when the wait timed out or the producer may not wait
+                    if (spill(d))
+                        return;
+                    if (spillDepth != 0) { // Older ones are spilled, so it can't go in memory without overtaking them
+                        dropped++;
+                        return;
+                    }
+                    queue.poll(); // Couldn't spill, so drop the oldest instead
+                }
+                case DROP_OLDEST -> queue.poll();
+            }
+            dropped++;
+        }
+        queue.add(d);
+        total++;
+        peak = Math.max(peak, depth());
+    }
+
+    /**
+     * Take the oldest datagram from this lane, refilling from disk if there's spilled data
+     *
+     * @return The datagram or null if the lane is empty
+     */
+    Datagram poll() {
+        if (spillDepth != 0 && queue.size() < Math.max(1, capacity / 2))
+            refill();
+        var d = queue.poll();
+        if (d != null)
+            notFull.signal();
+        return d;
+    }
+
+    /* ******************************************** S P I L L ************************************************** */
+    /**
+     * Hand the datagram to the spill thread, only possible if it doesn't hold any references
+     *
+     * @param d The datagram to spill
+     * @return True if it will be written to disk
+     */
+    private boolean spill(Datagram d) {
+        if (d.getWritable() != null || d.payload() != null) // Can't write references to disk
+            return false;
+        spillOut.add(d);
+        spillDepth++;
+        spilled++;
+        peak = Math.max(peak, depth());
+        scheduleIO();
+        return true;
+    }
+
+    /**
+     * Move the datagrams that were read back to memory, and ask the spill thread for more if it's running low
+     */
+    private void refill() {
+        while (queue.size() < capacity && !spillIn.isEmpty()) {
+            queue.add(spillIn.poll());
+            spillDepth--;
+        }
+        if (spillIn.isEmpty() && onDisk == 0 && writing == 0) { // Nothing in the file, so no need to write them
+            while (queue.size() < capacity && !spillOut.isEmpty()) {
+                queue.add(spillOut.poll());
+                spillDepth--;
+            }
+        }
+        if (onDisk != 0 || writing != 0 || !spillOut.isEmpty())
+            scheduleIO();
+    }
+
+    private void scheduleIO() {
+        if (ioQueued)
+            return;
+        ioQueued = true;
+        spillIO.execute(this::doSpillIO);
+    }
+
+    /**
+     * Runs on the spill thread, writes the handed over datagrams and reads back the oldest ones without the lock
+     */
+    private void doSpillIO() {
+        ArrayList<Datagram> out;
+        lock.lock();
+        try {
+            ioQueued = false;
+            out = new ArrayList<>(spillOut);
+            spillOut.clear();
+            writing = out.size();
+        } finally {
+            lock.unlock();
+        }
+        boolean ok = write(out);
+        if (!ok) // Unknown what made it to the file, so start over with an empty one
+            closeSpill();
+
+        int want;
+        lock.lock();
+        try {
+            writing = 0;
+            if (ok) {
+                onDisk += out.size();
+            } else {
+                dropped += out.size() + onDisk;
+                spillDepth -= out.size() + onDisk;
+                onDisk = 0;
+            }
+            want = Math.min(onDisk, capacity - queue.size() - spillIn.size());
+        } finally {
+            lock.unlock();
+        }
+        var in = read(want);
+
+        boolean close;
+        lock.lock();
+        try {
+            if (in == null) { // Reading failed, so whatever is in the file is lost
+                dropped += onDisk;
+                spillDepth -= onDisk;
+                onDisk = 0;
+            } else {
+                onDisk -= in.size();
+                spillIn.addAll(in);
+            }
+            close = in == null || (onDisk == 0 && spillOut.isEmpty());
+            if (!spillOut.isEmpty() || (onDisk != 0 && queue.size() + spillIn.size() < capacity / 2))
+                scheduleIO();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (close) // Nothing left in the file, a new spill starts with an empty one
+            closeSpill();
+    }
+
+    /**
+     * Append the datagrams to the spill file
+     *
+     * @return True if all of them were written
+     */
+    private boolean write(List<Datagram> out) {
+        if (out.isEmpty())
+            return true;
+        try {
+            if (spillWriter == null) {
+                Files.createDirectories(spillPath.getParent());
+                spillWriter = Files.newBufferedWriter(spillPath, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            }
+            for (var d : out) {
+                var line = escape(d.getLabel()) + "\t" + d.getPriority() + "\t" + (d.isSilent() ? "1" : "0") + "\t"
+                        + escape(d.originID()) + "\t" + escape(d.getData());
+                spillWriter.write(line);
+                spillWriter.newLine();
+            }
+            spillWriter.flush(); // Make sure it's readable
+            return true;
+        } catch (IOException e) {
+            Logger.error("Failed to spill datagrams of lane " + id + " to " + spillPath + " -> " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Read the oldest datagrams from the spill file
+     *
+     * @param max The maximum amount to read
+     * @return The datagrams or null if reading failed
+     */
+    private List<Datagram> read(int max) {
+        var in = new ArrayList<Datagram>();
+        if (max <= 0)
+            return in;
+        try {
+            if (spillReader == null)
+                spillReader = Files.newBufferedReader(spillPath, StandardCharsets.UTF_8);
+            while (in.size() < max) {
+                var line = spillReader.readLine();
+                if (line == null)
+                    return null; // Fewer lines than written
+                var spl = line.split("\t", 5);
+                if (spl.length != 5)
+                    return null;
+                var d = Datagram.build(unescape(spl[4]))
+                        .label(unescape(spl[0])).priority(Integer.parseInt(spl[1])).origin(unescape(spl[3]));
+                if (spl[2].equals("0"))
+                    d.toggleSilent();
+                in.add(d);
+            }
+        } catch (IOException | NumberFormatException e) {
+            Logger.error("Failed to read spilled datagrams of lane " + id + " -> " + e.getMessage());
+            return null;
+        }
+        return in;
+    }
+
+    /**
+     * Escape a field of a spilled datagram, so it holds no tab or line ending. The backslash goes first, so data that
+     * already contains a literal \n comes back unaltered.
+     */
+    private static String escape(String field) {
+        if (field.indexOf('\\') == -1 && field.indexOf('\t') == -1 && field.indexOf('\n') == -1 && field.indexOf('\r') == -1)
+            return field;
+        var sb = new StringBuilder(field.length() + 8);
+        for (int a = 0; a < field.length(); a++) {
+            char c = field.charAt(a);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\t' -> sb.append("\\t");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reverse of escape
+     */
+    private static String unescape(String field) {
+        if (field.indexOf('\\') == -1)
+            return field;
+        var sb = new StringBuilder(field.length());
+        for (int a = 0; a < field.length(); a++) {
+            char c = field.charAt(a);
+            if (c == '\\' && a + 1 < field.length()) {
+                c = field.charAt(++a);
+                switch (c) {
+                    case 't' -> c = '\t';
+                    case 'n' -> c = '\n';
+                    case 'r' -> c = '\r';
+                    default -> { // Only the backslash itself is left
+                    }
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private void closeSpill() {
+        try {
+            if (spillWriter != null)
+                spillWriter.close();
+            if (spillReader != null)
+                spillReader.close();
+            Files.deleteIfExists(spillPath);
+        } catch (IOException e) {
+            Logger.error("Failed to clean up spill file " + spillPath + " -> " + e.getMessage());
+        }
+        spillWriter = null;
+        spillReader = null;
+    }
+
+    /**
+     * Get a single line status of this lane
+     *
+     * @return Status in the format 'id: depth/capacity (peak x, dropped y)'
+     */
+    String getStatus() {
+        var depth = depth();
+        var status = (depth >= capacity * 0.8 ? "!! " : "") + "Lane " + id + ": " + depth + "/" + capacity
+                + " (" + overflow.toString().toLowerCase().replace("_", "") + ", peak " + peak + ", total " + total
+                + ", dropped " + dropped;
+        if (overflow == Overflow.SPILL || spilled != 0) // Block spills when the producer can't wait
+            status += ", spilled " + spilled;
+        return status + ")";
+    }
+}
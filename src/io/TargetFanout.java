@@ -0,0 +1,182 @@
+package io;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.tinylog.Logger;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queued delivery of lines to the targets of a path or stream. Each target gets its own bounded queue that is drained
+ * by at most one task at a time, so the order per target is kept while a slow target only delays itself.
+ * The thread that delivers the data only enqueues, if a queue is full either the oldest or the newest line is dropped.
+ * Targets that can't be written to from another thread are written to directly instead.
+ */
+public class TargetFanout {
+    public enum DROP {OLDEST, NEWEST}
+
+    /* Shared by all the fanouts, a drain gives the thread back after a batch so the targets take turns */
+    private static final ExecutorService drainers = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), new DefaultThreadFactory("target-drain", true));
+    private static final int BATCH = 64; // Lines to send before giving the thread back
+
+    private final String id;
+    private final int capacity;
+    private final DROP drop;
+    private final ConcurrentHashMap<Writable, TargetQueue> queues = new ConcurrentHashMap<>();
+
+    private TargetFanout(String id, int capacity, DROP drop) {
+        this.id = id;
+        this.capacity = capacity;
+        this.drop = drop;
+    }
+
+    /**
+     * Create a fanout if queued delivery is wanted
+     *
+     * @param id       The id of the path or stream, used for logging
+     * @param capacity The size of the queue per target, 0 or less means direct delivery
+     * @param drop     Which line to drop if a queue is full, oldest or newest
+     * @return The fanout or an empty optional if the capacity is 0 or less
+     */
+    public static Optional<TargetFanout> of(String id, int capacity, String drop) {
+        if (capacity <= 0)
+            return Optional.empty();
+        var policy = DROP.OLDEST;
+        if (drop.equalsIgnoreCase("newest")) {
+            policy = DROP.NEWEST;
+        } else if (!drop.equalsIgnoreCase("oldest")) {
+            Logger.warn(id + "(fanout) -> Unknown drop policy '" + drop + "', using oldest");
+        }
+        return Optional.of(new TargetFanout(id, capacity, policy));
+    }
+
+    /**
+     * Queue a line for the target, the actual write happens on a drain thread if the target is thread safe
+     *
+     * @param target The target to send it to
+     * @param origin The origin of the line
+     * @param line   The line to send
+     */
+    public void writeLine(Writable target, String origin, String line) {
+        if (!target.isThreadSafe()) { // Keep it on the thread of the caller, like without a fanout
+            target.writeLine(origin, line);
+            return;
+        }
+        queues.computeIfAbsent(target, TargetQueue::new).offer(origin, line);
+    }
+
+    /**
+     * Remove the queue of a target, lines that are still queued are discarded
+     *
+     * @param target The target to remove
+     */
+    public void remove(Writable target) {
+        queues.remove(target);
+    }
+
+    /**
+     * Remove the queues of the targets that are no longer in the given collection
+     *
+     * @param targets The current targets
+     */
+    public void retain(Collection<Writable> targets) {
+        if (!targets.containsAll(queues.keySet()))
+            queues.keySet().retainAll(targets);
+    }
+
+    /**
+     * Remove all the queues
+     */
+    public void clear() {
+        queues.clear();
+    }
+
+    /**
+     * Get the state of the queue of each target
+     *
+     * @param eol The line ending to use
+     * @return Per target the amount queued, sent and dropped and the lag
+     */
+    public String getInfo(String eol) {
+        var join = new StringJoiner(eol);
+        join.add("Queued delivery, " + capacity + " lines per target and drop " + drop.toString().toLowerCase() + " if full");
+        if (queues.isEmpty())
+            join.add(" No targets yet");
+        queues.values().forEach(q -> join.add(" " + q));
+        return join.toString();
+    }
+
+    /* ******************************************************************************************************* */
+    private record Line(String origin, String data, long queued) {
+    }
+
+    private class TargetQueue implements Runnable {
+        private final Writable target;
+        private final ArrayBlockingQueue<Line> queue = new ArrayBlockingQueue<>(capacity);
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile long lastLag = 0; // Nanos the last sent line was queued
+        private volatile long maxLag = 0;
+
+        TargetQueue(Writable target) {
+            this.target = target;
+        }
+
+        void offer(String origin, String data) {
+            var line = new Line(origin, data, System.nanoTime());
+            if (drop == DROP.NEWEST) {
+                if (!queue.offer(line))
+                    dropped.incrementAndGet();
+            } else {
+                while (!queue.offer(line)) { // Make room, retry because another thread might have taken it
+                    if (queue.poll() != null)
+                        dropped.incrementAndGet();
+                }
+            }
+            if (draining.compareAndSet(false, true))
+                drainers.execute(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int a = 0; a < BATCH; a++) {
+                    var line = queue.poll();
+                    if (line == null)
+                        break;
+                    long lag = System.nanoTime() - line.queued();
+                    lastLag = lag;
+                    if (lag > maxLag)
+                        maxLag = lag;
+                    try {
+                        target.writeLine(line.origin(), line.data());
+                        sent.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        Logger.error(id + "(fanout) -> Failed to write to " + target.id() + ": " + e.getMessage());
+                    }
+                }
+            } finally {
+                draining.set(false);
+                // Lines added between the last poll and the reset didn't start a drain, so check again
+                if (!queue.isEmpty() && queues.get(target) == this && draining.compareAndSet(false, true))
+                    drainers.execute(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return target.id() + " -> queued " + queue.size() + ", sent " + sent.get() + ", dropped " + dropped.get()
+                    + ", lag " + TimeUnit.NANOSECONDS.toMillis(lastLag) + "ms (max " + TimeUnit.NANOSECONDS.toMillis(maxLag) + "ms)";
+        }
+    }
+}
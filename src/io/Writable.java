@@ -35,6 +35,15 @@ default boolean writeBytes(byte[] data) {
      */
     boolean isConnectionValid();
 
+    /**
+     * Indicate if writeLine can be called from any thread. If not, queued delivery writes to it directly instead of
+     * handing it to a drain thread.
+     * @return True if it's safe to call writeLine from another thread
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
+
     default Writable getWritable() {
         return this;
     }
@@ -74,6 +74,10 @@ public String id() {
     public boolean isConnectionValid() {
         return valid;
     }
+    @Override
+    public boolean isThreadSafe() {
+        return true; // writeLine is synchronized
+    }
     /* *********************** TIME OUT *******************************************/
     /**
      * Set a timeout for this collector, so it won't gather/wait indefinitely
@@ -61,6 +61,7 @@ public void collectorFinished(String id, String message, Object result) {
      * Check the settings.xml for filecollectors and load them
      */
     private void loadFileCollectors(){
+        fileCollectors.values().forEach(FileCollector::close); // Write what's left and release the files
         fileCollectors.clear();
         FileCollector.createFromXml(
                         Paths.digInSettings("collectors")
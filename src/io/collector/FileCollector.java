@@ -12,7 +12,12 @@
 import worker.Datagram;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -26,7 +31,6 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.StringJoiner;
 import java.util.concurrent.*;
 
 public class FileCollector extends AbstractCollector{
@@ -68,6 +72,18 @@ public enum TRIGGERS {IDLE, ROLLOVER, MAXSIZE }
 
     private Future<?> flushFuture;
 
+    /* Writing */
+    private final Object writeLock = new Object(); // Flushes, rollover and idle close all touch the channel
+    private FileChannel channel;  // Kept open between flushes, null if no file is open
+    private Path channelPath;     // The path the channel was opened on
+    private long fileSize = 0;    // Size of the open file, tracked instead of asking the filesystem each flush
+    private final ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024); // Lines are encoded into this
+    private final CharsetEncoder encoder = charSet.newEncoder()
+                                                .onMalformedInput(CodingErrorAction.REPLACE)
+                                                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long syncMillis = 0;  // Time between fsyncs, 0 if left to the OS
+    private long lastSync = 0;
+
     public FileCollector(String id, String timeoutPeriod, ScheduledExecutorService scheduler) {
         super(id);
         secondsTimeout = TimeTools.parsePeriodStringToSeconds(timeoutPeriod);
@@ -174,6 +190,8 @@ private void digForFlush( XMLdigger dig ){
         if (dig.hasPeek("flush")) {
             dig.usePeek();
             setBatchsize( dig.attr("batchsize",Integer.MAX_VALUE));
+            var sync = dig.attr("sync", "");
+            syncMillis = sync.isEmpty() ? 0 : TimeTools.parsePeriodStringToMillis(sync);
             if( scheduler != null ) {
                 String timeout = dig.attr( "age", "-1");
                 if (!timeout.equalsIgnoreCase("-1")) {
@@ -376,7 +394,8 @@ protected void timedOut() {
         Logger.debug(id+ "(fc) -> TimeOut expired");
 
         if( dataBuffer.isEmpty() ){
-            // Timed out with empty buffer
+            // Timed out with empty buffer, no need to keep the file open
+            closeChannel();
             trigCmds.stream().filter( tc -> tc.trigger==TRIGGERS.IDLE)
                              .forEach( tc-> Core.addToQueue( Datagram.system(tc.cmd.replace("{path}",getPath().toString())).writable(this)) );
         }else{
@@ -392,7 +411,8 @@ protected void timedOut() {
     }
 
     /**
-     * Write data to the chosen file
+     * Write data to the chosen file, the file is kept open until the path changes, the size limit is reached or the
+     * collector is idle.
      * @param dest The path to write to
      */
     private void appendData( Path dest ){
@@ -401,63 +421,138 @@ private void appendData( Path dest ){
             Logger.error(id+"(fc) -> No valid destination path");
             return;
         }
-        boolean isNewFile = false;
-        if( Files.notExists(dest) ){
-            isNewFile=true;
-            var parent = dest.toAbsolutePath().getParent();
-            try { // Create the dir structure if it doesn't exist yet
-                Files.createDirectories(parent);
-            } catch (IOException e) {
-                Logger.error(id + "(fc) -> " + e.getMessage());
-                return;
-            }
-        }else if( headerChanged ){ // File already exists and the header changed, rename the old and start a new file
-            if (renameOldFile(id, dest).isEmpty())
+        synchronized (writeLock) {
+            if (dataBuffer.isEmpty()) // Don't write empty lines
                 return;
-            isNewFile=true;
-        }
+            try {
+                if (!openChannel(dest))
+                    return;
+
+                String line;
+                int cnt = dataBuffer.size() * 4; // At maximum write 4 times the buffer
+                long start = fileSize;
+                while (cnt != 0 && (line = dataBuffer.poll()) != null) {
+                    if (!line.isBlank()) {
+                        encode(line);
+                        encode(eol);
+                    }
+                    cnt--;
+                }
+                // Reset counter
+                byteCount = 0;
 
-        StringJoiner join = new StringJoiner(eol, "", eol);
-        if( !headers.isEmpty() && isNewFile ) // the file doesn't exist yet and headers are defined
-            headers.forEach( hdr -> join.add(hdr.replace("{file}",dest.getFileName().toString()))); // Add the headers
+                writeOut();
+                Logger.debug(id + "(fc) Written " + (fileSize - start) + " bytes to " + dest.getFileName().toString());
 
-        String line;
-        int cnt=dataBuffer.size()*4; // At maximum write 4 times the buffer
-        while((line=dataBuffer.poll()) != null && cnt !=0) {
-            if( !line.isBlank() )
-                join.add(line);
-            cnt--;
+                if (syncMillis > 0 && System.currentTimeMillis() - lastSync >= syncMillis) {
+                    channel.force(false);
+                    lastSync = System.currentTimeMillis();
+                }
+                renameIfToBig(dest);
+            } catch (IOException e) {
+                Logger.error(id + "(fc) -> Failed to write to " + dest + " because " + e);
+                out.clear();
+                closeChannel(); // Reopen on the next flush
+            }
         }
-        // Reset counter
-        byteCount=0;
-
-        writeData(join.toString(), dest);
     }
 
-    private void writeData(String data, Path dest) {
-        try {
-            if (data.isBlank())// Don't write empty lines
-                return;
-            var isNewFile = Files.notExists(dest);
-            Files.writeString(dest, data, charSet, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-            Logger.debug(id + "(fc) Written " + data.length() + " bytes to " + dest.getFileName().toString());
+    /**
+     * Make sure the channel is open on the given path, if the file is new the headers are written first
+     * @param dest The path to write to
+     * @return True if the channel is ready
+     */
+    private boolean openChannel(Path dest) throws IOException {
+        if (channel != null && dest.equals(channelPath))
+            return true;
+        closeChannel(); // Path changed, so rollover happened
+
+        boolean isNewFile = Files.notExists(dest);
+        if (isNewFile) { // Create the dir structure if it doesn't exist yet
+            Files.createDirectories(dest.toAbsolutePath().getParent());
+        } else if (headerChanged) { // File already exists and the header changed, rename the old and start a new file
+            if (renameOldFile(id, dest).isEmpty())
+                return false;
+            isNewFile = true;
+        }
+        headerChanged = false; // Either a new file or one with the right header
+
+        channel = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channelPath = dest;
+        fileSize = channel.size();
+        lastSync = System.currentTimeMillis();
+
+        if (isNewFile) {
+            FileTools.setAllPermissions(dest);
+            for (var hdr : headers) { // Add the headers
+                encode(hdr.replace("{file}", dest.getFileName().toString()));
+                encode(eol);
+            }
+        }
+        return true;
+    }
 
-            if (isNewFile)
-                FileTools.setAllPermissions(dest);
+    /**
+     * Encode the text into the buffer, writing the buffer to the channel whenever it's full
+     * @param text The text to encode
+     */
+    private void encode(String text) throws IOException {
+        var chars = CharBuffer.wrap(text);
+        encoder.reset();
+        while (encoder.encode(chars, out, true).isOverflow())
+            writeOut();
+        while (encoder.flush(out).isOverflow())
+            writeOut();
+    }
 
-            renameIfToBig(dest);
+    /**
+     * Write the content of the buffer to the channel
+     */
+    private void writeOut() throws IOException {
+        out.flip();
+        while (out.hasRemaining())
+            fileSize += channel.write(out);
+        out.clear();
+    }
 
-        } catch (IOException e) {
-            Logger.error(id + "(fc) -> Failed to write to " + dest + " because " + e);
+    /**
+     * Close the file, it's reopened on the next flush
+     */
+    private void closeChannel() {
+        synchronized (writeLock) {
+            if (channel == null)
+                return;
+            try {
+                if (syncMillis > 0)
+                    channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                Logger.error(id + "(fc) -> Failed to close " + channelPath + " because " + e);
+            }
+            channel = null;
+            channelPath = null;
         }
     }
 
-    private void renameIfToBig(Path dest) throws IOException {
+    /**
+     * Write what is still buffered and close the file, used when the collector is no longer needed
+     */
+    public void close() {
+        valid = false; // Sources drop it
+        if (scheduler != null)
+            scheduler.submit(() -> {
+                appendData(getPath());
+                closeChannel();
+            });
+    }
+
+    private void renameIfToBig(Path dest) {
         // If max size isn't used or isn't reached return
-        if (maxBytes == -1 || Files.size(dest) < maxBytes)
+        if (maxBytes == -1 || fileSize < maxBytes)
             return;
 
-        var renamed = renameOldFile(id, dest).orElseGet(null);// rename the file
+        closeChannel();
+        var renamed = renameOldFile(id, dest).orElse(null);// rename the file
         if (renamed == null)
             return;
 
@@ -578,6 +673,7 @@ public void run() {
                 String path;
                 if( zippedRoll ){
                     var res = flushFuture.get(5,TimeUnit.SECONDS); // Writing should be done in 5 seconds...
+                    closeChannel(); // Don't zip a file that is still open
                     if( res==null) { // if zipping and append is finished
                         var zipOpt = FileTools.zipFile(old, true);
                         path = zipOpt.map(zip -> {
@@ -592,6 +688,7 @@ public void run() {
                     }
                 } else {
                     Logger.info(id + "(fc) -> Not zipping");
+                    closeChannel(); // Waits on a running flush, the next one opens the new file
                     path=old.toString();
                 }
                 // Triggered commands
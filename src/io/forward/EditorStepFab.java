@@ -1,11 +1,13 @@
 package io.forward;
 
 import io.forward.steps.EditorStep;
+import io.forward.steps.StepRecord;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.tinylog.Logger;
 import util.LookAndFeel;
 import util.data.ValTools;
 import util.data.vals.Rtvals;
+import util.tools.LiteralSet;
 import util.tools.TimeTools;
 import util.tools.Tools;
 import util.xml.XMLdigger;
@@ -16,6 +18,7 @@
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.function.Function;
@@ -28,20 +31,31 @@ public static Optional<EditorStep> buildEditorStep(XMLdigger dig, String delimit
         return digEditorNode(dig, rtvals, delimiter);
     }
 
-    @SuppressWarnings("unchecked")
     private static Optional<EditorStep> digEditorNode(XMLdigger dig, Rtvals rtvals, String delimiter) {
-        ArrayList<Function<String, String>> edits = new ArrayList<>();
+        ArrayList<StepRecord.Edit> edits = new ArrayList<>();
 
         var deli = dig.attr("delimiter", delimiter);
         var id = dig.attr("id", "");
         
         var info = new StringJoiner("\r\n");
         if( dig.hasPeek("*")){
+            var finds = new ArrayList<String>(); // Consecutive literal replacements, applied in a single pass
+            var repls = new ArrayList<String>();
             for( var node : dig.digOut("*")){
                 var proc = processNode(node, deli, rtvals, info);
-                if( proc !=null )
+                if( proc == null )
+                    continue;
+                var literal = getLiteralReplacement(node);
+                if( literal == null || !canJoin(finds, repls, literal[0]) )
+                    addReplacements(edits, finds, repls);
+                if( literal != null ){
+                    finds.add(literal[0]);
+                    repls.add(literal[1]);
+                }else{
                     edits.add(proc);
+                }
             }
+            addReplacements(edits, finds, repls);
             /*var set = dig.digOut("*")
                     .stream()
                     .map(node -> processNode(node, deli, rtvals, info))
@@ -55,10 +69,83 @@ private static Optional<EditorStep> digEditorNode(XMLdigger dig, Rtvals rtvals,
         }
         if (edits.isEmpty())
             return Optional.empty();
-        return Optional.of(new EditorStep(id, edits.toArray(Function[]::new)));
+        return Optional.of(new EditorStep(id, edits.toArray(StepRecord.Edit[]::new)));
+    }
+
+    /**
+     * Get the find and replacement of a replace or remove node, both unescaped
+     *
+     * @return The find and replacement or null if it's another type of edit
+     */
+    private static String[] getLiteralReplacement(XMLdigger dig) {
+        var type = dig.attr("type",dig.tagName(""));
+        var content = dig.value("");
+        if( type.equals("remove") ) {
+            var find = Tools.fromEscapedStringToBytes(content);
+            return find.isEmpty() ? null : new String[]{find, ""};
+        }
+        if( !type.equals("replace") )
+            return null;
+        var find = dig.attr("find","");
+        if( find.isEmpty())
+            find = dig.attr("regex","");
+        find = Tools.fromEscapedStringToBytes(find);
+        return find.isEmpty() ? null : new String[]{find, Tools.fromEscapedStringToBytes(content)};
+    }
+
+    /**
+     * Check if doing the replacement in the same pass as the earlier ones gives the same result as doing it after them.
+     * That's the case if the find can't overlap with the earlier finds and can't be created by the earlier edits, so
+     * it can't contain a char used in any of those and if an earlier one removes text the find needs to be a single
+     * char (otherwise the removal can join the parts of it).
+     */
+    private static boolean canJoin(List<String> finds, List<String> repls, String find) {
+        if( finds.size() >= LiteralSet.MAX_LITERALS )
+            return false;
+        for( int a=0;a<finds.size();a++ ){
+            if( repls.get(a).isEmpty() && find.length() != 1 )
+                return false;
+            for( int c=0;c<find.length();c++ ){
+                var ch = find.charAt(c);
+                if( finds.get(a).indexOf(ch) != -1 || repls.get(a).indexOf(ch) != -1 )
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add the collected replacements as a single edit and clear the lists
+     */
+    private static void addReplacements(ArrayList<StepRecord.Edit> edits, List<String> finds, List<String> repls) {
+        if( finds.size() == 1 ){
+            var find = finds.get(0);
+            var repl = repls.get(0);
+            edits.add(StepRecord.ofLine(input -> input.replace(find, repl)));
+        }else if( finds.size() > 1 ){
+            var set = LiteralSet.of(finds);
+            var replacements = repls.toArray(String[]::new);
+            if( set.isPresent() ){
+                var ls = set.get();
+                edits.add(StepRecord.ofLine(input -> ls.replace(input, replacements)));
+            }else{ // Shouldn't happen, but fall back to one at a time
+                var fs = finds.toArray(String[]::new);
+                edits.add(StepRecord.ofLine(input -> {
+                    for( int a=0;a<fs.length;a++ )
+                        input = input.replace(fs[a], replacements[a]);
+                    return input;
+                }));
+            }
+        }
+        finds.clear();
+        repls.clear();
     }
 
-    private static Function<String, String> processNode(XMLdigger dig, String delimiter, Rtvals rtvals, StringJoiner info) {
+    /**
+     * Build the edit described by the node. Edits that work on items use the split of the record, the others work on
+     * the full line through an adapter.
+     */
+    private static StepRecord.Edit processNode(XMLdigger dig, String delimiter, Rtvals rtvals, StringJoiner info) {
         String deli = dig.attr("delimiter",delimiter,true);
         deli = Tools.fromEscapedStringToBytes(deli);
         String content = dig.value("");
@@ -85,7 +172,7 @@ private static Function<String, String> processNode(XMLdigger dig, String delimi
             case "charsplit" -> {
                 info.add("-> Charsplit on " + deli + " on positions " + content);
                 Logger.info(" -> Added charsplit with delimiter " + deli + " on positions " + content);
-                yield addCharSplit(deli, content);
+                yield StepRecord.ofLine(addCharSplit(deli, content));
             }
             case "resplit" -> {
                 info.add("-> Resplit edit on delimiter " + deli + " with formula " + content);
@@ -95,7 +182,7 @@ private static Function<String, String> processNode(XMLdigger dig, String delimi
             case "rexsplit", "regexsplit" -> {
                 info.add("-> Get items from " + content + " and join with " + deli);
                 Logger.info(" -> Get items from " + content + " and join with " + deli);
-                yield addRexsplit(deli, content);
+                yield StepRecord.ofLine(addRexsplit(deli, content));
             }
             case "redate", "reformatdate" -> {
                 info.add("-> redate edit on delimiter " + deli + " from " + from + " to " + content + " at " + index);
@@ -113,7 +200,7 @@ private static Function<String, String> processNode(XMLdigger dig, String delimi
                     yield null;
                 }
                 info.add("-> Replacing " + find + " with " + content);
-                yield addReplacement(find, content);
+                yield StepRecord.ofLine(addReplacement(find, content));
             }
             case "rexreplace", "regexreplace" -> {
                 if (find.isEmpty()) {
@@ -121,42 +208,42 @@ private static Function<String, String> processNode(XMLdigger dig, String delimi
                     yield null;
                 }
                 info.add("-> Replacing matching regex " + find + " with " + content);
-                yield addRegexReplacement(find, content);
+                yield StepRecord.ofLine(addRegexReplacement(find, content));
             }
             case "remove" -> {
                 Logger.info(" -> Remove occurrences off " + content);
                 info.add("-> Removing " + content + " from data");
-                yield addReplacement(content, "");
+                yield StepRecord.ofLine(addReplacement(content, ""));
             }
             case "trim", "trimspaces" -> {
                 Logger.info(" -> Trimming spaces");
                 info.add("-> Trimming spaces");
-                yield addTrim();
+                yield StepRecord.ofLine(addTrim());
             }
             case "rexremove", "regexremove" -> {
                 Logger.info(" -> RexRemove matches off " + content);
                 info.add("-> Using regex " + content + " to remove data");
-                yield addRexRemove(content);
+                yield StepRecord.ofLine(addRexRemove(content));
             }
             case "rexkeep", "regexkeep" -> {
                 Logger.info(" -> Keep result of " + content);
                 info.add("-> Only keeping result of regex " + content);
-                yield addRexsplit("", content);
+                yield StepRecord.ofLine(addRexsplit("", content));
             }
             case "prepend", "prefix", "addprefix" -> {
                 Logger.info(" -> Added prepend of " + content);
                 info.add("-> Prepending " + content);
-                yield addPrepend(content);
+                yield StepRecord.ofLine(addPrepend(content));
             }
             case "append", "suffix", "addsuffix" -> {
                 Logger.info(" -> Added append of " + content);
                 info.add("-> Appending " + content);
-                yield addAppend(content);
+                yield StepRecord.ofLine(addAppend(content));
             }
             case "insert" -> {
                 Logger.info(" -> Added insert of " + content);
                 info.add("-> Inserting " + content + " at index " + dig.attr("index", ""));
-                yield addInsert(dig.attr("index", -1), content);
+                yield StepRecord.ofLine(addInsert(dig.attr("index", -1), content));
             }
             case "cutstart", "cutfromstart" -> {
                 if (NumberUtils.toInt(content, 0) == 0) {
@@ -165,7 +252,7 @@ private static Function<String, String> processNode(XMLdigger dig, String delimi
                 }
                 Logger.info(" -> Added cut start of " + content + " chars");
                 info.add("-> Cutting " + content + " characters from the start");
-                yield addCutStart(NumberUtils.toInt(content, 0));
+                yield StepRecord.ofLine(addCutStart(NumberUtils.toInt(content, 0)));
             }
             case "cutend", "cutfromend" -> {
                 if (NumberUtils.toInt(content, 0) == 0) {
@@ -174,12 +261,12 @@ private static Function<String, String> processNode(XMLdigger dig, String delimi
                 }
                 Logger.info(" -> Added cut end of " + content + " chars");
                 info.add("-> Cutting " + content + " characters from the end of the data.");
-                yield addCutEnd(NumberUtils.toInt(content, 0));
+                yield StepRecord.ofLine(addCutEnd(NumberUtils.toInt(content, 0)));
             }
             case "toascii" -> {
                 Logger.info(" -> Added conversion to char");
                 info.add("-> Converting to ascii");
-                yield converToAscii(deli);
+                yield StepRecord.ofLine(converToAscii(deli));
             }
             case "millisdate" -> {
                 Logger.info(" -> Added millis conversion to " + content);
@@ -209,27 +296,26 @@ private static Function<String, String> processNode(XMLdigger dig, String delimi
         };
     }
 
-    private static Function<String, String> addListReplace(String content, String deli, int index, int first) {
+    private static StepRecord.Edit addListReplace(String content, String deli, int index, int first) {
         String[] opts = content.split(",");
-        return input ->
+        return rec ->
         {
-            String[] items = input.split(deli);
-            if( index > items.length ){
-                Logger.error("(ef) -> (ListReplace) Not enough elements after split of " + input);
-                return null;
+            if( index >= rec.split(deli) ){
+                Logger.error("(ef) -> (ListReplace) Not enough elements after split of " + rec.line());
+                return false;
             }
-            int pos = NumberUtils.toInt(items[index],Integer.MAX_VALUE);
+            int pos = NumberUtils.toInt(rec.item(index),Integer.MAX_VALUE);
             if( pos == Integer.MAX_VALUE){
-                Logger.error(" (ef) -> (ListReplace) Parsing to int failed for " + items[index]);
-                return null;
+                Logger.error(" (ef) -> (ListReplace) Parsing to int failed for " + rec.item(index));
+                return false;
             }
             pos = pos-first;
-            if( pos <0 || pos > opts.length){
+            if( pos <0 || pos >= opts.length){
                 Logger.error(" (ef) -> (ListReplace) Invalid index for the list (" + pos + ")");
-                return null;
+                return false;
             }
-            items[index]=opts[pos];
-            return String.join(deli,items);
+            rec.setItem(index, opts[pos]);
+            return true;
         };
     }
 
@@ -270,35 +356,36 @@ private static Function<String, String> addCharSplit(String deli, String positio
         };
     }
 
-    private static Function<String, String> addMillisToDate(String to, int index, String delimiter) {
-        return input ->
+    private static StepRecord.Edit addMillisToDate(String to, int index, String delimiter) {
+        return rec ->
         {
-            String[] split = input.split(delimiter);
-            if( split.length > index){
-                long millis = NumberUtils.toLong(split[index],-1L);
+            if( rec.split(delimiter) > index){
+                long millis = NumberUtils.toLong(rec.item(index),-1L);
                 if( millis == -1L ){
-                    Logger.error("(ef) -> Couldn't convert " + split[index] + " to millis");
-                    return null;
+                    Logger.error("(ef) -> Couldn't convert " + rec.item(index) + " to millis");
+                    return false;
                 }
                 var ins = Instant.ofEpochMilli(millis);
                 try {
+                    String date;
                     if( to.equalsIgnoreCase("sql")){
-                        split[index] = ins.toString();
+                        date = ins.toString();
                     }else{
-                        split[index] = DateTimeFormatter.ofPattern(to).withZone(ZoneId.of("UTC")).format(ins);
+                        date = DateTimeFormatter.ofPattern(to).withZone(ZoneId.of("UTC")).format(ins);
                     }
-                    if (split[index].isEmpty()) {
-                        Logger.error("(ef) -> Failed to convert datetime " + split[index]);
-                        return null;
+                    if (date.isEmpty()) {
+                        Logger.error("(ef) -> Failed to convert datetime " + rec.item(index));
+                        return false;
                     }
-                    return String.join(delimiter, split);
+                    rec.setItem(index, date);
+                    return true;
                 }catch(IllegalArgumentException | DateTimeException e){
                     Logger.error("(ef) -> Invalid format in millis to date: " + to + " -> " + e.getMessage());
-                    return null;
+                    return false;
                 }
             }
-            Logger.error("(ef) -> To few elements after split for millistodate in " + input);
-            return null;
+            Logger.error("(ef) -> To few elements after split for millistodate in " + rec.line());
+            return false;
         };
     }
     /**
@@ -308,7 +395,7 @@ private static Function<String, String> addMillisToDate(String to, int index, St
      * @param index On which position of the split data
      * @param delimiter The delimiter to split the data
      */
-    private static Function<String, String> addRedate(String from, String to, int index, String delimiter) {
+    private static StepRecord.Edit addRedate(String from, String to, int index, String delimiter) {
 
         String deli;
         if( delimiter.equalsIgnoreCase("*")){
@@ -316,19 +403,19 @@ private static Function<String, String> addRedate(String from, String to, int in
         }else{
             deli=delimiter;
         }
-        return input ->
+        return rec ->
         {
-            String[] split = input.split(deli);
-            if( split.length > index){
-                split[index] = TimeTools.reformatDate(split[index], from, to);
-                if( split[index].isEmpty()) {
-                    Logger.error(" -> Failed to convert datetime " + input.split(deli)[index]);
-                    return null;
+            if( rec.split(deli) > index){
+                var date = TimeTools.reformatDate(rec.item(index), from, to);
+                if( date.isEmpty()) {
+                    Logger.error(" -> Failed to convert datetime " + rec.item(index));
+                    return false;
                 }
-                return String.join(deli,split);
+                rec.setItem(index, date);
+                return true;
             }
-            Logger.error(" -> To few elements after split for redate in " + input);
-            return null;
+            Logger.error(" -> To few elements after split for redate in " + rec.line());
+            return false;
         };
     }
     /**
@@ -338,7 +425,7 @@ private static Function<String, String> addRedate(String from, String to, int in
      * @param index On which position of the split data
      * @param delimiter The delimiter to split the data
      */
-    private static Function<String, String> addRetime(String from, String to, int index, String delimiter) {
+    private static StepRecord.Edit addRetime(String from, String to, int index, String delimiter) {
 
         String deli;
         if( delimiter.equalsIgnoreCase("*")){
@@ -346,19 +433,19 @@ private static Function<String, String> addRetime(String from, String to, int in
         }else{
             deli=delimiter;
         }
-        return input ->
+        return rec ->
         {
-            String[] split = input.split(deli);
-            if( split.length > index){
-                split[index] = TimeTools.reformatTime(split[index],from,to);
-                if( split[index].isEmpty()) {
-                    Logger.error("(ef) -> Tried to retime " + input + " but no such index " + index);
-                    return null;
+            if( rec.split(deli) > index){
+                var time = TimeTools.reformatTime(rec.item(index),from,to);
+                if( time.isEmpty()) {
+                    Logger.error("(ef) -> Tried to retime " + rec.line() + " but no such index " + index);
+                    return false;
                 }
-                return String.join(deli,split);
+                rec.setItem(index, time);
+                return true;
             }
-            Logger.error(" -> To few elements after split for retime in " + input);
-            return null;
+            Logger.error(" -> To few elements after split for retime in " + rec.line());
+            return false;
         };
     }
 
@@ -378,7 +465,7 @@ private static Function<String, String> addRexsplit(String delimiter, String reg
      * @param delimiter The string to split the data with
      * @param resplit The format of the new string, using i0 etc to get original values
      */
-    private static Function<String, String> addResplit(String delimiter, String resplit, String error, boolean append, Rtvals rtvals) {
+    private static StepRecord.Edit addResplit(String delimiter, String resplit, String error, boolean append, Rtvals rtvals) {
 
         var is = Pattern.compile("i[0-9]{1,3}")
                 .matcher(resplit)
@@ -397,49 +484,50 @@ private static Function<String, String> addResplit(String delimiter, String resp
         int[] indexes = Arrays.stream(is).mapToInt(i -> NumberUtils.toInt(i.substring(1))).toArray();
         String deli = delimiter.equals("*") ? "\\*" : delimiter;
 
-        return input ->
+        return rec ->
         {
-            String[] inputEles = input.split(deli); // Get the source data
+            int items = rec.split(deli); // Get the source data
+            var used = new boolean[items];
 
             StringJoiner join = new StringJoiner("",filler.length==0?"": ValTools.parseRTline(filler[0],error,rtvals),"");
             for( int a=0;a<indexes.length;a++){
-                try {
-                    join.add(inputEles[indexes[a]]);
-                    if( filler.length>a+1)
-                        join.add( ValTools.parseRTline(filler[a+1],error,rtvals));
-                    inputEles[indexes[a]] = null;
-                }catch( IndexOutOfBoundsException e){
-                    Logger.error("(ef) -> Out of bounds when processing: " + input);
-                    return null;
+                if( indexes[a] >= items ){
+                    Logger.error("(ef) -> Out of bounds when processing: " + rec.line());
+                    return false;
                 }
+                join.add(rec.item(indexes[a]));
+                if( filler.length>a+1)
+                    join.add( ValTools.parseRTline(filler[a+1],error,rtvals));
+                used[indexes[a]] = true;
             }
-            if( indexes.length!=inputEles.length && append){
+            if( indexes.length!=items && append){
                 StringJoiner rest = new StringJoiner(delimiter,delimiter,"");
-                for( var a : inputEles){
-                    if( a!=null)
-                        rest.add(a);
+                for( int a=0;a<items;a++){
+                    if( !used[a] )
+                        rest.add(rec.item(a));
                 }
                 join.add(rest.toString());
             }
-            return join.toString();
+            rec.setLine(join.toString());
+            return true;
         };
     }
 
-    private static Function<String, String> addIndexReplace(int index, String delimiter, String value, Rtvals rtvals) {
+    private static StepRecord.Edit addIndexReplace(int index, String delimiter, String value, Rtvals rtvals) {
         if( index==-1) {
             Logger.error("(ef) -> Invalid index given for indexreplace/removeindex");
             return null;
         }
         if( value.isEmpty() ) {
             if( index==0 ){
-                return input -> {
+                return StepRecord.ofLine(input -> {
                     int a = input.indexOf(delimiter);
                     if( a == -1 )
                         return input;
                     return input.substring(a);
-                };
+                });
             }else {
-                return input -> {
+                return StepRecord.ofLine(input -> {
                     var its = input.split(delimiter);
                     var list = new ArrayList<>(Arrays.asList(its));
                     if (index < list.size()) {
@@ -449,14 +537,13 @@ private static Function<String, String> addIndexReplace(int index, String delimi
                         return null;
                     }
                     return String.join(delimiter, list);
-                };
+                });
             }
         }else{
-            return input -> {
-                var its = input.split(delimiter);
-                if (its.length > index)
-                    its[index] = ValTools.parseRTline(value, its[index], rtvals);
-                return String.join(delimiter, its);
+            return rec -> {
+                if (rec.split(delimiter) > index)
+                    rec.setItem(index, ValTools.parseRTline(value, rec.item(index), rtvals));
+                return true;
             };
         }
     }
@@ -490,7 +577,9 @@ private static Function<String, String> addInsert(int position, String addition)
     }
 
     private static Function<String, String> addReplacement(String find, String replace) {
-        return input -> input.replace(Tools.fromEscapedStringToBytes(find), Tools.fromEscapedStringToBytes(replace));
+        var f = Tools.fromEscapedStringToBytes(find);
+        var r = Tools.fromEscapedStringToBytes(replace);
+        return input -> input.replace(f, r);
     }
 
     private static Function<String, String> addTrim() {
@@ -498,12 +587,14 @@ private static Function<String, String> addTrim() {
     }
 
     private static Function<String, String> addRexRemove(String find) {
-        return input -> input.replaceAll(find, "");
+        var pattern = Pattern.compile(find); // Compile once instead of on each replaceAll
+        return input -> pattern.matcher(input).replaceAll("");
     }
 
     private static Function<String, String> addRegexReplacement(String find, String replace) {
         String r = replace.isEmpty()?" ":replace;
-        return input -> input.replaceAll(find, r);
+        var pattern = Pattern.compile(find);
+        return input -> pattern.matcher(input).replaceAll(r);
     }
 
     private static Function<String, String> addCutStart(int characters) {
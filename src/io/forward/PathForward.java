@@ -1,25 +1,28 @@
 package io.forward;
 
 import das.Core;
+import io.TargetFanout;
 import io.Writable;
 import io.forward.steps.AbstractStep;
 import io.forward.steps.MathStep;
-import io.netty.channel.EventLoopGroup;
 import org.tinylog.Logger;
 import org.w3c.dom.Element;
 import util.data.ValTools;
 import util.data.vals.Rtvals;
 import util.database.SQLiteDB;
-import util.tools.FileTools;
+import util.database.SqlCursor;
+import util.tools.LineReader;
 import util.tools.TimeTools;
 import util.xml.XMLdigger;
 import util.xml.XMLtools;
 import worker.Datagram;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Objects;
@@ -36,12 +39,13 @@ public class PathForward implements Writable {
     /* Custom Source */
     private final ArrayList<Writable> targets = new ArrayList<>(); // The targets to send the final result of the path to
     private final ArrayList<CustomSrc> customs=new ArrayList<>(); // The custom data sources
+    private TargetFanout fanout; // Queued delivery to the targets, null if they're written to directly
 
     enum SRCTYPE {REG,PLAIN,RTVALS,CMD,FILE,SQLITE,INVALID} // Possible custom sources
 
     /* Both */
     Rtvals rtvals; // Reference to the realtimevalues
-    EventLoopGroup nettyGroup; // Threaded processing is done with this
+    private final PathLanes.Slot slot; // The lane all the processing of this path is done on
 
     private AbstractStep[] stepsForward = new AbstractStep[0]; // The steps to take in the path
     Path workPath; // The path to the working folder of dcafs
@@ -52,9 +56,9 @@ enum SRCTYPE {REG,PLAIN,RTVALS,CMD,FILE,SQLITE,INVALID} // Possible custom sourc
     boolean active = false;
     private String delimiter = ",";
 
-    public PathForward(Rtvals rtvals, EventLoopGroup nettyGroup) {
+    public PathForward(Rtvals rtvals, PathLanes.Slot slot) {
         this.rtvals = rtvals;
-        this.nettyGroup=nettyGroup;
+        this.slot = slot;
     }
 
     public PathForward src( String src){
@@ -80,6 +84,10 @@ public String readFromXML(XMLdigger dig, Path workpath) {
         src = dig.attr("src", "");
         delimiter = dig.attr("delimiter", delimiter);
 
+        if (fanout != null)
+            fanout.clear();
+        fanout = TargetFanout.of(id, dig.attr("queue", 0), dig.attr("drop", "oldest")).orElse(null);
+
         var importPathOpt = dig.attr("import",null,null);
         if (importPathOpt.isPresent()) { // If present overwrite the digger
             var response = doImport(importPathOpt.get());
@@ -192,6 +200,8 @@ public String toString(){
             join.add("|-> " + af.toString()).add("");
 
         join.add("=> gives the data from " + stepsForward[stepsForward.length - 1]);
+        if (fanout != null)
+            join.add(fanout.getInfo("\r\n"));
         return join.toString();
     }
     public ArrayList<Writable> getTargets(){
@@ -200,12 +210,34 @@ public ArrayList<Writable> getTargets(){
 
     @Override
     public boolean writeLine(String origin, String data) {
+        return slot.execute(() -> process(data)); // Hand it over to the lane of this path, so the caller isn't held up
+    }
+
+    /**
+     * Run the data through the steps, only called from the lane of this path
+     *
+     * @param data The data to process
+     */
+    private void process(String data) {
         for (var step : stepsForward) {
             var res = step.takeStep(data, null);
+            writeToTargets(res);
+        }
+    }
+
+    /**
+     * Give a line to all the targets, either directly or through their queue
+     *
+     * @param line The line to give
+     */
+    private void writeToTargets(String line) {
+        if (fanout == null) {
+            for (var target : targets)
+                target.writeLine(id, line);
+        } else {
             for (var target : targets)
-                target.writeLine(id, res);
+                fanout.writeLine(target, id, line);
         }
-        return true;
     }
 
     public String id() {
@@ -225,6 +257,8 @@ public void addTarget(Writable wr, String stepId) {
 
     public void removeTarget(Writable wr) {
         targets.remove(wr);
+        if (fanout != null)
+            fanout.remove(wr);
         if (targets.isEmpty() && !selfTarget)
             stop();
     }
@@ -240,6 +274,11 @@ public boolean isConnectionValid() {
         return true;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true; // The data is handed to the lane of the path
+    }
+
     public String getMathDebug(String id) {
         if (stepsForward.length == 0)
             return "No steps yet and  thus no math...";
@@ -250,6 +289,17 @@ public String getMathDebug(String id) {
         return "No matching math found";
     }
 
+    public String getFilterDebug(String eol) {
+        var join = new StringJoiner(eol);
+        join.setEmptyValue("No filters in this path");
+        for (var step : stepsForward) {
+            var info = step.getFilterInfo(eol);
+            if (!info.isEmpty())
+                join.add(info);
+        }
+        return join.toString();
+    }
+
     /* ******************************************************************************************************* */
     private class CustomSrc{
         String pathOrData;
@@ -258,14 +308,17 @@ public String getMathDebug(String id) {
         long intervalMillis;
         long delayMillis=0;
         ScheduledFuture<?> future;
-        ArrayList<String> buffer;
+        ArrayDeque<String> buffer;
         ArrayList<Path> files;
-        long lineCount=1;
+        long lineCount=0;  // Lines of the current file read so far, to continue there after a restart
+        LineReader reader; // Reader of the current file, only open while the file source runs
         long sendLines=0;
         int multiLine=1;
         int maxBufferSize = 2500;
         String label="";
         boolean readOnce=false;
+        SQLiteDB lite;     // Database the sqlite source reads from, only open while reading
+        SqlCursor cursor;  // Cursor on the result of the query of the sqlite source
         static long skipLines = 0; // How many lines to skip at the beginning of a file (fe to skip header)
 
         public CustomSrc( Element node){
@@ -297,7 +350,7 @@ public void readFromElement( Element sub ){
                 case "file","files" ->  {
                     srcType = SRCTYPE.FILE;
                     skipLines = dig.attr("skip",0);
-                    lineCount=skipLines+1; // We'll skip these lines
+                    lineCount=skipLines; // We'll skip these lines
                     files = new ArrayList<>();
                     var p = Path.of(data);
                     if (!p.isAbsolute()) {
@@ -314,12 +367,13 @@ public void readFromElement( Element sub ){
                     } else {
                         files.add(p);
                     }
-                    buffer = new ArrayList<>();
+                    buffer = new ArrayDeque<>();
                     multiLine = dig.attr("multiline",1);
                 }
                 case "sqlite" -> {
                     path = data;
-                    buffer = new ArrayList<>();
+                    pathOrData = dig.attr("query", "");
+                    buffer = new ArrayDeque<>();
                     srcType = SRCTYPE.SQLITE;
                 }
                 default -> {
@@ -330,14 +384,22 @@ public void readFromElement( Element sub ){
         }
         public void start(){
             if( future==null || future.isDone())
-                future = nettyGroup.scheduleAtFixedRate(this::write,delayMillis,intervalMillis, TimeUnit.MILLISECONDS);
+                future = slot.scheduleAtFixedRate(this::write,delayMillis,intervalMillis, TimeUnit.MILLISECONDS);
         }
         public void stop(){
             if( future!=null && !future.isCancelled())
                 future.cancel(true);
+            if( srcType == SRCTYPE.SQLITE )
+                closeSQLite();
+            if( reader != null ) { // Next start reopens it at the same line
+                lineCount = reader.getLineNr();
+                reader.close();
+                reader = null;
+            }
         }
         public void write(){
-            targets.removeIf( x -> !x.isConnectionValid());
+            if (targets.removeIf( x -> !x.isConnectionValid()) && fanout != null)
+                fanout.retain(targets);
             if (targets.isEmpty() && !selfTarget)
                 stop();
 
@@ -357,78 +419,70 @@ public void write(){
             };
             if (!line.isEmpty()) {
                 if (stepsForward.length == 0) {
-                    targets.forEach(x -> x.writeLine(id, line));
+                    writeToTargets(line);
                 } else {
                     if (selfTarget || !targets.isEmpty())
-                        writeLine("custom", line);
+                        process(line); // Already on the lane
                 }
             }
         }
 
         private String writeFromSQLite() {
-            if (!buffer.isEmpty()) {
-                return buffer.remove(0);
+            if (buffer.isEmpty() && !readOnce) // Only read the next page once the previous one is emitted
+                readPageFromSQLite();
+            if (!buffer.isEmpty())
+                return buffer.poll();
+            stop();
+            return "";
+        }
+
+        /**
+         * Read the next page of the query result into the buffer, the cursor is opened on the first call and
+         * closed once the end is reached. The size of the page is the buffer size.
+         */
+        private void readPageFromSQLite() {
+            if (cursor == null) {
+                lite = SQLiteDB.createDB("custom", Path.of(path));
+                var cursorOpt = lite.openCursor(pathOrData, maxBufferSize);
+                if (cursorOpt.isEmpty()) {
+                    Logger.error(id + "(pf) -> Tried to read from db but failed: " + path);
+                    readOnce = true;
+                    closeSQLite();
+                    return;
+                }
+                cursor = cursorOpt.get();
             }
-            if (readOnce) {
-                stop();
-                return "";
+            for (var record : cursor.nextPage(maxBufferSize))
+                buffer.add(record.stream().map(String::valueOf).collect(Collectors.joining(";")));
+            if (cursor.isDone()) { // Read everything, so no need to keep the database open
+                readOnce = true;
+                closeSQLite();
             }
-            var lite = SQLiteDB.createDB("custom", Path.of(path));
-            var dataOpt = lite.doSelect(pathOrData);
-            lite.disconnect(); //disconnect the database after retrieving the data
+        }
 
-            if (dataOpt.isEmpty()) {
-                Logger.error("Tried to read from db but failed: " + path);
-                return "";
+        private void closeSQLite() {
+            if (cursor != null) {
+                cursor.close();
+                cursor = null;
             }
-            readOnce = true;
-            for (var record : dataOpt.get()) {
-                buffer.add(record.stream().map(Object::toString).collect(Collectors.joining(";")));
+            if (lite != null) {
+                lite.disconnect();
+                lite = null;
             }
-            return "";
         }
 
         private void writeFromFile() {
             try {
                 for (int a = 0; a < multiLine; a++) {
-                    if (buffer.isEmpty()) {
-                        // If the list of files is empty, stop
-                        if (files.isEmpty()) {
-                            future.cancel(true);
-                            Core.addToQueue(Datagram.system("telnet:broadcast,info," + id + " finished at " + Instant.now()));
-                            return;
-                        }
-                        var currentFile = files.get(0);
-                        buffer.addAll(FileTools.readLines(currentFile, lineCount, maxBufferSize, false));
-                        lineCount += buffer.size();
-                        if (lineCount / 1000 == 0)
-                            Logger.info("Read " + lineCount + " lines");
-
-                        if (buffer.size() < maxBufferSize) { // Buffer wasn't full, so file read till end
-                            Core.addToQueue(Datagram.system("telnet:broadcast,info," + id + " processed " + currentFile + " at " + Instant.now()));
-                            Logger.info("Finished processing " + currentFile);
-                            files.remove(0);
-                            lineCount = 1 + skipLines; // First line is at 1, so add any that need to be skipped
-
-                            if (buffer.isEmpty()) {
-                                if (files.isEmpty()) {
-                                    if (future != null)
-                                        future.cancel(true);
-                                    Core.addToQueue(Datagram.system("telnet:broadcast,info," + id + " finished at " + Instant.now()));
-                                    return;
-                                }
-
-                                Logger.info("Started processing " + files.get(0) + " at " + Instant.now());
-                                // Buffer isn't full, so fill it up
-                                buffer.addAll(FileTools.readLines(files.get(0), lineCount, maxBufferSize - buffer.size(), false));
-                                lineCount += buffer.size();
-                            }
-                        }
+                    if (buffer.isEmpty() && !fillFromFiles()) { // No more lines in any of the files
+                        stop();
+                        Core.addToQueue(Datagram.system("telnet:broadcast,info," + id + " finished at " + Instant.now()));
+                        return;
                     }
-                    String line = buffer.remove(0);
-                    targets.forEach(wr -> wr.writeLine(id, line));
+                    String line = buffer.poll();
+                    writeToTargets(line);
                     if (selfTarget)
-                        writeLine("id",line);
+                        process(line);
                     if (!label.isEmpty())
                         Core.addToQueue(Datagram.build(line).label(label));
 
@@ -438,6 +492,35 @@ private void writeFromFile() {
                 Logger.error(e);
             }
         }
+
+        /**
+         * Fill the buffer with the next lines of the current file, going to the next file once the end is reached.
+         * The file is kept open between calls, so it's only read once.
+         *
+         * @return False if there are no lines left in any of the files
+         */
+        private boolean fillFromFiles() {
+            while (buffer.isEmpty()) {
+                if (files.isEmpty())
+                    return false;
+                var currentFile = files.get(0);
+                if (reader == null) {
+                    if (lineCount == skipLines)
+                        Logger.info("Started processing " + currentFile + " at " + Instant.now());
+                    reader = LineReader.open(currentFile, lineCount, StandardCharsets.ISO_8859_1).orElse(null);
+                }
+                if (reader != null)
+                    reader.readInto(buffer, maxBufferSize);
+                if (reader == null || reader.isDone()) { // Read till the end, or couldn't open it
+                    Core.addToQueue(Datagram.system("telnet:broadcast,info," + id + " processed " + currentFile + " at " + Instant.now()));
+                    Logger.info("Finished processing " + currentFile);
+                    files.remove(0);
+                    reader = null;
+                    lineCount = skipLines; // Skip these in the next file
+                }
+            }
+            return true;
+        }
         public String toString(){
             String shortData="";
             if( pathOrData!=null)
@@ -447,8 +530,8 @@ public String toString(){
             return switch( srcType ){
                 case REG,PLAIN,RTVALS -> "Shows "+shortData+" every "+interval;
                 case CMD -> "Show result of '"+shortData+"' every "+interval;
-                case FILE -> "Reads from "+files.size()+" files, every "+interval;
-                case SQLITE -> "Shows the result of a query";
+                case FILE -> "Reads from "+files.size()+" files, every "+interval+", at line "+(reader==null?lineCount:reader.getLineNr());
+                case SQLITE -> "Shows the result of a query, " + (cursor == null ? "" : cursor.getRowCount() + " rows read, ") + buffer.size() + " buffered";
                 case INVALID -> "Invalid src";
             };
         }
@@ -0,0 +1,259 @@
+package io.forward;
+
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.tinylog.Logger;
+import util.LookAndFeel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads the processing of the paths over a fixed amount of single threaded lanes. Each path is pinned to one lane,
+ * so the data of a path is always processed in order and by one thread at a time without any locking.
+ * New paths go to the lane with the least measured load, on a full reload all paths are spread again based on the load
+ * measured so far. The amount of tasks waiting per path is limited, data that arrives once that's reached is dropped.
+ */
+public class PathLanes {
+    private final DefaultEventLoopGroup group;
+    private final ArrayList<Lane> lanes = new ArrayList<>();
+    private final HashMap<String, Slot> slots = new HashMap<>(); // Slot per path id
+    private final int backlog; // Max tasks waiting per path
+
+    /**
+     * Create the lanes
+     *
+     * @param count   The amount of lanes, at least one
+     * @param backlog The max amount of tasks waiting per path, at least one
+     */
+    public PathLanes(int count, int backlog) {
+        this.backlog = Math.max(1, backlog);
+        group = new DefaultEventLoopGroup(Math.max(1, count), new DefaultThreadFactory("PathForward-lane"));
+        for (EventExecutor exec : group)
+            lanes.add(new Lane(lanes.size(), (EventLoop) exec));
+    }
+
+    public int size() {
+        return lanes.size();
+    }
+
+    /**
+     * Get the slot of a path, if the path doesn't have one yet it's put on the lane with the lowest load
+     *
+     * @param id The id of the path
+     * @return The slot to run the path with
+     */
+    public synchronized Slot slotFor(String id) {
+        return slots.computeIfAbsent(id, k -> new Slot(id, leastLoaded(), backlog));
+    }
+
+    /**
+     * Stop the lanes, the tasks that are already waiting are still run
+     */
+    public void shutdown() {
+        group.shutdownGracefully();
+    }
+
+    /**
+     * Remove the slot of a path that no longer exists
+     *
+     * @param id The id of the path
+     */
+    public synchronized void remove(String id) {
+        slots.remove(id);
+    }
+
+    /**
+     * Spread the paths over the lanes again, heaviest first to the lane with the lowest load so far.
+     * A path only actually moves once it has nothing waiting or running on its current lane, so it never runs on two.
+     */
+    public synchronized void rebalance() {
+        var sorted = new ArrayList<>(slots.values());
+        sorted.sort(Comparator.comparingLong((Slot s) -> s.busy.get()).reversed());
+        long[] load = new long[lanes.size()];
+        int[] count = new int[lanes.size()];
+        for (var slot : sorted) {
+            int best = pick(load, count);
+            slot.moveTo(lanes.get(best));
+            load[best] += slot.busy.get();
+            count[best]++;
+        }
+    }
+
+    private Lane leastLoaded() {
+        long[] load = new long[lanes.size()];
+        int[] count = new int[lanes.size()];
+        for (var slot : slots.values()) {
+            var l = slot.planned();
+            load[l.nr] += slot.busy.get();
+            count[l.nr]++;
+        }
+        return lanes.get(pick(load, count));
+    }
+
+    /* The lane with the lowest load, or the fewest paths if equal */
+    private static int pick(long[] load, int[] count) {
+        int best = 0;
+        for (int a = 1; a < load.length; a++) {
+            if (load[a] < load[best] || (load[a] == load[best] && count[a] < count[best]))
+                best = a;
+        }
+        return best;
+    }
+
+    /**
+     * Get the utilization of each lane since the previous call, with the paths on it
+     *
+     * @param eol The line ending to use
+     * @return The info
+     */
+    public synchronized String getInfo(String eol) {
+        var join = new StringJoiner(eol);
+        for (var lane : lanes) {
+            var ids = new StringJoiner(", ");
+            slots.forEach((id, slot) -> {
+                if (slot.planned() == lane)
+                    ids.add(id + (slot.dropped.get() == 0 ? "" : " (dropped " + slot.dropped.get() + ")"));
+            });
+            join.add("Lane " + lane.nr + ": " + lane.utilization() + "% busy, " + lane.pending() + " queued"
+                    + (ids.length() == 0 ? "" : " -> " + ids));
+        }
+        return join.toString();
+    }
+
+    /* ******************************************************************************************************* */
+    private static class Lane {
+        private final int nr;
+        private final EventLoop loop;
+        private final AtomicLong busy = new AtomicLong(); // Nanos spent running tasks
+        private long lastBusy = 0;
+        private long lastCheck = System.nanoTime();
+
+        Lane(int nr, EventLoop loop) {
+            this.nr = nr;
+            this.loop = loop;
+        }
+
+        /* Percentage of the time since the last check that was spent running tasks */
+        long utilization() {
+            long now = System.nanoTime();
+            long used = busy.get();
+            long pct = now == lastCheck ? 0 : Math.min(100, (used - lastBusy) * 100 / (now - lastCheck));
+            lastBusy = used;
+            lastCheck = now;
+            return pct;
+        }
+
+        int pending() {
+            return loop instanceof SingleThreadEventExecutor exec ? exec.pendingTasks() : 0;
+        }
+    }
+
+    /**
+     * The place of a path on a lane, everything the path does should go through this
+     */
+    public static class Slot {
+        private final String id;   // The id of the path, used for logging
+        private Lane lane;         // The lane the tasks currently go to
+        private Lane planned;      // The lane to move to once nothing is waiting or running, null if not moving
+        private int pending = 0;   // Tasks waiting or running on the lane
+        private final int backlog; // Max amount of pending tasks, above that data is dropped
+        private final AtomicLong busy = new AtomicLong();    // Nanos this path spent running on its lane
+        private final AtomicLong dropped = new AtomicLong(); // Data dropped because the backlog was full
+
+        private Slot(String id, Lane lane, int backlog) {
+            this.id = id;
+            this.lane = lane;
+            this.backlog = backlog;
+        }
+
+        private synchronized void moveTo(Lane target) {
+            planned = target == lane ? null : target;
+            if (planned != null && pending == 0) {
+                lane = planned;
+                planned = null;
+            }
+        }
+
+        private synchronized Lane planned() {
+            return planned == null ? lane : planned;
+        }
+
+        /**
+         * Run a task on the lane of the path, after the ones given earlier. If the backlog is full it's dropped instead.
+         *
+         * @param task The task to run
+         * @return True if it was queued, false if dropped
+         */
+        public boolean execute(Runnable task) {
+            Lane l = null;
+            long drops = 0;
+            synchronized (this) {
+                if (pending >= backlog) {
+                    drops = dropped.incrementAndGet();
+                } else {
+                    if (planned != null && pending == 0) { // Nothing left on the old lane, so safe to move
+                        lane = planned;
+                        planned = null;
+                    }
+                    l = lane;
+                    pending++;
+                }
+            }
+            if (l == null) { // Log outside the lock, only the 1st, 2nd ... 10th, 20th ... drop
+                if (LookAndFeel.isNthAttempt((int) Math.min(drops, Integer.MAX_VALUE)))
+                    Logger.warn(id + "(pf) -> Backlog of " + backlog + " is full, dropped " + drops + " lines so far");
+                return false;
+            }
+            var target = l;
+            target.loop.execute(() -> run(target, task));
+            return true;
+        }
+
+        /**
+         * Run a task on the lane of the path at a fixed rate. Each run is handed to the slot like any other task,
+         * so it follows the path if that moves to another lane.
+         *
+         * @param task     The task to run
+         * @param delay    The delay before the first run
+         * @param interval The time between the runs
+         * @param unit     The unit of delay and interval
+         * @return The future of the scheduled task
+         */
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long delay, long interval, TimeUnit unit) {
+            Lane l;
+            synchronized (this) {
+                l = lane;
+            }
+            return l.loop.scheduleAtFixedRate(() -> {
+                synchronized (this) {
+                    if (pending >= backlog) // Skip a run instead of counting it as dropped, no data is lost
+                        return;
+                }
+                execute(task);
+            }, delay, interval, unit);
+        }
+
+        private void run(Lane l, Runnable task) {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                long took = System.nanoTime() - start;
+                busy.addAndGet(took);
+                l.busy.addAndGet(took);
+                synchronized (this) {
+                    pending--;
+                }
+            }
+        }
+    }
+}
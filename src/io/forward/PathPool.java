@@ -4,9 +4,6 @@
 import das.Core;
 import das.Paths;
 import io.Writable;
-import io.netty.channel.DefaultEventLoopGroup;
-import io.netty.channel.EventLoopGroup;
-import io.netty.util.concurrent.DefaultThreadFactory;
 import io.telnet.TelnetCodes;
 import org.tinylog.Logger;
 import util.LookAndFeel;
@@ -22,13 +19,24 @@ public class PathPool implements Commandable {
 
     private final HashMap<String, PathForward> paths = new HashMap<>();
     private final Rtvals rtvals;
-    private final EventLoopGroup eventLoop = new DefaultEventLoopGroup(2, new DefaultThreadFactory("PathForward-group"));
+    private final PathLanes lanes; // The threads the paths run on
 
     public PathPool(Rtvals rtvals) {
         this.rtvals=rtvals;
 
+        var dig = XMLdigger.goIn(Paths.settings(), "dcafs", "paths");
+        lanes = new PathLanes(dig.attr("lanes", Runtime.getRuntime().availableProcessors()), dig.attr("backlog", 5000));
+        Logger.info("Paths will run on " + lanes.size() + " lanes");
+
         readPathsFromXML();
     }
+
+    /**
+     * Stop the threads the paths run on, used when dcafs shuts down. A reload keeps the lanes, so not needed then.
+     */
+    public void shutdown() {
+        lanes.shutdown();
+    }
     /* **************************************** G E N E R A L ************************************************** */
     /**
      * Read the paths stored in the settings.xml and imported
@@ -42,7 +50,7 @@ public void readPathsFromXML(){
         // From the paths section
         XMLdigger.goIn(Paths.settings(), "dcafs", "paths").digOut("path").forEach(
                 pathDig -> {
-                    PathForward path = new PathForward(rtvals, eventLoop);
+                    PathForward path = new PathForward(rtvals, lanes.slotFor(pathDig.attr("id", "")));
                     path.readFromXML(pathDig, Paths.storage());
 
                     var oldPath = paths.get(path.id());
@@ -54,6 +62,8 @@ public void readPathsFromXML(){
                     paths.put(path.id(),path);
                 }
         );
+        // All paths are rebuild and the old ones stopped, so spread them over the lanes based on the load so far
+        lanes.rebalance();
         Logger.info("Finished loading paths");
     }
     @Override
@@ -120,6 +130,7 @@ public String replyToPathCmd(Datagram d) {
                 XMLfab.withRoot(Paths.settings(), "dcafs", "paths").clearChildren().build();
                 paths.values().forEach(PathForward::stop);
                 paths.values().forEach(PathForward::clearStores);
+                paths.keySet().forEach(lanes::remove);
                 paths.clear();
                 return "Paths cleared";
             }
@@ -131,10 +142,12 @@ public String replyToPathCmd(Datagram d) {
                 String green = d.asHtml() ? "" : TelnetCodes.TEXT_GREEN;
                 String reg = d.asHtml() ? "" : TelnetCodes.TEXT_DEFAULT;
                 StringJoiner join = new StringJoiner(d.eol());
-                join.setEmptyValue("No paths yet");
+                if (paths.isEmpty())
+                    join.add("No paths yet");
                 paths.forEach((id, pf) -> {
                     join.add(green + "Path: " + id + " src: " + pf.src() + reg);//.add(value.toString()).add("");
                 });
+                join.add("").add(lanes.getInfo(d.eol()));
                 return join.toString();
             }
             default -> {
@@ -150,9 +163,10 @@ private static String doHelpCmd(Datagram d) {
         help.add("Other")
                 .add("pf:reload/reloadall -> Reload all the paths")
                 .add("pf:id,reload -> reload the path with the given id")
-                .add("pf:list -> List all the currently loaded paths")
+                .add("pf:list -> List all the currently loaded paths and how busy each lane was since the previous list")
                 .add("pf:id,list -> List all the steps in the chosen path")
                 .add("pf:id,debug<,stepnr/stepid> -> Request the data from a single step in the path (nr:0=first; -1=custom src)")
+                .add("pf:id,filterdebug -> List the filter rules in the order they are tested, with how often each passed or failed")
                 .add("pf:clear -> Remove all the paths from XML!");
         return LookAndFeel.formatHelpCmd(help.toString(), d.asHtml());
     }
@@ -174,6 +188,7 @@ private String doTwoArgsCmds(Datagram d) {
             }
             case "list" -> pf == null ? "! No such path: " + args[0] : "Path: " + pf.id() + d.eol() + pf;
             case "mathdebug" -> pf == null ? "! No such path " + args[0] : pf.getMathDebug("*");
+            case "filterdebug" -> pf == null ? "! No such path " + args[0] : pf.getFilterDebug(d.eol());
             default -> doRequest(d);
         };
     }
@@ -203,13 +218,14 @@ private String doRequest(Datagram d) {
         }else if( !res.startsWith("!") ){ // If the command worked
             if (res.startsWith("Deleted ")) { // meaning the path was removed from xml, remove it from paths
                 paths.remove(args[0]);
+                lanes.remove(args[0]);
             } else {
                 var dig = Paths.digInSettings("paths");
                 if ( !dig.hasPeek("path","id",args[0]))
                     return "! No such path: " + args[0] ;
                 dig.usePeek();
                 if (!paths.containsKey(args[0])) // Exists in xml but not in map
-                    paths.put(args[0], new PathForward(rtvals, eventLoop));
+                    paths.put(args[0], new PathForward(rtvals, lanes.slotFor(args[0])));
                 var rep = paths.get(args[0]).readFromXML(dig, Paths.storage());
                 Core.addToQueue(Datagram.system("dbm","reloadstores"));
                 if (!rep.isEmpty() && !res.startsWith("Path ") && !res.startsWith("Set ")) // empty is good, starting means new so not full
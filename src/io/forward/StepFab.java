@@ -38,6 +38,7 @@ public static Optional<MathStep> digMathNode(XMLdigger dig, Rtvals rtvals, Strin
 
         var suffix = dig.attr("suffix", "");
         delimiter = dig.attr("delimiter", delimiter);
+        var precision = dig.attr("precision", "exact");
 
         // Check for other subnodes besides 'op' those will be considered def's to reference in the op
         var defines = digForDefinedConstants(dig);
@@ -78,6 +79,8 @@ public static Optional<MathStep> digMathNode(XMLdigger dig, Rtvals rtvals, Strin
                 eval.moveIn(mathEval);
             }
         }
+        if (eval != null)
+            eval.applyPrecision(precision, baseId);
         var step = new MathStep(eval, suffix, delimiter);
         step.setWantsData(doUpdate);
         return Optional.of(step);
@@ -5,6 +5,10 @@
 import util.data.store.ValStore;
 
 import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.StringJoiner;
 import java.util.concurrent.ThreadPoolExecutor;
 
 public abstract class AbstractStep {
@@ -16,7 +20,18 @@ public abstract class AbstractStep {
     boolean wantsData = false;
     String id;
 
-    public abstract String takeStep(String data, BigDecimal[] bds);
+    /**
+     * Process the data, it's split at most once per delimiter on the way through the chain
+     *
+     * @param data The data to process
+     * @param bds  Values calculated by earlier steps, null if none
+     * @return The result of the last step in the chain
+     */
+    public String takeStep(String data, BigDecimal[] bds) {
+        return takeStep(new StepRecord(data), bds);
+    }
+
+    public abstract String takeStep(StepRecord rec, BigDecimal[] bds);
 
     public void setNext(AbstractStep next) {
         if (next != null) {
@@ -36,18 +51,19 @@ public void setFeedback(Writable feedback) {
         this.feedback = feedback;
     }
 
-    public String doNext(String data, BigDecimal[] bds) {
-        if (next == null) { // Meaning the last step in the chain
+    public String doNext(StepRecord rec, BigDecimal[] bds) {
+        if (next == null) { // Meaning the last step in the chain, so only now the text is needed
+            var data = rec.line();
             if (feedback != null && data != null)
                 feedback.writeString(data);
             return data;
         }
-        return next.takeStep(data, bds);
+        return next.takeStep(rec, bds);
     }
 
-    public String doFailure(String data, BigDecimal[] bds) {
+    public String doFailure(StepRecord rec, BigDecimal[] bds) {
         if (failure != null)
-            return failure.takeStep(data, bds);
+            return failure.takeStep(rec, bds);
         return "";
     }
     public AbstractStep getLastStep(){
@@ -90,6 +106,25 @@ public void getFeedbackFromLastStep(Writable wr) {
         }
     }
 
+    /**
+     * Get the rules of the filters in this and the following steps, with how often each passed or failed
+     *
+     * @param eol The line ending to use
+     * @return The info or an empty string if there are no filters
+     */
+    public String getFilterInfo(String eol) {
+        var join = new StringJoiner(eol);
+        addFilterInfo(join, eol, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return join.toString();
+    }
+
+    void addFilterInfo(StringJoiner join, String eol, Set<AbstractStep> done) {
+        if (next != null)
+            next.addFilterInfo(join, eol, done);
+        if (failure != null)
+            failure.addFilterInfo(join, eol, done);
+    }
+
     public void removeStore() {
         if (next instanceof StoreStep) {
             next = null;
@@ -21,11 +21,11 @@ public CmdStep(String id, String delimiter) {
     }
 
     @Override
-    public String takeStep(String data, BigDecimal[] bds) {
-        String[] split = data.split(delimiter); // Split the data according to the delimiter
+    public String takeStep(StepRecord rec, BigDecimal[] bds) {
+        int items = rec.split(delimiter); // Split the data according to the delimiter
 
-        if (split.length < highestI) {
-            Logger.error("Not enough items in received data: " + data);
+        if (items <= highestI) {
+            Logger.error("Not enough items in received data: " + rec.line());
             return "error";
         }
         for (var cmd : cmds) {
@@ -35,11 +35,11 @@ public String takeStep(String data, BigDecimal[] bds) {
                     alter = alter.replace("{" + a + "}", vals.get(a).asString());
             }
             for (Integer i : ParseTools.extractIreferences(alter)) {
-                alter = alter.replace("i" + i, split[i]);
+                alter = alter.replace("i" + i, rec.item(i));
             }
             Core.addToQueue(Datagram.system(alter));
         }
-        return doNext(data, bds);
+        return doNext(rec, bds);
     }
 
     public void addCmd(String ori, String cmd) {
@@ -1,21 +1,21 @@
 package io.forward.steps;
 
 import java.math.BigDecimal;
-import java.util.function.Function;
 
 public class EditorStep extends AbstractStep {
-    Function<String, String>[] edits;
+    StepRecord.Edit[] edits;
 
-    public EditorStep(String id, Function<String, String>[] edits) {
+    public EditorStep(String id, StepRecord.Edit[] edits) {
         this.edits = edits;
         this.id = id;
     }
 
     @Override
-    public String takeStep(String data, BigDecimal[] bds) {
+    public String takeStep(StepRecord rec, BigDecimal[] bds) {
         for (var edit : edits) {
-            data = edit.apply(data);
+            if (!edit.apply(rec)) // Failed, so nothing to pass on
+                return null;
         }
-        return doNext(data, bds);
+        return doNext(rec, bds);
     }
 }
@@ -0,0 +1,358 @@
+package io.forward.steps;
+
+import util.tools.LiteralSet;
+import util.tools.RegexSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * The rules of a filter compiled into a single predicate. Rules joined with the same operator are grouped, so the
+ * order within a group doesn't matter and the cheapest rules are tested first. Facts like the item count come from
+ * the record, so they're determined at most once no matter how many rules use them. The regex rules of a group
+ * share a single pass over the line, as do the contains rules if there are a lot of them.
+ * Each rule counts how often it passed or failed, shown with pf:id,filterdebug.
+ */
+public class FilterRules implements Predicate<StepRecord> {
+    /* Relative cost of a rule, lower is tested first */
+    static final int CHEAP = 1;  // Fixed amount of work fe. length, start or a char at a position
+    static final int SCAN = 2;   // Goes over the line fe. contains or the nmea checksum
+    static final int SPLIT = 3;  // Needs the items of the line
+    static final int REGEX = 4;  // Runs a regex or a logic expression
+    /* String.contains is vectorized, so a single scan for all of them only pays off once there are this many */
+    private static final int SHARED_CONTAINS = 16;
+
+    private final Node root;
+
+    private FilterRules(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Compile the rules into the predicate, the rules in each group are sorted cheapest first
+     *
+     * @param root The rule or group holding all the rules
+     * @return The predicate
+     */
+    static FilterRules compile(Node root) {
+        if (root instanceof Rule rule) { // Put it in a group so a single regex also uses a set
+            var g = new Group(true);
+            g.nodes.add(rule);
+            root = g;
+        }
+        root.sort();
+        return new FilterRules(root);
+    }
+
+    /**
+     * Create a single rule
+     *
+     * @param info  Short description of the rule, fe. start:$GP
+     * @param cost  The relative cost of the test
+     * @param check The actual test
+     * @return The rule
+     */
+    static Node rule(String info, int cost, Predicate<StepRecord> check) {
+        return new Rule(info, cost, check);
+    }
+
+    /**
+     * Create a rule that checks if the line contains a literal, these share a single scan if there are more in a group
+     *
+     * @param info    Short description of the rule
+     * @param literal The text to look for
+     * @param negate  True if the line shouldn't contain it
+     * @return The rule
+     */
+    static Node contains(String info, String literal, boolean negate) {
+        var rule = new Rule(info, SCAN, negate ? p -> !p.line().contains(literal) : p -> p.line().contains(literal));
+        rule.literal = literal;
+        rule.negate = negate;
+        return rule;
+    }
+
+    /**
+     * Create a rule that checks if the line matches a regex. Regexes that don't need backtracking are checked together
+     * with the others in the group in one pass, the rest uses the pattern.
+     *
+     * @param info    Short description of the rule
+     * @param pattern The compiled regex
+     * @return The rule
+     */
+    static Node regex(String info, Pattern pattern) {
+        var rule = new Rule(info, REGEX, p -> pattern.matcher(p.line()).matches());
+        if (RegexSet.supports(pattern.pattern()))
+            rule.regex = pattern.pattern();
+        return rule;
+    }
+
+    /**
+     * Combine two nodes, if the left one is a group with the same operator the right one is added to it
+     *
+     * @param left  The rules so far, can be null
+     * @param right The node to add
+     * @param and   True if both should pass, false if one is enough
+     * @return The combined node
+     */
+    static Node combine(Node left, Node right, boolean and) {
+        if (left == null)
+            return right;
+        if (left instanceof Group g && g.and == and) {
+            g.nodes.add(right);
+            return g;
+        }
+        var g = new Group(and);
+        g.nodes.add(left);
+        g.nodes.add(right);
+        return g;
+    }
+
+    @Override
+    public boolean test(StepRecord rec) {
+        return root.test(rec);
+    }
+
+    /**
+     * Get the rules in the order they are tested, with how often they passed or failed
+     *
+     * @param eol The line ending to use
+     * @return The info
+     */
+    public String getInfo(String eol) {
+        var join = new StringJoiner(eol);
+        root.addInfo(join, "");
+        return join.toString();
+    }
+
+    /* ******************************************************************************************************* */
+    abstract static class Node {
+        abstract boolean test(StepRecord rec);
+
+        abstract int cost();
+
+        void sort() {
+        }
+
+        abstract void addInfo(StringJoiner join, String indent);
+    }
+
+    private static class Rule extends Node {
+        private final String info;
+        private final int cost;
+        private final Predicate<StepRecord> check;
+        private String literal; // Text to look for if it's a contains rule
+        private boolean negate;
+        private String regex;   // Regex if it's a regex rule that a RegexSet supports
+        // Only for debugging, a lost count when fed from multiple threads doesn't matter
+        private long passed = 0, failed = 0;
+
+        Rule(String info, int cost, Predicate<StepRecord> check) {
+            this.info = info;
+            this.cost = cost;
+            this.check = check;
+        }
+
+        @Override
+        boolean test(StepRecord rec) {
+            boolean pass = check.test(rec);
+            count(pass);
+            return pass;
+        }
+
+        @Override
+        int cost() {
+            return cost;
+        }
+
+        void count(boolean pass) {
+            if (pass) {
+                passed++;
+            } else {
+                failed++;
+            }
+        }
+
+        @Override
+        void addInfo(StringJoiner join, String indent) {
+            join.add(indent + info + " -> passed " + passed + ", failed " + failed);
+        }
+    }
+
+    /**
+     * The contains rules of a group, checked with a single scan of the line
+     */
+    private static class Literals extends Node {
+        private final Rule[] rules;
+        private final boolean and;
+        private final LiteralSet set;
+        private final long stopOn; // Literals that decide the result of the group once found
+
+        Literals(List<Rule> rules, boolean and, LiteralSet set) {
+            this.rules = rules.toArray(Rule[]::new);
+            this.and = and;
+            this.set = set;
+            long stop = 0;
+            for (int a = 0; a < this.rules.length; a++) {
+                if (this.rules[a].negate == and) // and fails on a found !contains, or passes on a found contains
+                    stop |= 1L << a;
+            }
+            stopOn = stop;
+        }
+
+        @Override
+        boolean test(StepRecord rec) {
+            long found = set.find(rec.line(), stopOn);
+            if ((found & stopOn) != 0) { // Decided early, so only the found ones are known
+                for (int a = 0; a < rules.length; a++) {
+                    if ((found & (1L << a)) != 0)
+                        rules[a].count(!rules[a].negate);
+                }
+                return !and;
+            }
+            boolean res = and;
+            for (int a = 0; a < rules.length; a++) {
+                boolean pass = ((found & (1L << a)) != 0) != rules[a].negate;
+                rules[a].count(pass);
+                if (pass != and)
+                    res = !and;
+            }
+            return res;
+        }
+
+        @Override
+        int cost() {
+            return SCAN;
+        }
+
+        @Override
+        void addInfo(StringJoiner join, String indent) {
+            join.add(indent + "single scan for " + rules.length + " contains");
+            for (var rule : rules)
+                rule.addInfo(join, indent + "  ");
+        }
+    }
+
+    /**
+     * The regex rules of a group that don't need backtracking, checked with a single pass over the line
+     */
+    private static class Regexes extends Node {
+        private final Rule[] rules;
+        private final boolean and;
+        private final RegexSet set;
+
+        Regexes(List<Rule> rules, boolean and, RegexSet set) {
+            this.rules = rules.toArray(Rule[]::new);
+            this.and = and;
+            this.set = set;
+        }
+
+        @Override
+        boolean test(StepRecord rec) {
+            long matches = set.matches(rec.line());
+            if (matches == RegexSet.FALLBACK) { // Use the patterns instead
+                for (var rule : rules) {
+                    if (rule.test(rec) != and)
+                        return !and;
+                }
+                return and;
+            }
+            boolean res = and;
+            for (int a = 0; a < rules.length; a++) {
+                boolean pass = (matches & (1L << a)) != 0;
+                rules[a].count(pass);
+                if (pass != and)
+                    res = !and;
+            }
+            return res;
+        }
+
+        @Override
+        int cost() {
+            return REGEX;
+        }
+
+        @Override
+        void addInfo(StringJoiner join, String indent) {
+            join.add(indent + "single pass for " + rules.length + " regex");
+            for (var rule : rules)
+                rule.addInfo(join, indent + "  ");
+        }
+    }
+
+    private static class Group extends Node {
+        private final boolean and;
+        private final ArrayList<Node> nodes = new ArrayList<>();
+        private Node[] sorted;
+
+        Group(boolean and) {
+            this.and = and;
+        }
+
+        @Override
+        boolean test(StepRecord rec) {
+            for (var node : sorted) {
+                if (node.test(rec) != and) // Stop at the first fail for and, first pass for or
+                    return !and;
+            }
+            return and;
+        }
+
+        @Override
+        int cost() {
+            return nodes.stream().mapToInt(Node::cost).sum();
+        }
+
+        @Override
+        void sort() {
+            nodes.forEach(Node::sort);
+            shareScans();
+            sorted = nodes.toArray(Node[]::new);
+            Arrays.sort(sorted, Comparator.comparingInt(Node::cost)); // Stable, so equal cost keeps the xml order
+        }
+
+        /**
+         * Replace the contains rules with a single scan if there are enough of them, and the supported regex rules
+         * with a single pass
+         */
+        private void shareScans() {
+            var literals = new ArrayList<Rule>();
+            var regexes = new ArrayList<Rule>();
+            for (var node : nodes) {
+                if (node instanceof Rule r && r.literal != null && !r.literal.isEmpty() && literals.size() < LiteralSet.MAX_LITERALS)
+                    literals.add(r);
+                if (node instanceof Rule r && r.regex != null && regexes.size() < RegexSet.MAX_REGEX)
+                    regexes.add(r);
+            }
+            if (literals.size() >= SHARED_CONTAINS) {
+                var set = LiteralSet.of(literals.stream().map(r -> r.literal).toList());
+                set.ifPresent(ls -> replace(literals, new Literals(literals, and, ls)));
+            }
+            if (!regexes.isEmpty()) {
+                var set = RegexSet.of(regexes.stream().map(r -> r.regex).toList());
+                set.ifPresent(rs -> replace(regexes, new Regexes(regexes, and, rs)));
+            }
+        }
+
+        private void replace(List<Rule> rules, Node node) {
+            int index = nodes.indexOf(rules.get(0));
+            nodes.removeAll(rules);
+            nodes.add(index, node);
+        }
+
+        @Override
+        void addInfo(StringJoiner join, String indent) {
+            if (sorted.length == 1) { // No need to mention the group
+                sorted[0].addInfo(join, indent);
+                return;
+            }
+            join.add(indent + (and ? "all of" : "one of"));
+            for (var node : sorted)
+                node.addInfo(join, indent + "  ");
+        }
+    }
+}
@@ -1,24 +1,38 @@
 package io.forward.steps;
 
 import java.math.BigDecimal;
+import java.util.Set;
+import java.util.StringJoiner;
 import java.util.function.Predicate;
 
 public class FilterStep extends AbstractStep {
-    Predicate<String> predicate;
+    Predicate<StepRecord> predicate;
 
-    public FilterStep(String id, Predicate<String> predicate) {
+    public FilterStep(String id, Predicate<StepRecord> predicate) {
         this.id = id;
         this.predicate = predicate;
     }
 
-    public String takeStep(String data, BigDecimal[] bds) {
+    public String takeStep(StepRecord rec, BigDecimal[] bds) {
         if (predicate != null) {
-            if (predicate.test(data)) {
-                return doNext(data, bds);
+            if (predicate.test(rec)) {
+                return doNext(rec, bds);
             }else{
-                return doFailure(data, bds);
+                return doFailure(rec, bds);
             }
         }
         return "";
     }
+
+    @Override
+    void addFilterInfo(StringJoiner join, String eol, Set<AbstractStep> done) {
+        if (!done.add(this))
+            return;
+        if (predicate instanceof FilterRules rules) {
+            join.add("Filter " + id).add(rules.getInfo(eol));
+        } else {
+            join.add("Filter " + id + " -> no rules");
+        }
+        super.addFilterInfo(join, eol, done);
+    }
 }
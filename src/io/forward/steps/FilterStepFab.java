@@ -12,7 +12,8 @@
 
 import java.util.Optional;
 import java.util.StringJoiner;
-import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class FilterStepFab {
 
@@ -28,85 +29,81 @@ public static Optional<FilterStep> buildFilterStep(XMLdigger dig, String delimit
      */
     private static Optional<FilterStep> digFilterNode(XMLdigger dig, Rtvals rtvals, String delimiter) {
 
-        Predicate<String> rules = null;
+        FilterRules.Node rules = null;
         var id = dig.attr("id", "");
 
         // If rules are defined by tagnames that represent types
         if (dig.hasChilds() && !dig.tagName("").equals("if")) {
             rules = processTagTypes(dig, delimiter, rtvals);
-            return Optional.of(new FilterStep(id, rules));
+            if (rules == null)
+                return Optional.empty();
+            return Optional.of(new FilterStep(id, FilterRules.compile(rules)));
         }
         // For a filter without rules or an if tag
         if (!dig.value("").isEmpty() || dig.tagName("").equals("if")) { // If only a single rule is defined
             var type = dig.attr("type", "");
             // If an actual type is given
             if (!type.isEmpty())
-                rules = addRule(type, dig.value(""), delimiter, rtvals);
-            // If no type attribute nor a check attribute
+                rules = concatValues(dig.value(""), type, delimiter, rtvals);
+            // Other attributes are rules that all need to pass
             for (var att : dig.allAttr().split(",")) {
-                if (!(att.equals("id") || att.startsWith("delim") || att.startsWith("src"))) {
-                    rules = concatValues(dig.attr(att, "", true), att, delimiter, rtvals);
-                }
+                if (att.isEmpty() || att.equals("id") || att.equals("type") || att.startsWith("delim") || att.startsWith("src"))
+                    continue;
+                var rule = concatValues(dig.attr(att, "", true), att, delimiter, rtvals);
+                if (rule == null)
+                    return Optional.empty();
+                rules = FilterRules.combine(rules, rule, true);
             }
         }
         if (rules == null)
             return Optional.empty();
-        return Optional.of(new FilterStep(id, rules));
+        return Optional.of(new FilterStep(id, FilterRules.compile(rules)));
     }
 
-    private static Predicate<String> processTagTypes(XMLdigger dig, String delimiter, Rtvals rtvals) {
+    private static FilterRules.Node processTagTypes(XMLdigger dig, String delimiter, Rtvals rtvals) {
         var typeDigs = dig.digOut("*");
-        boolean prevOr = false, prevAnd = false;
-        Predicate<String> rules = null;
+        boolean and = true; // If nothing is mentioned, it's and
+        FilterRules.Node rules = null;
 
         for (var typeDig : typeDigs) {
             delimiter = typeDig.attr("delimiter", delimiter);
             var value = typeDig.value("");
 
-            Predicate<String> pred;
+            FilterRules.Node node;
             switch (typeDig.tagName("").toUpperCase()) {
                 case "OR":
-                    prevOr = true;
+                    and = false;
                     continue;
                 case "AND":
-                    prevAnd = true;
+                    and = true;
                     continue;
                 case "RULE":
-                    pred = concatValues(value, typeDig.attr("type", ""), delimiter, rtvals);
+                    node = concatValues(value, typeDig.attr("type", ""), delimiter, rtvals);
                     break;
                 default:
-                    pred = concatValues(value, typeDig.tagName(""), delimiter, rtvals);
+                    node = concatValues(value, typeDig.tagName(""), delimiter, rtvals);
             }
-            if (pred == null)
+            if (node == null)
                 return null;
-
-            if (rules == null) {
-                rules = pred;
-            }
-            if (prevOr) {
-                rules = rules.or(pred);
-                prevOr = false;
-            } else if (prevAnd) {
-                rules = rules.and(pred);
-                prevAnd = false;
-            }
+            rules = FilterRules.combine(rules, node, and);
+            and = true;
         }
         return rules;
     }
 
-    private static Predicate<String> concatValues(String value, String type, String delimiter, Rtvals rtvals) {
-        Predicate<String> pred = null;
-        String operator = value.contains(" AND ") ? "AND" : "OR";
-        String[] parts = value.split(" " + operator + " ");
+    private static FilterRules.Node concatValues(String value, String type, String delimiter, Rtvals rtvals) {
+        FilterRules.Node node = null;
+        boolean and = value.contains(" AND ");
+        String[] parts = value.split(and ? " AND " : " OR ");
         for (String part : parts) {
-            Predicate<String> p = addRule(type, part, delimiter, rtvals);
-            if (p == null) {
+            var rule = addRule(type, part, delimiter, rtvals);
+            if (rule == null) {
                 Logger.error("(ff) -> Unknown type " + type);
                 return null;
             }
-            pred = (pred == null) ? p : (operator.equals("AND") ? pred.and(p) : pred.or(p));
+            node = FilterRules.combine(node, rule, and);
         }
-        return pred;
+        return node;
     }
 
     /**
@@ -114,9 +111,9 @@ private static Predicate<String> concatValues(String value, String type, String
      *
      * @param type  predefined type of the filter e.g. start,nostart,end ...
      * @param value The value for the type e.g. start:$GPGGA to start with $GPGGA
-     * @return -1 -> unknown type, 1 if ok
+     * @return The rule or null if the type is unknown or the value invalid
      */
-    private static Predicate<String> addRule(String type, String value, String delimiter, Rtvals rtvals) {
+    private static FilterRules.Node addRule(String type, String value, String delimiter, Rtvals rtvals) {
         String[] values = value.split(",");
 
         value = Tools.fromEscapedStringToBytes(value);
@@ -153,88 +150,93 @@ private static Predicate<String> addRule(String type, String value, String delim
                     yield null;
                 }
             };
-        }catch (NumberFormatException | IndexOutOfBoundsException e ){
+        }catch (NumberFormatException | IndexOutOfBoundsException | PatternSyntaxException e ){
             Logger.error("Failed to create filter rule: "+e.getMessage());
             return null;
         }
     }
 
     /* Filters */
-    private static Predicate<String> createItemAtIndex(int index, String deli, String val) {
-        return (p -> {
-            var items = p.split(deli);
-            return items.length > index && items[index].equals(val);
-        });
+    private static FilterRules.Node createItemAtIndex(int index, String deli, String val) {
+        return FilterRules.rule("at" + index + ":" + val, FilterRules.SPLIT, p -> p.split(deli) > index && p.item(index).equals(val));
     }
 
-    private static Predicate<String> createItemCount(String deli, int min, int max) {
-        return (p -> {
+    private static FilterRules.Node createItemCount(String deli, int min, int max) {
+        return FilterRules.rule("items:" + min + "-" + max, FilterRules.SPLIT, p -> {
             var items = p.split(deli);
-            return items.length >= min && items.length <= max;
+            return items >= min && items <= max;
         });
     }
 
-    private static Predicate<String> createItemMinCount(String deli, int min) {
-        return (p -> p.split(deli).length >= min);
+    private static FilterRules.Node createItemMinCount(String deli, int min) {
+        return FilterRules.rule("minitems:" + min, FilterRules.SPLIT, p -> p.split(deli) >= min);
     }
 
-    private static Predicate<String> createItemMaxCount(String deli, int max) {
-        return (p -> p.split(deli).length <= max);
+    private static FilterRules.Node createItemMaxCount(String deli, int max) {
+        return FilterRules.rule("maxitems:" + max, FilterRules.SPLIT, p -> p.split(deli) <= max);
     }
 
-    private static Predicate<String> createStartsWith(String with) {
-        return (p -> p.startsWith(with));
+    private static FilterRules.Node createStartsWith(String with) {
+        return FilterRules.rule("start:" + with, FilterRules.CHEAP, p -> p.line().startsWith(with));
     }
 
-    private static Predicate<String> createRegex(String regex) {
-        return (p -> p.matches(regex));
+    private static FilterRules.Node createRegex(String regex) {
+        var pattern = Pattern.compile(regex); // Only compile once instead of each time String.matches is used
+        return FilterRules.regex("regex:" + regex, pattern);
     }
 
-    private static Predicate<String> createStartsNotWith(String with) {
-        return (p -> !p.startsWith(with));
+    private static FilterRules.Node createStartsNotWith(String with) {
+        return FilterRules.rule("nostart:" + with, FilterRules.CHEAP, p -> !p.line().startsWith(with));
     }
 
-    private static Predicate<String> createContains(String contains) {
-        return (p -> p.contains(contains));
+    private static FilterRules.Node createContains(String contains) {
+        return FilterRules.contains("contains:" + contains, contains, false);
     }
 
-    private static Predicate<String> createContainsNot(String contains) {
-        return (p -> !p.contains(contains));
+    private static FilterRules.Node createContainsNot(String contains) {
+        return FilterRules.contains("!contains:" + contains, contains, true);
     }
 
-    private static Predicate<String> createEndsWith(String with) {
-        return (p -> p.endsWith(with));
+    private static FilterRules.Node createEndsWith(String with) {
+        return FilterRules.rule("end:" + with, FilterRules.CHEAP, p -> p.line().endsWith(with));
     }
 
-    private static Predicate<String> createCharAt(int index, char c) {
-        return (p -> index >= 0 && index < p.length() && p.charAt(index) == c);
+    private static FilterRules.Node createCharAt(int index, char c) {
+        return FilterRules.rule("c_start:" + (index + 1) + "," + c, FilterRules.CHEAP, p -> {
+            var line = p.line();
+            return index >= 0 && index < line.length() && line.charAt(index) == c;
+        });
     }
 
-    private static Predicate<String> createCharFromEnd(int index, char c) {
-        return (p -> index >= 0 && p.length() > index && p.charAt(p.length() - index - 1) == c);
+    private static FilterRules.Node createCharFromEnd(int index, char c) {
+        return FilterRules.rule("c_end:" + (index + 1) + "," + c, FilterRules.CHEAP, p -> {
+            var line = p.line();
+            return index >= 0 && line.length() > index && line.charAt(line.length() - index - 1) == c;
+        });
     }
 
-    private static Predicate<String> createMinimumLength(int length) {
-        return (p -> p.length() >= length);
+    private static FilterRules.Node createMinimumLength(int length) {
+        return FilterRules.rule("minlength:" + length, FilterRules.CHEAP, p -> p.line().length() >= length);
     }
 
-    private static Predicate<String> createMaximumLength(int length) {
-        return (p -> p.length() <= length);
+    private static FilterRules.Node createMaximumLength(int length) {
+        return FilterRules.rule("maxlength:" + length, FilterRules.CHEAP, p -> p.line().length() <= length);
     }
 
-    private static Predicate<String> createNMEAcheck(boolean ok) {
-        return (p -> (MathUtils.doNMEAChecksum(p)) == ok);
+    private static FilterRules.Node createNMEAcheck(boolean ok) {
+        return FilterRules.rule("nmea:" + ok, FilterRules.SCAN, p -> (MathUtils.doNMEAChecksum(p.line())) == ok);
     }
 
     /**
-     * Creates a logic evaluator predicate based on the given expression and delimiter.
+     * Creates a logic evaluator rule based on the given expression and delimiter.
+     * The inputs are the items of the record, so the split and parsing is shared with the other rules.
      *
      * @param delimiter The delimiter used to split the input string.
      * @param expression The logic expression to be parsed.
      * @param rtvals The global real-time values collection to get references from
-     * @return A predicate that evaluates the logic expression, or null if the evaluator couldn't be created.
+     * @return A rule that evaluates the logic expression, or null if the evaluator couldn't be created.
      */
-    private static Predicate<String> createLogicEvaluator(String delimiter, String expression, Rtvals rtvals) {
+    private static FilterRules.Node createLogicEvaluator(String delimiter, String expression, Rtvals rtvals) {
         // Create logic evaluator
         var logEval = LogicFab.parseComparison(expression, rtvals, null);
         if (logEval.isEmpty()) {
@@ -243,8 +245,19 @@ private static Predicate<String> createLogicEvaluator(String delimiter, String e
         }
 
         var le = logEval.get();
-        // Return predicate using the logic evaluator
-        return p -> le.eval(p, delimiter).orElse(false);
+        // Return rule using the logic evaluator
+        return FilterRules.rule("logic:" + expression, FilterRules.REGEX, p -> {
+            int items = p.split(delimiter);
+            var inputs = new double[items];
+            for (int a = 0; a < items; a++) {
+                inputs[a] = p.number(a);
+                if (Double.isNaN(inputs[a])) {
+                    Logger.error("Failed to parse input data: " + p.line());
+                    return false;
+                }
+            }
+            return le.logicEval(inputs);
+        });
     }
 
     public static String getHelp(String eol) {
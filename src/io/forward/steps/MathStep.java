@@ -5,24 +5,33 @@
 import util.math.MathUtils;
 
 import java.math.BigDecimal;
-import java.util.StringJoiner;
+import java.util.Arrays;
 
 public class MathStep extends AbstractStep {
     MathEvaluator op;
     String suffix;
     String delimiter = ",";
+    // Fast path
+    double[] dbs = new double[0]; // Reused for every step
+    int[] altered; // Indexes of the inputs that get a new value
 
     public MathStep(MathEvaluator op, String suffix, String delimiter) {
         this.op = op;
         this.suffix = suffix;
         this.delimiter = delimiter;
+        if (op != null)
+            altered = op.getAlteredInputs();
     }
 
     @Override
-    public String takeStep(String data, BigDecimal[] bds) {
+    public String takeStep(StepRecord rec, BigDecimal[] bds) {
+        if (op.usesDoubles())
+            return takeDoublesStep(rec, bds);
         // Apply the operations
         try {
-            bds = op.prepareBdArray(bds, data, delimiter);
+            var data = rec.line(); // Only for the error messages
+            int items = rec.split(delimiter);
+            bds = op.prepareBdArray(bds, rec.items(), data);
             if (bds.length == 0) {
                 Logger.error("Something went wrong building bd array");
                 return "error";
@@ -32,37 +41,58 @@ public String takeStep(String data, BigDecimal[] bds) {
                 Logger.error("Failed to calculate for expression: " + op.getOriginalExpression());
                 return "error";
             }
+            // Overwrite the original data with the calculated values if applicable.
+            for (int index = 0; index < Math.min(items, bds.length); index++) {
+                if (bds[index] != null)
+                    rec.setItem(index, bds[index].stripTrailingZeros().toPlainString());
+            }
         } catch (NullPointerException np) {
             Logger.error("Nullpointer in MathStep: " + np.getMessage());
             return "error";
         }
-        // Overwrite the original data with the calculated values if applicable.
-        var combined = recombineData(data, bds, delimiter);
-        return doNext(appendSuffix(suffix, combined), bds);
+        appendSuffix(suffix, rec);
+        return doNext(rec, bds);
     }
-    public static String recombineData(String data, BigDecimal[] bds, String delimiter) {
-        // Recreate the data stream
-        var splitData = data.split(delimiter);
-        var join = new StringJoiner(delimiter);
-        for (int index = 0; index < bds.length; index++) {
-            if (bds[index] != null) {
-                join.add(bds[index].stripTrailingZeros().toPlainString());
-            } else {
-                join.add(splitData[index]);
+    /**
+     * Variant of takeStep that uses doubles instead of BigDecimals, only the altered inputs are replaced in the data.
+     * Inputs are taken from the record, so they are only parsed if no earlier step did so already.
+     */
+    private String takeDoublesStep(StepRecord rec, BigDecimal[] bds) {
+        int items = rec.split(delimiter);
+        if (dbs.length < items)
+            dbs = new double[items];
+        Arrays.fill(dbs, Double.NaN);
+
+        if (!op.prepareDoubleArray(dbs, items, rec::number)) {
+            Logger.error("Something went wrong building double array from " + rec.line());
+            return "error";
+        }
+        if (!op.eval(dbs)) {
+            Logger.error("Failed to calculate for expression: " + op.getOriginalExpression());
+            return "error";
+        }
+        // Overwrite the original data with the calculated values if applicable.
+        for (int index : altered) {
+            if (index >= items) {
+                Logger.error("Result target i" + index + " is out of bounds for " + rec.line());
+                return "error";
             }
+            rec.setNumber(index, dbs[index]);
         }
-        return join.toString();
+        appendSuffix(suffix, rec);
+        return doNext(rec, bds);
     }
 
-    private static String appendSuffix(String suffix, String data) {
-        return switch (suffix) {
-            case "" -> data;
-            case "nmea" -> data + "*" + MathUtils.getNMEAchecksum(data);
-            default -> {
-                Logger.error(" (mf)-> No such suffix " + suffix);
-                yield data;
+    private static void appendSuffix(String suffix, StepRecord rec) {
+        switch (suffix) {
+            case "" -> {
             }
-        };
+            case "nmea" -> {
+                var data = rec.line();
+                rec.setLine(data + "*" + MathUtils.getNMEAchecksum(data));
+            }
+            default -> Logger.error(" (mf)-> No such suffix " + suffix);
+        }
     }
 
     public String getDebugInfo(String id) {
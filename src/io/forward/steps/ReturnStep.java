@@ -6,8 +6,8 @@
 
 public class ReturnStep extends AbstractStep {
     @Override
-    public String takeStep(String data, BigDecimal[] bds) {
-        return data;
+    public String takeStep(StepRecord rec, BigDecimal[] bds) {
+        return rec.line();
     }
 
     public void setNext(AbstractStep next) {
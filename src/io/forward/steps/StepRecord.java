@@ -0,0 +1,247 @@
+package io.forward.steps;
+
+import util.data.store.LineTokenizer;
+import util.math.MathUtils;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * The data passed along the steps of a path. The line is only split once per delimiter, the items are kept as index
+ * ranges in the line and numbers are parsed on first use. Steps that alter items do it in place, the line is only
+ * rebuilt when a step or the end of the chain needs it as text.
+ * Not thread safe, a record belongs to a single pass through a chain.
+ */
+public class StepRecord {
+    private static final byte UNKNOWN = 0;    // Not parsed yet
+    private static final byte PARSED = 1;     // Parsed from the line
+    private static final byte NOT_NUMBER = 2; // Parsing failed
+    private static final byte SET = 3;        // Number was set by a step
+
+    private String line;              // The line as received or as last rebuilt
+    private LineTokenizer tokenizer;  // Tokens of the line, null if not split yet
+    private int count = 0;            // Amount of items
+    private String[] texts = new String[16];    // Items replaced by a step, null if the range in the line is valid
+    private double[] numbers = new double[16];  // Parsed or set numbers
+    private byte[] states = new byte[16];
+    private boolean altered = false;  // Items were changed since the line was split
+
+    public StepRecord(String line) {
+        this.line = line;
+    }
+
+    /**
+     * Edit applied to a record by an editor step
+     */
+    public interface Edit {
+        /**
+         * Apply the edit
+         *
+         * @param rec The record to alter
+         * @return False if the edit failed, the data won't go any further
+         */
+        boolean apply(StepRecord rec);
+    }
+
+    /**
+     * Adapter for edits that only work on the full line
+     *
+     * @param edit The edit, returns null if it failed
+     * @return The edit for a record
+     */
+    public static Edit ofLine(Function<String, String> edit) {
+        return rec -> {
+            var res = edit.apply(rec.line());
+            rec.setLine(res);
+            return res != null;
+        };
+    }
+
+    /**
+     * Get the data as text, the line is rebuilt if items were altered
+     */
+    public String line() {
+        if (altered)
+            rebuild();
+        return line;
+    }
+
+    /**
+     * Replace the whole line, the next split is done on this one
+     *
+     * @param line The new line
+     */
+    public void setLine(String line) {
+        this.line = line;
+        altered = false;
+        count = 0;
+        tokenizer = null;
+    }
+
+    /**
+     * Split the line on the delimiter, does nothing if that already happened
+     *
+     * @param delimiter The delimiter to split on, same rules as String.split
+     * @return The amount of items
+     */
+    public int split(String delimiter) {
+        if (tokenizer != null && tokenizer.delimiter().equals(delimiter))
+            return count;
+        var text = line(); // Apply the alterations done on the previous split
+        if (text == null)
+            return 0;
+        tokenizer = new LineTokenizer(delimiter);
+        tokenize(text);
+        return count;
+    }
+
+    private void tokenize(String text) {
+        count = tokenizer.tokenize(text);
+        if (states.length < count) {
+            texts = new String[count];
+            numbers = new double[count];
+            states = new byte[count];
+        } else {
+            Arrays.fill(texts, 0, count, null);
+            Arrays.fill(states, 0, count, UNKNOWN);
+        }
+        altered = false;
+    }
+
+    /**
+     * Get the amount of items after the last split
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Get an item of the last split as text
+     *
+     * @param index The index of the item
+     * @return The item
+     */
+    public String item(int index) {
+        checkIndex(index);
+        if (texts[index] == null) {
+            texts[index] = states[index] == SET ? MathUtils.formatDouble(numbers[index]) : tokenizer.text(index);
+        }
+        return texts[index];
+    }
+
+    /**
+     * Get all the items of the last split as text
+     */
+    public String[] items() {
+        var items = new String[count];
+        for (int a = 0; a < count; a++)
+            items[a] = item(a);
+        return items;
+    }
+
+    /**
+     * Get an item of the last split as a number, it's parsed on first use
+     *
+     * @param index The index of the item
+     * @return The number or NaN if the item isn't one
+     */
+    public double number(int index) {
+        checkIndex(index);
+        switch (states[index]) {
+            case PARSED, SET -> {
+                return numbers[index];
+            }
+            case NOT_NUMBER -> {
+                return Double.NaN;
+            }
+            default -> {
+                double d;
+                if (texts[index] == null) {
+                    d = tokenizer.parseDouble(tokenizer.start(index), tokenizer.end(index));
+                    if (tokenizer.failed())
+                        d = Double.NaN;
+                } else {
+                    d = parse(texts[index]);
+                }
+                numbers[index] = d;
+                states[index] = Double.isNaN(d) ? NOT_NUMBER : PARSED;
+                return d;
+            }
+        }
+    }
+
+    private static double parse(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Replace an item of the last split
+     *
+     * @param index The index of the item
+     * @param text  The new content
+     */
+    public void setItem(int index, String text) {
+        checkIndex(index);
+        texts[index] = text;
+        states[index] = UNKNOWN;
+        altered = true;
+    }
+
+    /**
+     * Replace an item of the last split with a number, it's only formatted when the line is rebuilt
+     *
+     * @param index The index of the item
+     * @param value The new value
+     */
+    public void setNumber(int index, double value) {
+        checkIndex(index);
+        texts[index] = null;
+        numbers[index] = value;
+        states[index] = SET;
+        altered = true;
+    }
+
+    /**
+     * Get the tokens of the line split on the delimiter, for use by a store. Altered items are applied first.
+     *
+     * @param delimiter The delimiter to split on
+     * @return The tokenizer holding the index ranges
+     */
+    public LineTokenizer tokens(String delimiter) {
+        split(delimiter);
+        if (altered)
+            rebuild();
+        return tokenizer;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + count + " items");
+    }
+
+    /**
+     * Join the items again with the delimiter and split the result, so it has the same items as splitting the text
+     * that is passed on would give.
+     */
+    private void rebuild() {
+        var join = new StringBuilder(line.length() + 16);
+        var joiner = tokenizer.joiner();
+        for (int a = 0; a < count; a++) {
+            if (a != 0)
+                join.append(joiner);
+            if (texts[a] != null) {
+                join.append(texts[a]);
+            } else if (states[a] == SET) {
+                join.append(MathUtils.formatDouble(numbers[a]));
+            } else {
+                join.append(line, tokenizer.start(a), tokenizer.end(a));
+            }
+        }
+        line = join.toString();
+        tokenize(line);
+    }
+}
@@ -13,9 +13,9 @@ public StoreStep(ValStore store) {
     }
 
     @Override
-    public String takeStep(String data, BigDecimal[] bds) {
-        store.apply(data);
-        return doNext(data, bds);
+    public String takeStep(StepRecord rec, BigDecimal[] bds) {
+        store.apply(rec.tokens(store.delimiter())); // Reuses the split if an earlier step used the same delimiter
+        return doNext(rec, bds);
     }
 
     public ValStore getStore() {
@@ -1,6 +1,7 @@
 package io.stream;
 
 import das.Core;
+import io.TargetFanout;
 import io.Writable;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelOption;
@@ -37,6 +38,7 @@ public abstract class BaseStream {
     protected long passed = -1;							    // Time passed (in ms) between the last two received messages
 
     protected CopyOnWriteArrayList<Writable> targets = new CopyOnWriteArrayList<>();
+    protected TargetFanout fanout; // Queued delivery to the targets, null if they're written to directly
     protected ArrayList<StreamListener> listeners = new ArrayList<>();
 
     protected String eol="\r\n";
@@ -96,6 +98,12 @@ protected boolean readFromXML(XMLdigger dig) {
         if (dig.attr("echo", false))
             enableEcho();
 
+        // Queued delivery to the targets
+        if (fanout != null)
+            fanout.clear();
+        var drop = dig.peekAt("queue").attr("drop", "oldest");
+        fanout = TargetFanout.of(id, dig.value(0), drop).orElse(null);
+
         // cmds
         triggeredActions.clear();
         if (dig.hasPeek("triggered"))
@@ -186,11 +194,15 @@ public synchronized boolean addTarget(Writable writable ){
         return true;
     }
     public boolean removeTarget(Writable wr ){
+        if( fanout!=null )
+            fanout.remove(wr);
 		return targets.remove(wr);
 	}
 	public int clearTargets(){
         int total=targets.size();
         targets.clear();
+        if( fanout!=null )
+            fanout.clear();
         return total;
     }
 	public int getRequestsSize(){
@@ -201,6 +213,15 @@ public String listTargets(){
         targets.forEach(wr -> join.add(wr.id()));
         return join.toString();
     }
+    /**
+     * Get the state of the target queues if queued delivery is enabled
+     *
+     * @param eol The line ending to use
+     * @return The info or an empty string if the targets are written to directly
+     */
+    public String getQueueInfo(String eol){
+        return fanout==null ? "" : fanout.getInfo(eol);
+    }
     /* Echo */
     public void enableEcho(){
         if( this instanceof Writable ){
@@ -706,7 +706,12 @@ private String doSingleCmd( String cmd, boolean html){
 				var join = new StringJoiner(html?"<br>":"\r\n");
 				join.setEmptyValue("! No requests yet.");
 				streams.values().stream().filter(base -> base.getRequestsSize() != 0)
-						.forEach(x -> join.add(x.id() + " -> " + x.listTargets()));
+						.forEach(x -> {
+							join.add(x.id() + " -> " + x.listTargets());
+							var queues = x.getQueueInfo(html?"<br>":"\r\n");
+							if( !queues.isEmpty() )
+								join.add(queues);
+						});
 				yield join.toString();
 			}
 			case "status" -> getStatus();
@@ -730,7 +735,7 @@ private static String doHelpCmd(boolean html) {
 				.add( "ss -> Get a list of all streams with indexes for sending data")
 				.add( "ss:buffers -> Get confirm buffers.")
 				.add( "ss:status -> Get streamlist.")
-				.add( "ss:requests -> Get an overview of all the datarequests held by the streams");
+				.add( "ss:requests -> Get an overview of all the datarequests held by the streams, with the queue state of queued targets");
 		help.add("Alter the stream settings")
 				.add( "ss:id,ttl,value -> Alter the ttl")
 				.add( "ss:id,eol,value -> Alter the eol string")
@@ -361,6 +361,11 @@ public boolean isConnectionValid() {
         return serialPort.isOpen();
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true; // The writes are synchronized
+    }
+
     @Override
     protected boolean readExtraFromXML(XMLdigger stream) {
 
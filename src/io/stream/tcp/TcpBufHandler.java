@@ -0,0 +1,110 @@
+package io.stream.tcp;
+
+import das.Core;
+import io.Writable;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import org.tinylog.Logger;
+import worker.Datagram;
+
+import java.nio.charset.Charset;
+import java.time.Instant;
+
+/**
+ * Alternative for TcpHandler that works on the ByteBuf frames produced by the framer instead of byte arrays.
+ * The eol and null characters are stripped in place in a single pass and the frame is only decoded to a String
+ * once, and only if it's actually needed (raw log, label or targets).
+ */
+public class TcpBufHandler extends TcpHandler {
+
+    private static final Charset CHARSET = Charset.defaultCharset(); // Same as the new String(byte[]) in TcpHandler
+
+    public TcpBufHandler(String id, Writable writable) {
+        super(id, writable);
+    }
+
+    @Override
+    protected void readFrame(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof ByteBuf buf)) { // Not a frame from the framer, use the regular route
+            super.readFrame(ctx, msg);
+            return;
+        }
+        try {
+            processFrame(buf);
+        } finally {
+            buf.release(); // The framer hands over a retained slice
+        }
+    }
+
+    private void processFrame(ByteBuf buf) {
+        if (idle) {
+            idle = false;
+            listeners.forEach(l -> l.notifyActive(id));
+        }
+        timeStamp = Instant.now().toEpochMilli(); // Store the timestamp of the received message
+
+        int start = buf.readerIndex();
+        int length = stripInPlace(buf, start, buf.writerIndex());
+        if (length == -1) // Nothing but whitespace
+            return;
+
+        String msg = null;
+        if (log) {
+            msg = buf.toString(start, length, CHARSET);
+            Logger.tag("RAW").warn(id + "\t" + msg);
+        }
+
+        // Implement the use of labels
+        if (!label.isEmpty()) { // No use adding to queue without label
+            if (msg == null)
+                msg = buf.toString(start, length, CHARSET);
+            Core.addToQueue(Datagram.build(msg)
+                    .label(label)
+                    .origin(id)
+                    .priority(priority)
+                    .writable(writable)
+            );
+        }
+
+        // Forward data to targets
+        if (targets.isEmpty())
+            return;
+        if (msg == null)
+            msg = buf.toString(start, length, CHARSET);
+        writeToTargets(msg);
+    }
+
+    /**
+     * Remove the \n, \r and \0 from the frame by moving the other bytes forward, without copying the frame.
+     *
+     * @param buf   The frame to alter
+     * @param start The index of the first byte
+     * @param end   The index after the last byte
+     * @return The length of the remaining content or -1 if it only contains whitespace
+     */
+    static int stripInPlace(ByteBuf buf, int start, int end) {
+        int write = start;
+        boolean blank = true;
+        for (int read = start; read < end; read++) {
+            byte b = buf.getByte(read);
+            if (b == '\n' || b == '\r' || b == 0)
+                continue;
+            if (blank && !isWhitespace(b))
+                blank = false;
+            if (read != write)
+                buf.setByte(write, b);
+            write++;
+        }
+        return blank ? -1 : write - start;
+    }
+
+    /**
+     * Check if the byte is whitespace in the same way as Character.isWhitespace does for ascii
+     *
+     * @param b The byte to check
+     * @return True if whitespace
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= 0x09 && b <= 0x0D) || (b >= 0x1C && b <= 0x1F);
+    }
+}
@@ -1,6 +1,7 @@
 package io.stream.tcp;
 
 import das.Core;
+import io.TargetFanout;
 import io.Writable;
 import io.netty.channel.*;
 import io.netty.handler.codec.TooLongFrameException;
@@ -10,6 +11,7 @@
 import org.tinylog.Logger;
 import worker.Datagram;
 
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -35,12 +37,19 @@ public class TcpHandler extends SimpleChannelInboundHandler<byte[]>{
     protected InetSocketAddress remote;
     protected Writable writable;
     protected CopyOnWriteArrayList<Writable> targets;
+    protected TargetFanout fanout; // Queued delivery to the targets, null if they're written to directly
 
     protected EventLoopGroup eventLoopGroup;
 
     String eol="\r\n";
     boolean udp=false;
 
+    /* Allocation stats, only gathered if enabled because it costs a call to the mxbean per frame */
+    private static final com.sun.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean tb ? tb : null;
+    protected boolean allocStats=false;
+    protected long frames=0;
+    protected long allocated=0;
+
     public TcpHandler( String id ){
         this.id=id;
     }
@@ -53,6 +62,31 @@ public TcpHandler(String id, Writable writable) {
     public void setTargets(CopyOnWriteArrayList<Writable> targets) {
         this.targets = targets;
     }
+    public void setFanout(TargetFanout fanout) {
+        this.fanout = fanout;
+    }
+
+    /**
+     * Give the line to the targets, through their queue if queued delivery is enabled, and remove the inactive ones
+     *
+     * @param line The line to give
+     */
+    protected void writeToTargets(String line) {
+        try {
+            if (fanout == null) {
+                for (var wr : targets)
+                    wr.writeLine(id, line);
+            } else {
+                for (var wr : targets)
+                    fanout.writeLine(wr, id, line);
+            }
+            targets.removeIf(wr -> !wr.isConnectionValid()); // Clear inactive
+            if (fanout != null)
+                fanout.retain(targets);
+        } catch (ConcurrentModificationException e) {
+            Logger.error(e);
+        }
+    }
     public long getTimestamp(){
         return timeStamp;
     }
@@ -142,6 +176,26 @@ public void channelUnregistered(ChannelHandlerContext ctx) {
         // Don't care about this     
     }
     @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if( !allocStats || threadBean==null ){
+            readFrame(ctx,msg);
+            return;
+        }
+        long start = threadBean.getCurrentThreadAllocatedBytes();
+        readFrame(ctx,msg);
+        allocated += threadBean.getCurrentThreadAllocatedBytes()-start;
+        frames++;
+    }
+
+    /**
+     * Process a single frame received from the pipeline, default is the byte[] route via channelRead0
+     * @param ctx The context of the channel
+     * @param msg The received frame
+     */
+    protected void readFrame(ChannelHandlerContext ctx, Object msg) throws Exception {
+        super.channelRead(ctx,msg);
+    }
+    @Override
     public void channelRead0(ChannelHandlerContext ctx, byte[] data) throws Exception {
        
        String msg = new String( data );	// Convert the raw data to a readable string
@@ -175,13 +229,7 @@ public void channelRead0(ChannelHandlerContext ctx, byte[] data) throws Exceptio
         // Forward data to targets
         if (targets.isEmpty())
             return;
-        String tosend = new String(data);
-        try {
-            targets.parallelStream().forEach(wr -> wr.writeLine(id, tosend));// Concurrent sending to multiple writables
-            targets.removeIf(wr -> !wr.isConnectionValid()); // Clear inactive
-        } catch (ConcurrentModificationException e) {
-            Logger.error(e);
-        }
+        writeToTargets(msg); // Same cleaned up line as the queue gets
 
         // Keep the timestamp of the last message
         timeStamp = Instant.now().toEpochMilli();            // Store the timestamp of the received message
@@ -227,4 +275,18 @@ public boolean isConnectionValid(){
     public void setEventLoopGroup(EventLoopGroup eventLoopGroup) {
         this.eventLoopGroup=eventLoopGroup;
     }
+    /* Allocation stats */
+    public void enableAllocStats( boolean enable ){
+        allocStats=enable;
+    }
+    /**
+     * Get the average amount of bytes allocated on the heap per received frame
+     * @return The average or -1 if no stats were gathered
+     */
+    public long getAllocPerFrame(){
+        return frames==0?-1:allocated/frames;
+    }
+    public long getFrameCount(){
+        return frames;
+    }
 }
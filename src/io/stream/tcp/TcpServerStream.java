@@ -62,6 +62,7 @@ public void initChannel(SocketChannel ch){
                             handler.setPriority(priority);
                             handler.setLabel(label);
                             handler.setTargets(targets);
+                            handler.setFanout(fanout);
                             handler.addStreamListener( TcpServerStream.this );
                             handler.setEventLoopGroup(eventLoopGroup);
                             clients.add(handler);
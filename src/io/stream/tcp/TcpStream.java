@@ -25,6 +25,8 @@ public class TcpStream extends BaseStream implements Writable {
     ByteBuf[] deli;
     Bootstrap bootstrap;        // Bootstrap for TCP connections
     static int bufferSize = 2048;     // How many bytes are stored before a dump
+    boolean zeroCopy = false;         // Use the ByteBuf handler instead of the byte[] one
+    boolean allocStats = false;       // Gather stats on the heap allocation per frame
 
     public TcpStream(XMLdigger stream) {
         super(stream);
@@ -78,7 +80,8 @@ public void initChannel(SocketChannel ch) {
                         Logger.error(id + " -> Deli still null, assuming fixed size...");
                         ch.pipeline().addLast("framer", new FixedLengthFrameDecoder(3) );
                     }
-                    ch.pipeline().addLast( "decoder", new ByteArrayDecoder() );
+                    if( !zeroCopy ) // The ByteBuf handler works directly on the frames
+                        ch.pipeline().addLast( "decoder", new ByteArrayDecoder() );
                     ch.pipeline().addLast( "encoder", new ByteArrayEncoder() );
 
                     boolean idle=false;
@@ -87,10 +90,12 @@ public void initChannel(SocketChannel ch) {
                         idle= handler.isIdle(); // Keep this so it survives
                     }
                     // For some reason the handler needs to be remade in order to restore the connection...
-                    handler = new TcpHandler( id, TcpStream.this );
+                    handler = zeroCopy ? new TcpBufHandler( id, TcpStream.this ) : new TcpHandler( id, TcpStream.this );
+                    handler.enableAllocStats(allocStats);
                     handler.setPriority(priority);
                     handler.setLabel(label);
                     handler.setTargets(targets);
+                    handler.setFanout(fanout);
                     handler.setStreamListeners( listeners );
                     handler.setEventLoopGroup(eventLoopGroup);
                     if( idle )
@@ -129,6 +134,10 @@ protected void flagIdle(){
     public boolean isConnectionValid() {
         return handler!=null && handler.isConnectionValid();
     }
+    @Override
+    public boolean isThreadSafe() {
+        return true; // Writes go to the netty channel
+    }
 
     @Override
     public boolean readExtraFromXML(XMLdigger stream) {
@@ -144,6 +153,9 @@ public boolean readExtraFromXML(XMLdigger stream) {
             return false;
         }
         deli = new ByteBuf[]{ Unpooled.copiedBuffer( eol.getBytes())};
+
+        zeroCopy = stream.peekAt("zerocopy").value(false);
+        allocStats = stream.peekAt("allocstats").value(false);
         return true;
     }
 
@@ -158,7 +170,10 @@ public long getLastTimestamp() {
 
     @Override
     public String getInfo() {
-        return "TCP ["+id+"] "+ ipsock.toString();
+        var info = "TCP ["+id+"] "+ ipsock.toString();
+        if( allocStats && handler != null && handler.getAllocPerFrame() != -1 )
+            info += " ("+handler.getAllocPerFrame()+"B/frame)";
+        return info;
     }
 
     @Override
@@ -232,6 +232,10 @@ public boolean disconnect(){
 	public boolean isConnectionValid(){
         return channel!=null && channel.isActive();
     }
+	@Override
+	public boolean isThreadSafe() {
+		return true; // Writes go to the netty channel
+	}
 
 	/**
 	 * Get the IP where this connection originates from
@@ -74,6 +74,7 @@ public void initChannel(NioDatagramChannel ch) {
                     handler.disconnect();	
                 handler = new TcpHandler( id, UdpStream.this );
                 handler.setTargets(targets);
+                handler.setFanout(fanout);
                 handler.setStreamListeners(listeners);
                 handler.toggleUDP();
                 ch.pipeline().addLast( handler ); 
@@ -106,6 +107,11 @@ public boolean isConnectionValid() {
         return handler!=null&&handler.isConnectionValid();
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true; // Writes go to the netty channel
+    }
+
     @Override
     protected boolean readExtraFromXML(XMLdigger stream) {
         // Process the address
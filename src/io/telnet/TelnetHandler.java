@@ -375,7 +375,7 @@ public void giveObject(String info, Object object) {
 			altSession = (Writable) object;
     }
 	@Override
-	public boolean writeLine(String origin, String data) {
+	public synchronized boolean writeLine(String origin, String data) {
 		if( data.equalsIgnoreCase("Clearing requests")) {
 			ids.clear();
 		} else if (!ids.contains(origin) && origin != null) {
@@ -434,6 +434,10 @@ public boolean isConnectionValid() {
 			return false;
 		return channel.isActive();
 	}
+	@Override
+	public boolean isThreadSafe() {
+		return true; // The writes are synchronized
+	}
 
 	/* ***********************************************************************************************************/
 	/**
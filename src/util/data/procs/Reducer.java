@@ -13,6 +13,9 @@ public class Reducer {
     public static DoubleArrayToDouble getDoubleReducer(String reducer, double defValue, int windowsize) {
         return switch (reducer.replace(" ", "").toLowerCase()) {
             case "mean", "avg" -> (window) -> Arrays.stream(window).average().orElse(defValue);
+            case "sum" -> (window) -> Arrays.stream(window).sum();
+            case "min" -> (window) -> Arrays.stream(window).min().orElse(defValue);
+            case "max" -> (window) -> Arrays.stream(window).max().orElse(defValue);
             case "median" -> {
                 if (windowsize % 2 == 0) {
                     yield (window) -> {
@@ -53,6 +56,48 @@ public static DoubleArrayToDouble getDoubleReducer(String reducer, double defVal
         };
     }
 
+    /**
+     * Get the incremental version of a double reducer, this one is updated when values enter or leave the window
+     * instead of going over the full window each time the result is requested.
+     *
+     * @param reducer    The name of the reducer
+     * @param defValue   The value to return when the window is empty
+     * @param windowsize The size of the window
+     * @return The reducer or null if there's no incremental version (median, mode)
+     */
+    public static WindowReducer getDoubleWindowReducer(String reducer, double defValue, int windowsize) {
+        return switch (reducer.replace(" ", "").toLowerCase()) {
+            case "mean", "avg" -> new WindowReducer.Sum(defValue, true);
+            case "sum" -> new WindowReducer.Sum(defValue, false);
+            case "min" -> new WindowReducer.Extreme(defValue, windowsize, false);
+            case "max" -> new WindowReducer.Extreme(defValue, windowsize, true);
+            case "variance" -> new WindowReducer.Variance(defValue, WindowReducer.Variance.Type.VARIANCE);
+            case "samplevariance" -> new WindowReducer.Variance(defValue, WindowReducer.Variance.Type.SAMPLE);
+            case "populationvariance" -> new WindowReducer.Variance(defValue, WindowReducer.Variance.Type.POPULATION);
+            case "stdev", "standarddeviation" -> new WindowReducer.Variance(defValue, WindowReducer.Variance.Type.STDEV);
+            case "popstdev", "populationstandarddeviation" ->
+                    new WindowReducer.Variance(defValue, WindowReducer.Variance.Type.POPSTDEV);
+            default -> null;
+        };
+    }
+
+    /**
+     * Get the incremental version of an integer reducer, unknown ones get max because that's what the aggregator
+     * falls back to.
+     *
+     * @param reducer    The name of the reducer
+     * @param defValue   The value to return when the window is empty
+     * @param windowsize The size of the window
+     * @return The reducer
+     */
+    public static WindowReducer getIntegerWindowReducer(String reducer, int defValue, int windowsize) {
+        return switch (reducer.replace(" ", "").toLowerCase()) {
+            case "min" -> new WindowReducer.Extreme(defValue, windowsize, false);
+            case "sum" -> new WindowReducer.Sum(defValue, false);
+            default -> new WindowReducer.Extreme(defValue, windowsize, true);
+        };
+    }
+
     public static IntegerArrayToInteger getIntegerReducer(String reducer, int defValue, int windowsize) {
         return switch (reducer.replace(" ", "").toLowerCase()) {
             case "max" -> (window) -> {
@@ -0,0 +1,199 @@
+package util.data.procs;
+
+/**
+ * Reducer that is kept up to date while values enter and leave the window of an aggregator, so the result is
+ * available without going over the whole window. Values leave in the same order they entered.
+ */
+public abstract class WindowReducer {
+    protected final double defValue;
+    protected int count = 0; // Amount of values currently in the window
+
+    protected WindowReducer(double defValue) {
+        this.defValue = defValue;
+    }
+
+    /**
+     * Add a value to the window
+     */
+    public abstract void add(double value);
+
+    /**
+     * Remove the oldest value from the window
+     *
+     * @param value The value that is removed, needed by those that keep a running total
+     */
+    public abstract void remove(double value);
+
+    /**
+     * Get the result of the reducer for the current window
+     *
+     * @return The result or the default value if the window is empty
+     */
+    public abstract double value();
+
+    /**
+     * Remove all the values
+     */
+    public abstract void reset();
+
+    /**
+     * Check if this reducer accumulates rounding errors and thus benefits from a periodic rebuild
+     */
+    public boolean drifts() {
+        return false;
+    }
+
+    /* ******************************************************************************************************* */
+
+    /**
+     * Running sum, optionally divided by the amount of values to get the mean
+     */
+    static class Sum extends WindowReducer {
+        private final boolean mean;
+        private double sum = 0;
+
+        Sum(double defValue, boolean mean) {
+            super(defValue);
+            this.mean = mean;
+        }
+
+        public void add(double value) {
+            sum += value;
+            count++;
+        }
+
+        public void remove(double value) {
+            sum -= value;
+            count--;
+        }
+
+        public double value() {
+            if (count == 0)
+                return defValue;
+            return mean ? sum / count : sum;
+        }
+
+        public void reset() {
+            sum = 0;
+            count = 0;
+        }
+
+        @Override
+        public boolean drifts() {
+            return true;
+        }
+    }
+
+    /**
+     * Welford's algorithm extended with removal, keeps the mean and the sum of the squared differences (m2)
+     */
+    static class Variance extends WindowReducer {
+        enum Type {VARIANCE, SAMPLE, POPULATION, STDEV, POPSTDEV}
+
+        private final Type type;
+        private double mean = 0, m2 = 0;
+
+        Variance(double defValue, Type type) {
+            super(defValue);
+            this.type = type;
+        }
+
+        public void add(double value) {
+            count++;
+            var delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+
+        public void remove(double value) {
+            count--;
+            if (count == 0) {
+                reset();
+                return;
+            }
+            var delta = value - mean;
+            mean -= delta / count;
+            m2 -= delta * (value - mean);
+            if (m2 < 0) // Rounding could make it go slightly below
+                m2 = 0;
+        }
+
+        public double value() {
+            if (count == 0)
+                return defValue;
+            return switch (type) {
+                case VARIANCE -> m2;
+                case SAMPLE -> m2 / (count - 1);
+                case POPULATION -> m2 / count;
+                case STDEV -> Math.sqrt(m2);
+                case POPSTDEV -> Math.sqrt(m2 / count);
+            };
+        }
+
+        public void reset() {
+            mean = 0;
+            m2 = 0;
+            count = 0;
+        }
+
+        @Override
+        public boolean drifts() {
+            return true;
+        }
+    }
+
+    /**
+     * Minimum or maximum using a monotonic deque, each value is added and removed at most once so amortized O(1).
+     * The deque holds the values that can still become the extreme together with their sequence number.
+     */
+    static class Extreme extends WindowReducer {
+        private final boolean max;
+        private final double[] values;
+        private final long[] seqs;
+        private int head = 0, size = 0;
+        private long added = 0, removed = 0; // Sequence numbers of the next value to add and remove
+
+        Extreme(double defValue, int windowSize, boolean max) {
+            super(defValue);
+            this.max = max;
+            values = new double[windowSize + 1];
+            seqs = new long[windowSize + 1];
+        }
+
+        public void add(double value) {
+            // Drop the values at the back that can't be the extreme anymore
+            while (size > 0) {
+                var last = values[(head + size - 1) % values.length];
+                if (max ? last > value : last < value)
+                    break;
+                size--;
+            }
+            int index = (head + size) % values.length;
+            values[index] = value;
+            seqs[index] = added++;
+            size++;
+            count++;
+        }
+
+        public void remove(double value) {
+            if (size > 0 && seqs[head] == removed) { // The oldest value is the front of the deque
+                head = (head + 1) % values.length;
+                size--;
+            }
+            removed++;
+            count--;
+        }
+
+        public double value() {
+            return size == 0 ? defValue : values[head];
+        }
+
+        public void reset() {
+            head = 0;
+            size = 0;
+            added = 0;
+            removed = 0;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package util.data.store;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a line in tokens without creating substrings, the tokens are kept as index ranges in the original line.
+ * Numbers are parsed straight from those ranges. Gives the same tokens as String.split, so also drops the trailing
+ * empty ones. Not thread safe, meant to be reused by a single store or path step.
+ */
+public class LineTokenizer {
+    private static final String REGEX_CHARS = ".$|()[{^?*+\\";
+    private static final double[] POWERS = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+            1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22}; // Exact as double
+
+    private final String original;  // The delimiter as given
+    private final String delimiter; // Literal delimiter or null if a regex is needed
+    private final Pattern regex;
+
+    private CharSequence line = "";
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int count = 0;
+    private boolean failed = false;
+
+    public LineTokenizer(String delimiter) {
+        this.original = delimiter;
+        var literal = toLiteral(delimiter);
+        this.delimiter = literal;
+        this.regex = literal == null ? Pattern.compile(delimiter) : null;
+    }
+
+    /**
+     * Check if the delimiter can be used as is, same rules as the fast path in String.split
+     *
+     * @param delimiter The delimiter as given in the xml
+     * @return The literal delimiter or null if it needs regex
+     */
+    private static String toLiteral(String delimiter) {
+        if (delimiter.length() == 2 && delimiter.charAt(0) == '\\' && !Character.isLetterOrDigit(delimiter.charAt(1)))
+            return delimiter.substring(1); // Escaped metachar fe. \|
+        for (int a = 0; a < delimiter.length(); a++) {
+            if (REGEX_CHARS.indexOf(delimiter.charAt(a)) != -1)
+                return null;
+        }
+        return delimiter.isEmpty() ? null : delimiter;
+    }
+
+    /**
+     * Split the line in tokens
+     *
+     * @param line The line to split
+     * @return The amount of tokens
+     */
+    public int tokenize(CharSequence line) {
+        this.line = line;
+        count = 0;
+        int start = 0;
+        if (regex == null) {
+            int length = delimiter.length();
+            int index = indexOf(line, delimiter, 0);
+            while (index != -1) {
+                add(start, index);
+                start = index + length;
+                index = indexOf(line, delimiter, start);
+            }
+        } else {
+            var matcher = regex.matcher(line);
+            while (matcher.find()) {
+                if (matcher.end() == 0) // Zero width match at the start doesn't create a token
+                    continue;
+                add(start, matcher.start());
+                start = matcher.end();
+            }
+        }
+        add(start, line.length());
+        while (count > 0 && starts[count - 1] == ends[count - 1]) // Remove trailing empty ones, like split does
+            count--;
+        if (count == 0 && line.isEmpty()) // Empty line is a single empty token
+            count = 1;
+        return count;
+    }
+
+    private static int indexOf(CharSequence line, String find, int from) {
+        if (line instanceof String str)
+            return str.indexOf(find, from);
+        var first = find.charAt(0);
+        for (int a = from; a <= line.length() - find.length(); a++) {
+            if (line.charAt(a) != first)
+                continue;
+            int b = 1;
+            while (b < find.length() && line.charAt(a + b) == find.charAt(b))
+                b++;
+            if (b == find.length())
+                return a;
+        }
+        return -1;
+    }
+
+    private void add(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    /**
+     * Get the delimiter as it was given
+     */
+    public String delimiter() {
+        return original;
+    }
+
+    /**
+     * Get the text to put between tokens when joining them again, the literal delimiter if it didn't need regex
+     */
+    public String joiner() {
+        return delimiter == null ? original : delimiter;
+    }
+
+    /**
+     * Get the line that was tokenized last
+     */
+    public CharSequence line() {
+        return line;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int start(int token) {
+        return starts[token];
+    }
+
+    public int end(int token) {
+        return ends[token];
+    }
+
+    /**
+     * Get the hash of the token, the same as the hashCode of the token as a String but without creating it
+     */
+    public int hash(int token) {
+        int h = 0;
+        for (int a = starts[token]; a < ends[token]; a++)
+            h = 31 * h + line.charAt(a);
+        return h;
+    }
+
+    /**
+     * Check if the token equals the given text
+     */
+    public boolean matches(int token, String text, boolean ignoreCase) {
+        int length = ends[token] - starts[token];
+        if (length != text.length())
+            return false;
+        for (int a = 0; a < length; a++) {
+            char c1 = line.charAt(starts[token] + a);
+            char c2 = text.charAt(a);
+            if (c1 != c2 && !(ignoreCase && Character.toLowerCase(c1) == Character.toLowerCase(c2)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the token as a String, this does allocate
+     */
+    public String text(int token) {
+        return text(starts[token], ends[token]);
+    }
+
+    /**
+     * Get a range of the line as a String, this does allocate
+     */
+    public String text(int start, int end) {
+        return line.subSequence(start, end).toString();
+    }
+
+    /**
+     * Check if the last parse failed
+     */
+    public boolean failed() {
+        return failed;
+    }
+
+    /* ******************************************* P A R S I N G *********************************************** */
+
+    /**
+     * Parse a range of the line as a double, same result as Double.parseDouble but without creating a String for the
+     * common notations. Check failed() afterwards.
+     */
+    public double parseDouble(int start, int end) {
+        failed = false;
+        while (start < end && line.charAt(start) <= ' ') // Same trimming as Double.parseDouble
+            start++;
+        while (end > start && line.charAt(end - 1) <= ' ')
+            end--;
+
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (line.charAt(pos) == '-' || line.charAt(pos) == '+'))
+            negative = line.charAt(pos++) == '-';
+
+        long mantissa = 0;
+        int digits = 0;     // Significant digits in the mantissa
+        int exponent = 0;
+        boolean anyDigit = false;
+        boolean dot = false;
+        for (; pos < end; pos++) {
+            char c = line.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (mantissa == 0 && c == '0') { // Leading zero, doesn't add precision
+                    if (dot)
+                        exponent--;
+                    continue;
+                }
+                if (++digits > 18) // Won't fit in the long anymore
+                    return parseSlow(start, end);
+                mantissa = mantissa * 10 + (c - '0');
+                if (dot)
+                    exponent--;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (!anyDigit)
+            return parseSlow(start, end); // Might be NaN, Infinity, hex...
+
+        if (pos < end && (line.charAt(pos) == 'e' || line.charAt(pos) == 'E')) {
+            pos++;
+            boolean negExp = false;
+            if (pos < end && (line.charAt(pos) == '-' || line.charAt(pos) == '+'))
+                negExp = line.charAt(pos++) == '-';
+            int exp = 0;
+            int expDigits = 0;
+            for (; pos < end && expDigits < 4; pos++, expDigits++) {
+                char c = line.charAt(pos);
+                if (c < '0' || c > '9')
+                    break;
+                exp = exp * 10 + (c - '0');
+            }
+            if (expDigits == 0)
+                return parseSlow(start, end);
+            exponent += negExp ? -exp : exp;
+        }
+        if (pos != end) // Something left, fe. a d or f suffix
+            return parseSlow(start, end);
+
+        if (mantissa == 0)
+            return negative ? -0.0 : 0.0;
+        if (mantissa >= (1L << 53) || exponent > 22 || exponent < -22) // Can't be done exact this way
+            return parseSlow(start, end);
+        double value = exponent >= 0 ? mantissa * POWERS[exponent] : mantissa / POWERS[-exponent];
+        return negative ? -value : value;
+    }
+
+    private double parseSlow(int start, int end) {
+        try {
+            return Double.parseDouble(line.subSequence(start, end).toString());
+        } catch (NumberFormatException e) {
+            failed = true;
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Parse a range of the line as an int, same rules as Integer.parseInt. Check failed() afterwards.
+     */
+    public int parseInt(int start, int end) {
+        failed = true;
+        if (start == end)
+            return 0;
+        int pos = start;
+        boolean negative = false;
+        if (line.charAt(pos) == '-' || line.charAt(pos) == '+')
+            negative = line.charAt(pos++) == '-';
+        if (pos == end)
+            return 0;
+
+        long value = 0;
+        for (; pos < end; pos++) {
+            char c = line.charAt(pos);
+            if (c < '0' || c > '9')
+                return 0;
+            value = value * 10 + (c - '0');
+            if (value > 1L + Integer.MAX_VALUE)
+                return 0;
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE)
+            return 0;
+        failed = false;
+        return (int) value;
+    }
+}
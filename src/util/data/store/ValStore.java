@@ -3,24 +3,29 @@
 import org.tinylog.Logger;
 import util.data.vals.*;
 import util.database.TableInsert;
-import util.math.MathUtils;
+import util.evalcore.MathEvaluator;
 
+import java.math.BigDecimal;
 import java.util.*;
 import java.util.stream.Stream;
 
 public class ValStore {
     private final ArrayList<BaseVal> localValRefs = new ArrayList<>();
-    private ArrayList<BaseVal> calVal = new ArrayList<>();
-    private ArrayList<String> calOps = new ArrayList<>();
+    private final ArrayList<BaseVal> calVal = new ArrayList<>();
+    private final ArrayList<String> calOps = new ArrayList<>();
+    private final ArrayList<CalEval> calEvals = new ArrayList<>(); // The calOps parsed and bound to the vals
     private ArrayList<String[]> dbInsert = new ArrayList<>();
     private final ArrayList<TableInsert> tis = new ArrayList<>();
 
     private String delimiter = ",";
+    private LineTokenizer tokenizer = new LineTokenizer(delimiter);
     private String id;
 
     /* * MAPPED * */
     private boolean map=false;
     private final HashMap<String, BaseVal> valMap = new HashMap<>();
+    private String[] mapKeys; // Open addressing table with the keys of valMap, so a token can be looked up without
+    private BaseVal[] mapVals; // creating a String first. Null if it needs to be (re)build.
     private boolean idleReset=false;
     private boolean valid=true;
     private String lastKey=""; // Last key trigger db store
@@ -31,6 +36,7 @@ public ValStore(String id){
 
     public void delimiter( String del ){
         this.delimiter=del;
+        tokenizer = new LineTokenizer(del);
     }
     public String delimiter(){
         return delimiter;
@@ -71,9 +77,41 @@ public void setDbInsert(ArrayList<String[]> dbInsert) {
         this.dbInsert = dbInsert;
     }
 
-    public void setCalval(ArrayList<BaseVal> calVal, ArrayList<String> calOps) {
-        this.calVal = calVal;
-        this.calOps = calOps;
+    public void addCalVal(BaseVal val, String op) {
+        calVal.add(val);
+        calOps.add(op);
+    }
+
+    public ArrayList<BaseVal> getCalVals() {
+        return calVal;
+    }
+
+    public ArrayList<String> getCalOps() {
+        return calOps;
+    }
+
+    /**
+     * Add the evaluator for a calculated val
+     *
+     * @param target The val that gets the result
+     * @param eval   The evaluator, the i's in it refer to the inputs
+     * @param inputs The vals the evaluator uses, in order of the i's
+     */
+    public void addCalEval(NumericVal target, MathEvaluator eval, NumericVal[] inputs) {
+        calEvals.add(new CalEval(target, eval, inputs));
+    }
+
+    /**
+     * Get all the numeric vals this store has, both the regular ones and the calculated ones
+     *
+     * @return List with the vals
+     */
+    public ArrayList<NumericVal> getNumericVals() {
+        var list = new ArrayList<NumericVal>();
+        Stream.of(localValRefs, valMap.values(), calVal).flatMap(Collection::stream)
+                .filter(val -> val instanceof NumericVal)
+                .forEach(val -> list.add((NumericVal) val));
+        return list;
     }
 
     public boolean isInvalid(){
@@ -87,7 +125,9 @@ public void invalidate() {
     public void shareRealtimeValues(Rtvals rtv) {
         localValRefs.replaceAll(rtv::AddIfNewAndRetrieve);
         valMap.replaceAll((k, v) -> rtv.AddIfNewAndRetrieve(v));
+        mapKeys = null;
         calVal.replaceAll(rtv::AddIfNewAndRetrieve);
+        calEvals.forEach(cal -> cal.share(rtv));
     }
 
     public void removeRealtimeValues(Rtvals rtv) {
@@ -99,6 +139,13 @@ public int size(){
         return localValRefs.size();
     }
 
+    /**
+     * Get the val at the given index, null if that position is empty
+     */
+    public BaseVal getVal(int index) {
+        return localValRefs.get(index);
+    }
+
     public void addEmptyVal(){
         localValRefs.add(null);
     }
@@ -125,38 +172,51 @@ public boolean mapped(){
     public void putAbstractVal(String key, BaseVal val) {
         lastKey=key;
         valMap.put(key, val);
+        mapKeys = null;
     }
     public int mapSize(){
         return valMap.size();
     }
     /* ************************************************************************************************ */
     public boolean apply(String line){
-        var items = line.split(delimiter);
+        // The line isn't split in strings, the tokenizer keeps the index ranges of the items
+        tokenizer.tokenize(line);
+        return apply(tokenizer);
+    }
+
+    /**
+     * Apply a line that was already split, fe. by an earlier step in a path
+     *
+     * @param tokens The tokens of the line, split on the delimiter of this store
+     * @return True if applied
+     */
+    public boolean apply(LineTokenizer tokens){
+        var items = tokens.count();
+        var line = tokens.line();
         boolean dbOk; // Ok to apply db write
         if( map ){
-            if( items.length<2) {
+            if( items<2) {
                 Logger.error( id+" -> Not enough arguments after splitting: "+line);
                 return false;
             }
-            var val = valMap.get(items[0]);
-            if( val != null ){
-                String value = line.substring(items[0].length()+1);
-                val.parseValue(value);
+            int slot = findMapped(tokens);
+            if( slot != -1 ){
+                applyRange(tokens, mapVals[slot], tokens.start(1), line.length()); // Everything after the key is the value
             }else{
-                Logger.warn(id + " -> No mapping found for " + items[0] + ", skipping db insert");
+                Logger.warn(id + " -> No mapping found for " + tokens.text(0) + ", skipping db insert");
                 return false;
             }
-            dbOk = items[0].equalsIgnoreCase(lastKey);
+            dbOk = mapKeys[slot].equalsIgnoreCase(lastKey);
         }else {
-            if (items.length < localValRefs.size()) {
+            if (items < localValRefs.size()) {
                 Logger.warn(id + " -> Can't apply store, not enough data in the line received. -> " + line);
                 return false;
             }
             dbOk = true;
-            for (int a = 0; a < localValRefs.size(); a++) {
-                if (localValRefs.get(a) != null && dbOk) {
-                    dbOk = localValRefs.get(a).parseValue(items[a]);
-                }
+            for (int a = 0; a < localValRefs.size() && dbOk; a++) {
+                var val = localValRefs.get(a);
+                if (val != null)
+                    dbOk = applyRange(tokens, val, tokens.start(a), tokens.end(a));
             }
         }
         // Now try the calvals & db insert?
@@ -167,6 +227,72 @@ public boolean apply(String line){
         return dbOk;
     }
 
+    /**
+     * Look up the first token in the keys of the map
+     *
+     * @param tokens The tokens of the line
+     * @return The index in mapKeys/mapVals or -1 if not found
+     */
+    private int findMapped(LineTokenizer tokens) {
+        if (mapKeys == null)
+            buildMapTable();
+        int mask = mapKeys.length - 1;
+        for (int a = spread(tokens.hash(0)) & mask; mapKeys[a] != null; a = (a + 1) & mask) {
+            if (tokens.matches(0, mapKeys[a], false))
+                return a;
+        }
+        return -1;
+    }
+
+    private void buildMapTable() {
+        int size = Integer.highestOneBit(Math.max(1, valMap.size()) * 2) * 2; // At most half full
+        var keys = new String[size];
+        var vals = new BaseVal[size];
+        valMap.forEach((key, val) -> {
+            int a = spread(key.hashCode()) & (size - 1);
+            while (keys[a] != null)
+                a = (a + 1) & (size - 1);
+            keys[a] = key;
+            vals[a] = val;
+        });
+        mapVals = vals;
+        mapKeys = keys;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Update the val with the part of the line in the given range, real and integer are parsed without creating a
+     * String in between.
+     *
+     * @param tokens The tokens of the line
+     * @param val    The val to update
+     * @param start  Index of the first char
+     * @param end    Index after the last char
+     * @return True if the update succeeded
+     */
+    private static boolean applyRange(LineTokenizer tokens, BaseVal val, int start, int end) {
+        if (val instanceof RealVal rv) {
+            var d = tokens.parseDouble(start, end);
+            if (tokens.failed()) {
+                Logger.error(val.id() + "-> Failed to parse " + tokens.text(start, end));
+                return false;
+            }
+            return rv.update(d);
+        } else if (val instanceof IntegerVal iv) {
+            var i = tokens.parseInt(start, end);
+            if (tokens.failed()) {
+                Logger.error(val.id() + "-> Failed to parse " + tokens.text(start, end));
+                return false;
+            }
+            iv.update(i);
+            return true;
+        }
+        return val.parseValue(tokens.text(start, end));
+    }
+
     private void doDbInserts() {
         if (tis.isEmpty())
             return;
@@ -205,31 +331,18 @@ public boolean apply(ArrayList<Double> vals){
         return true;
     }
     public void doCalVals(){
-        for( int op=0;op<calOps.size();op++ ){
-            var form = calOps.get(op);
-
-            for (BaseVal val : Stream.of(localValRefs, valMap.values()).flatMap(Collection::stream).filter(Objects::nonNull).toList()) {
-                form = form.replace(val.id(), val.asString()); // Replace the id with the value
-                if (!form.contains("_"))// Means all id's were replaced, so stop looking
-                    break;
-            }
-            for (BaseVal val : valMap.values()) {
-                if (val == null)
-                    continue;
-                form = form.replace(val.id(), val.asString()); // Replace the id with the value
-                if (!form.contains("_"))// Means all id's were replaced, so stop looking
-                    break;
-            }
-            var result = MathUtils.noRefCalculation(form, Double.NaN, false);
-            if( !Double.isNaN(result)){
-                if (calVal.get(op) instanceof NumericVal nv) {
-                    nv.update(result);
-                } else {
-                    calVal.get(op).parseValue(String.valueOf(result));
-                }
-            }else{
-                Logger.error("Failed to calculate for "+calVal.get(op).id());
+        for (var cal : calEvals) {
+            if (cal.exact != null) { // Ops without a double variant
+                for (int a = 0; a < cal.inputs.length; a++)
+                    cal.exact[a] = cal.inputs[a].asBigDecimal();
+                cal.eval.eval(cal.exact).ifPresent(bd -> cal.target.update(bd.doubleValue()));
+                continue;
             }
+            for (int a = 0; a < cal.inputs.length; a++)
+                cal.values[a] = cal.inputs[a].asDouble();
+            var result = cal.eval.solve(cal.values); // Errors are logged by the evaluator
+            if (!Double.isNaN(result))
+                cal.target.update(result);
         }
     }
     public void resetValues(){
@@ -255,6 +368,36 @@ public String toString(){
         for( var val : valMap.entrySet()){
             join.add( "   At key "+val.getKey()+" -> "+val.getValue());
         }
+        for (int a = 0; a < calVal.size(); a++)
+            join.add("   Calculated " + calVal.get(a).id() + " = " + calOps.get(a));
         return join.toString();
     }
+
+    /**
+     * A calculated val, with the formula parsed and bound to the vals it uses
+     */
+    private static class CalEval {
+        NumericVal target;
+        final MathEvaluator eval;
+        final NumericVal[] inputs;
+        final double[] values;    // Reused to pass the values to the evaluator
+        final BigDecimal[] exact; // Used instead of values if not all ops have a double variant, null otherwise
+
+        CalEval(NumericVal target, MathEvaluator eval, NumericVal[] inputs) {
+            this.target = target;
+            this.eval = eval;
+            this.inputs = inputs;
+            values = new double[inputs.length];
+            exact = eval.canUseDoubles() ? null : new BigDecimal[inputs.length];
+        }
+
+        /**
+         * Swap the vals for the ones in the global pool
+         */
+        void share(Rtvals rtv) {
+            target = (NumericVal) rtv.AddIfNewAndRetrieve((BaseVal) target);
+            for (int a = 0; a < inputs.length; a++)
+                inputs[a] = (NumericVal) rtv.AddIfNewAndRetrieve((BaseVal) inputs[a]);
+        }
+    }
 }
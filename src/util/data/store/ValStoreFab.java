@@ -3,12 +3,16 @@
 import das.Core;
 import org.tinylog.Logger;
 import util.data.vals.BaseVal;
+import util.data.vals.NumericVal;
 import util.data.vals.Rtvals;
 import util.data.vals.ValFab;
+import util.evalcore.MathFab;
 import util.xml.XMLdigger;
 import worker.Datagram;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Optional;
 
 public class ValStoreFab {
 
@@ -59,6 +63,7 @@ private static boolean reload(ValStore store, XMLdigger dig, String id, Rtvals r
         }
         if (rtvals != null)
             store.shareRealtimeValues(rtvals);
+        compileCalVals(store, rtvals); // Done after sharing, so it binds to the global vals
         return true;
     }
 
@@ -103,7 +108,7 @@ private static boolean digMapBased(XMLdigger dig, String groupID, ValStore store
 
         var vals = dig.currentSubs();
         for (var val : dig.digOut("*")) {
-            if (checkForCalVal(val, calVal, groupID, store) == null)
+            if (checkForCalVal(val, calVal, groupID, store) != null)
                 continue;
 
             var key = val.attr("key", "");
@@ -129,25 +134,62 @@ private static boolean digMapBased(XMLdigger dig, String groupID, ValStore store
 
     private static ArrayList<BaseVal> checkForCalVal(XMLdigger dig, ArrayList<BaseVal> calVal, String groupID, ValStore store) {
 
-        ArrayList<String> calOps = new ArrayList<>();
-
         String o = dig.attr("o", "");
         if (!o.isEmpty()) { // Skip o's
-            calOps.add(o);
-            switch (dig.tagName("")) {
-                case "real" -> ValFab.buildRealVal(dig, groupID, null).ifPresent(calVal::add);
-                case "int", "integer" -> ValFab.buildIntegerVal(dig, groupID, null).ifPresent(calVal::add);
+            Optional<? extends BaseVal> val = switch (dig.tagName("")) {
+                case "real" -> ValFab.buildRealVal(dig, groupID, null);
+                case "int", "integer" -> ValFab.buildIntegerVal(dig, groupID, null);
                 default -> {
                     Logger.error("Can't do calculation on any other than real and int for now");
-                    return null;
+                    yield Optional.empty();
                 }
-            }
-            store.setCalval(calVal, calOps);
+            };
+            if (val.isEmpty())
+                return null;
+            calVal.add(val.get());
+            store.addCalVal(val.get(), o);
             return calVal;
         }
         return null;
     }
 
+    /**
+     * Parse the formulas of the calculated vals once and bind them to the vals in the store.
+     * The id's of the vals are replaced with i's, so applying a line only needs to read the values.
+     *
+     * @param store  The store with the calculated vals
+     * @param rtvals The global pool, used for {} references in the formula (can be null)
+     */
+    private static void compileCalVals(ValStore store, Rtvals rtvals) {
+        var calVals = store.getCalVals();
+        if (calVals.isEmpty())
+            return;
+
+        var candidates = store.getNumericVals();
+        // Longest id first, so an id that is part of another one doesn't replace part of it
+        candidates.sort(Comparator.comparingInt((NumericVal v) -> v.id().length()).reversed());
+
+        var calOps = store.getCalOps();
+        for (int a = 0; a < calVals.size(); a++) {
+            var target = (NumericVal) calVals.get(a);
+            var exp = calOps.get(a);
+            var inputs = new ArrayList<NumericVal>();
+            for (var val : candidates) {
+                if (val != target && exp.contains(val.id())) {
+                    exp = exp.replace(val.id(), "i" + inputs.size());
+                    inputs.add(val);
+                }
+            }
+            var eval = MathFab.parseExpression(exp, rtvals);
+            if (eval.isInValid()) {
+                Logger.error(store.id() + " -> Failed to parse the calculation for " + target.id() + ": " + calOps.get(a));
+                continue;
+            }
+            eval.setId(target.id());
+            store.addCalEval(target, eval, inputs.toArray(NumericVal[]::new));
+        }
+    }
+
     private static boolean digIndexBased(XMLdigger dig, String groupID, ValStore store) {
         ArrayList<BaseVal> rtvals = new ArrayList<>();
         for (var val : dig.digOut("*")) {
@@ -0,0 +1,62 @@
+package util.data.vals;
+
+import java.math.BigDecimal;
+
+/**
+ * Read only val that gives a stat over the history of another val, fe. {sensor_temp:avg:10m}.
+ * The stat is calculated from the ring buffer each time the value is requested.
+ */
+public class HistoryStatVal extends BaseVal implements NumericVal {
+    private final ValHistory history;
+    private final ValHistory.Stat stat;
+    private final long period;
+
+    public HistoryStatVal(BaseVal source, String suffix, ValHistory history, ValHistory.Stat stat, long period) {
+        super(source.group(), source.name() + ":" + suffix, source.unit());
+        this.history = history;
+        this.stat = stat;
+        this.period = period;
+    }
+
+    public boolean update(double value) {
+        return false; // Can't be updated, value comes from the history
+    }
+
+    public boolean update(int value) {
+        return false;
+    }
+
+    @Override
+    public void resetValue() {
+    }
+
+    @Override
+    public boolean parseValue(String value) {
+        return false;
+    }
+
+    @Override
+    public void triggerUpdate() {
+    }
+
+    @Override
+    public double asDouble() {
+        return history.reduce(stat, period);
+    }
+
+    @Override
+    public int asInteger() {
+        return (int) Math.round(asDouble());
+    }
+
+    @Override
+    public BigDecimal asBigDecimal() {
+        var d = asDouble();
+        return Double.isNaN(d) ? null : BigDecimal.valueOf(d);
+    }
+
+    @Override
+    public String asString() {
+        return String.valueOf(asDouble());
+    }
+}
@@ -18,6 +18,7 @@ public class IntegerVal extends BaseVal implements NumericVal {
     ConditionBlock postCheck = NoOpBlock.INSTANCE;
     boolean ignorePost = true;
     MathEvalForVal math = new MathEvaluatorDummy();
+    ValHistory history; // Null unless history is enabled
 
     public IntegerVal(String group, String name, String unit) {
         super(group, name, unit);
@@ -48,6 +49,8 @@ public boolean update(int value) {
             var post = postCheck.start(value, this.value, res);
             if (ignorePost || post) {
                 this.value = res;
+                if (history != null)
+                    history.add(res);
                 return true;
             }
         }
@@ -93,6 +96,20 @@ public void setPostCheck(ConditionBlock post, boolean ignore) {
     public void setMath(MathEvalForVal bin) {
         math = bin;
     }
+
+    /**
+     * Keep the last updates in a ring buffer with the given depth
+     *
+     * @param depth The amount of updates to keep
+     */
+    public void enableHistory(int depth) {
+        history = new ValHistory(depth);
+    }
+
+    @Override
+    public ValHistory history() {
+        return history;
+    }
     @Override
     public double asDouble() {
         return value();
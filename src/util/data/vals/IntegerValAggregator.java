@@ -2,6 +2,7 @@
 
 import org.tinylog.Logger;
 import util.data.procs.IntegerArrayToInteger;
+import util.data.procs.WindowReducer;
 
 import java.util.Arrays;
 import java.util.stream.IntStream;
@@ -15,6 +16,7 @@ public class IntegerValAggregator extends IntegerVal {
     // DoubleBinaryOperator to apply a logic to update the value, default is average
     IntegerArrayToInteger reducer = (window) -> IntStream.of(window).max().orElse(defValue);
     // Replace with more logic if needed
+    WindowReducer incremental; // Used instead of the reducer if not null
 
     public IntegerValAggregator(String group, String name, String unit, IntegerArrayToInteger reducer, int windowSize) {
         super(group, name, unit);
@@ -25,16 +27,39 @@ public IntegerValAggregator(String group, String name, String unit, IntegerArray
         Arrays.fill(window, defValue);
     }
 
+    /**
+     * Set the reducer that is updated with each value instead of applying the regular one on the full window
+     *
+     * @param incremental The reducer, null to keep using the regular one
+     */
+    public void setIncremental(WindowReducer incremental) {
+        this.incremental = incremental;
+        if (incremental == null)
+            return;
+        incremental.reset();
+        int count = filled ? windowSize : currentIndex;
+        int start = filled ? currentIndex : 0;
+        for (int a = 0; a < count; a++)
+            incremental.add(window[(start + a) % windowSize]);
+    }
+
     public boolean update(int value) {
+        if (incremental != null) { // Ints stay exact, so no rebuild needed
+            if (filled)
+                incremental.remove(window[currentIndex]);
+            incremental.add(value);
+        }
         window[currentIndex] = value;
         currentIndex = (currentIndex + 1) % windowSize;
-        Logger.info("Added val to aggregator");
+        Logger.debug("Added val to aggregator");
         if (currentIndex == 0)
             filled = true;
         return false;
     }
 
     public int value() {
+        if (incremental != null)
+            return (int) incremental.value();
         return reducer.apply(filled ? window : Arrays.copyOf(window, currentIndex));
     }
 
@@ -43,6 +68,8 @@ public void resetValue() {
         Arrays.fill(window, defValue);
         currentIndex = 0;
         filled = false;
+        if (incremental != null)
+            incremental.reset();
     }
 
     @Override
@@ -59,4 +59,9 @@ public void addUnderling(NumericVal underling) {
     public NumericVal[] getDerived() {
         return Arrays.copyOfRange(underlings, 1, underlings.length);
     }
+
+    @Override
+    public ValHistory history() {
+        return host.history();
+    }
 }
@@ -32,4 +32,8 @@ default void setMath(MathEvalForVal math) {
     default String getExtraInfo() {
         return "";
     }
+
+    default ValHistory history() {
+        return null; // Only vals with history enabled have one
+    }
 }
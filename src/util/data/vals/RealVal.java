@@ -17,6 +17,7 @@ public class RealVal extends BaseVal implements NumericVal {
     ConditionBlock postCheck = NoOpBlock.INSTANCE;
     boolean ignorePost = true;
     MathEvalForVal math = new MathEvaluatorDummy();
+    ValHistory history; // Null unless history is enabled
 
     public RealVal(String group, String name, String unit) {
         super(group, name, unit);
@@ -33,6 +34,8 @@ public boolean update(double value) {
             var post = postCheck.start(value, this.value, res);
             if (ignorePost || post) {
                 this.value = res;
+                if (history != null)
+                    history.add(res);
                 return true;
             }
         }
@@ -59,6 +62,20 @@ public void triggerUpdate() {
     public void setMath(MathEvalForVal bin) {
         math = bin;
     }
+
+    /**
+     * Keep the last updates in a ring buffer with the given depth
+     *
+     * @param depth The amount of updates to keep
+     */
+    public void enableHistory(int depth) {
+        history = new ValHistory(depth);
+    }
+
+    @Override
+    public ValHistory history() {
+        return history;
+    }
     public double value() {
         return value;
     }
@@ -1,6 +1,7 @@
 package util.data.vals;
 
 import util.data.procs.DoubleArrayToDouble;
+import util.data.procs.WindowReducer;
 import util.math.MathUtils;
 
 import java.util.Arrays;
@@ -16,6 +17,8 @@ public class RealValAggregator extends RealVal {
     // DoubleBinaryOperator to apply a logic to update the value, default is average
     DoubleArrayToDouble reducer = (window) -> DoubleStream.of(window).average().orElse(defValue);
     // Replace with more logic if needed
+    WindowReducer incremental; // Used instead of the reducer if not null
+    private int sinceRebuild = 0;
 
     public RealValAggregator(String group, String name, String unit, DoubleArrayToDouble reducer, int windowSize) {
         super(group, name, unit);
@@ -29,17 +32,36 @@ public RealValAggregator(String group, String name, String unit, DoubleArrayToDo
     public void setScale(int scale) {
         this.scale = scale;
     }
+
+    /**
+     * Set the reducer that is updated with each value instead of applying the regular one on the full window
+     *
+     * @param incremental The reducer, null to keep using the regular one
+     */
+    public void setIncremental(WindowReducer incremental) {
+        this.incremental = incremental;
+        rebuildIncremental();
+    }
+
     public boolean update(double value) {
+        if (incremental != null) {
+            if (filled)
+                incremental.remove(window[currentIndex]);
+            incremental.add(value);
+        }
         window[currentIndex] = value;
         currentIndex = (currentIndex + 1) % windowSize;
 
         if (currentIndex == 0)
             filled = true;
+        if (incremental != null && incremental.drifts() && ++sinceRebuild >= windowSize * 64)
+            rebuildIncremental(); // Get rid of the accumulated rounding errors
         return false;
     }
 
     public double value() {
-        var res = reducer.apply(filled ? window : Arrays.copyOf(window, currentIndex));
+        var res = incremental != null ? incremental.value()
+                : reducer.apply(filled ? window : Arrays.copyOf(window, currentIndex));
         if (scale == -1)
             return res;
         return MathUtils.roundDouble(res, scale);
@@ -50,6 +72,25 @@ public void resetValue() {
         Arrays.fill(window, defValue);
         currentIndex = 0;
         filled = false;
+        if (incremental != null)
+            incremental.reset();
+    }
+
+    /**
+     * Feed the current window to the incremental reducer again, from oldest to newest
+     */
+    private void rebuildIncremental() {
+        sinceRebuild = 0;
+        if (incremental == null)
+            return;
+        incremental.reset();
+        if (filled) {
+            for (int a = 0; a < windowSize; a++)
+                incremental.add(window[(currentIndex + a) % windowSize]);
+        } else {
+            for (int a = 0; a < currentIndex; a++)
+                incremental.add(window[a]);
+        }
     }
 
     @Override
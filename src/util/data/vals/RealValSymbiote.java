@@ -60,4 +60,9 @@ public RealVal[] getDerived() {
     public String getExtraInfo() {
         return underlings[0].getExtraInfo();
     }
+
+    @Override
+    public ValHistory history() {
+        return underlings[0].history();
+    }
 }
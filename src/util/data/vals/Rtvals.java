@@ -269,6 +269,37 @@ public Optional<NumericVal> getNumericalVal(String id) {
                 .filter(Objects::nonNull)  // Filter out any null results
                 .findFirst();  // Return the first non-null value (if any)
     }
+    /**
+     * Get a read only val that gives a stat over the history of a numeric val.
+     * The reference has the format id:stat:period fe. sensor_temp:avg:10m, the period can be omitted to use the full
+     * history.
+     *
+     * @param ref The reference to the val, stat and period
+     * @return An optional of the val, empty if the val wasn't found, has no history or the reference is invalid
+     */
+    public Optional<HistoryStatVal> getHistoryStat(String ref) {
+        var parts = ref.split(":");
+        if (parts.length < 2 || parts.length > 3)
+            return Optional.empty();
+        var nvOpt = getNumericalVal(parts[0]);
+        if (nvOpt.isEmpty() || nvOpt.get().history() == null) {
+            Logger.error("No numeric val with history found for " + ref);
+            return Optional.empty();
+        }
+        var stat = ValHistory.parseStat(parts[1]);
+        if (stat == null) {
+            Logger.error("Unknown history stat in " + ref + ", options are min,max,avg,sum,count,first,last");
+            return Optional.empty();
+        }
+        long period = parts.length == 3 ? TimeTools.parsePeriodStringToMillis(parts[2]) : 0;
+        if (period < 0) {
+            Logger.error("Invalid period in " + ref);
+            return Optional.empty();
+        }
+        var val = (BaseVal) nvOpt.get();
+        return Optional.of(new HistoryStatVal(val, ref.substring(parts[0].length() + 1), nvOpt.get().history(), stat, period));
+    }
+
     /**
      * Look through all the vals for one that matches the id
      *
@@ -482,15 +513,30 @@ public String replyToNumericalCmd(String cmd, String args) {
             if (args.equalsIgnoreCase("?")) {
                 if (args.startsWith("i"))
                     return "iv:update,id,value -> Update an existing int, do nothing if not found";
-                return "rv:update,id,value -> Update an existing real, do nothing if not found";
+                return "rv:update,id,value -> Update an existing real, do nothing if not found\r\n"
+                        + "rv:history,id,period -> Get count,min,max,avg,first and last of the updates in the period fe. 10m\r\n"
+                        + "rv:history,id,amount -> Get the last amount of updates with their timestamp";
             }
             return "! Not enough arguments";
         }
-
+        // Both cmd,id and the older id,cmd are accepted, the rest works with id,cmd
+        if (isNumSubCmd(cmds[0]) && !isNumSubCmd(cmds[1])) {
+            var sub = cmds[0];
+            cmds[0] = cmds[1];
+            cmds[1] = sub;
+        }
         return switch (cmds[1]) {
             case "update", "def" -> doUpdateNumCmd(cmd, cmds);
             case "new" -> doNewNumCmd(cmd, cmds);
-            default -> "! No such subcommand in " + cmd + ": " + cmds[0];
+            case "history" -> doHistoryCmd(cmd, cmds);
+            default -> "! No such subcommand in " + cmd + ": " + cmds[1];
+        };
+    }
+
+    private static boolean isNumSubCmd(String sub) {
+        return switch (sub) {
+            case "update", "def", "new", "history" -> true;
+            default -> false;
         };
     }
 
@@ -518,6 +564,27 @@ private String doUpdateNumCmd(String cmd, String[] args) {
         return "! " + val.id() + " not updated, check failed.";
     }
 
+    private String doHistoryCmd(String cmd, String[] args) {
+        if (args.length < 3)
+            return "! Not enough arguments, " + cmd + ":history,id,period or " + cmd + ":history,id,amount";
+
+        var nvOpt = cmd.startsWith("r") ? getRealVal(args[0]).map(NumericVal.class::cast)
+                : getIntegerVal(args[0]).map(NumericVal.class::cast);
+        if (nvOpt.isEmpty())
+            return "! No such " + (cmd.startsWith("r") ? "real" : "int") + " yet";
+        var history = nvOpt.get().history();
+        if (history == null)
+            return "! No history kept for " + args[0] + ", add the history attribute with the depth";
+
+        if (args[2].matches("\\d+")) // Only digits, so the last x updates
+            return history.getLast(Integer.parseInt(args[2]));
+        var period = TimeTools.parsePeriodStringToMillis(args[2]);
+        if (period <= 0)
+            return "! Invalid period given: " + args[2];
+        return args[0] + " over " + args[2] + " -> " + history.getSummary(period)
+                + " (" + history.size() + "/" + history.depth() + " in buffer)";
+    }
+
     private String doNewNumCmd(String cmd, String[] cmds) {
 
         // Split in group & name
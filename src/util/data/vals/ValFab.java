@@ -87,6 +87,7 @@ public static Optional<RealVal> buildRealVal(XMLdigger dig, String altGroup, Rtv
                     return Optional.empty();
                 var scale = dig.attr("scale", -1);
                 mathEval.setScale(scale);
+                mathEval.applyPrecision(dig.attr("precision", "exact"), rv.id());
                 rv.setMath(MathFab.stripForValIfPossible(mathEval));
             } else if (dig.hasAttr("builtin")) {
                 rv.setMath(Builtin.getDoubleFunction(dig.attr("builtin", ""), dig.attr("scale", -1)));
@@ -94,12 +95,14 @@ public static Optional<RealVal> buildRealVal(XMLdigger dig, String altGroup, Rtv
         } else {
             var reducer = Reducer.getDoubleReducer(dig.attr("reducer", "avg"), def, window);
             var ra = new RealValAggregator(base.group, base.name, base.unit, reducer, window);
+            ra.setIncremental(Reducer.getDoubleWindowReducer(dig.attr("reducer", "avg"), def, window));
             ra.setScale(dig.attr("scale", -1));
             Logger.info("Building RealValAggregator " + ra.id());
             rv = ra;
         }
         rv.defValue(def);
         rv.update(def);
+        digHistory(dig, rv);
         return Optional.of(rv);
     }
 
@@ -177,14 +180,37 @@ public static Optional<IntegerVal> buildIntegerVal(XMLdigger dig, String altGrou
             }
         } else {
             var reducer = Reducer.getIntegerReducer(dig.attr("reducer", "avg"), def, windowSize);
-            iv = new IntegerValAggregator(base.group, base.name, base.unit, reducer, windowSize);
+            var ia = new IntegerValAggregator(base.group, base.name, base.unit, reducer, windowSize);
+            ia.setIncremental(Reducer.getIntegerWindowReducer(dig.attr("reducer", "avg"), def, windowSize));
+            iv = ia;
         }
         iv.defValue(def);
         iv.update(def);
+        digHistory(dig, iv);
         return Optional.of(iv);
     }
 
 
+    /**
+     * Check if the val should keep a history of the updates, the depth is given with the history attribute.
+     * Aggregators aren't supported because their value is only determined when requested.
+     *
+     * @param dig The digger pointing to the val node
+     * @param nv  The val to enable the history for
+     */
+    private static void digHistory(XMLdigger dig, NumericVal nv) {
+        var depth = dig.attr("history", 0);
+        if (depth <= 0)
+            return;
+        if (nv instanceof RealValAggregator || nv instanceof IntegerValAggregator) {
+            Logger.warn(nv.id() + " -> History isn't supported in combination with a window, ignored.");
+        } else if (nv instanceof RealVal rv) {
+            rv.enableHistory(depth);
+        } else if (nv instanceof IntegerVal iv) {
+            iv.enableHistory(depth);
+        }
+    }
+
     public static Map<String, FlagVal> digFlagVals(XMLdigger dig, String groupName, Rtvals rtvals) {
         return dig.peekOut("flag").stream()
                 .map(rtval -> buildFlagVal(XMLdigger.goIn(rtval), groupName, rtvals).orElse(null))
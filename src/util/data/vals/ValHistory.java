@@ -0,0 +1,177 @@
+package util.data.vals;
+
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size ring buffer with the timestamped updates of a numeric val, kept in primitive arrays so adding a sample
+ * doesn't allocate. Once full, the oldest sample is overwritten.
+ * Written by the thread(s) updating the val and read by commands and tasks. Adding is lock free, a writer claims an
+ * index and publishes the slot with a sequence number. A reader checks that number before and after reading a slot,
+ * so a sample that is being overwritten is never mixed up with the new one.
+ */
+public class ValHistory {
+
+    public enum Stat {MIN, MAX, AVG, SUM, COUNT, FIRST, LAST}
+
+    private final long[] times;
+    private final double[] values;
+    private final AtomicLongArray sequences; // Per slot, index+1 of the sample in it or 0 while being written
+    private final AtomicLong next = new AtomicLong(); // Index of the next sample
+    private volatile long start = 0;                  // Index of the oldest sample after a clear
+
+    public ValHistory(int depth) {
+        times = new long[depth];
+        values = new double[depth];
+        sequences = new AtomicLongArray(depth);
+    }
+
+    /**
+     * Convert the text used in commands or references to the stat
+     *
+     * @param stat The stat as text fe. avg, average, min
+     * @return The stat or null if not valid
+     */
+    public static Stat parseStat(String stat) {
+        return switch (stat.toLowerCase()) {
+            case "min" -> Stat.MIN;
+            case "max" -> Stat.MAX;
+            case "avg", "average", "mean" -> Stat.AVG;
+            case "sum" -> Stat.SUM;
+            case "count", "cnt" -> Stat.COUNT;
+            case "first", "oldest" -> Stat.FIRST;
+            case "last", "newest" -> Stat.LAST;
+            default -> null;
+        };
+    }
+
+    public int depth() {
+        return values.length;
+    }
+
+    public int size() {
+        return (int) Math.min(values.length, next.get() - start);
+    }
+
+    public void add(double value) {
+        add(System.currentTimeMillis(), value);
+    }
+
+    public void add(long timestamp, double value) {
+        long index = next.getAndIncrement();
+        int slot = (int) (index % values.length);
+        sequences.set(slot, 0); // Readers skip it while it's written
+        VarHandle.storeStoreFence();
+        times[slot] = timestamp;
+        values[slot] = value;
+        sequences.set(slot, index + 1);
+    }
+
+    public void clear() {
+        start = next.get();
+    }
+
+    /* Index of the oldest sample that can still be in the buffer */
+    private long oldest(long newest) {
+        return Math.max(start, newest - values.length + 1);
+    }
+
+    /**
+     * Calculate a stat over the samples received in the given period, NaN values are skipped
+     *
+     * @param stat   The stat to calculate
+     * @param period The period in millis to look back from now, 0 or less means everything in the buffer
+     * @return The result or NaN if no samples in the period (count gives 0)
+     */
+    public double reduce(Stat stat, long period) {
+        long since = period <= 0 ? Long.MIN_VALUE : System.currentTimeMillis() - period;
+        double min = Double.NaN, max = Double.NaN, sum = 0, first = Double.NaN, last = Double.NaN;
+        int count = 0;
+        // Walk from newest to oldest, stop at the first one outside the period or that was overwritten meanwhile
+        long newest = next.get() - 1;
+        for (long index = newest; index >= oldest(newest); index--) {
+            int slot = (int) (index % values.length);
+            long seq = sequences.get(slot);
+            if (seq < index + 1) // Still being written
+                continue;
+            if (seq > index + 1) // Overwritten already, so are the older ones
+                break;
+            long time = times[slot];
+            var value = values[slot];
+            VarHandle.loadLoadFence();
+            if (sequences.get(slot) != seq) // Overwritten while reading, so are the older ones
+                break;
+            if (time < since)
+                break;
+            if (Double.isNaN(value))
+                continue;
+            if (count == 0) {
+                last = value;
+                min = value;
+                max = value;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            first = value;
+            sum += value;
+            count++;
+        }
+        return switch (stat) {
+            case MIN -> min;
+            case MAX -> max;
+            case AVG -> count == 0 ? Double.NaN : sum / count;
+            case SUM -> count == 0 ? Double.NaN : sum;
+            case COUNT -> count;
+            case FIRST -> first;
+            case LAST -> last;
+        };
+    }
+
+    /**
+     * Get a summary of the samples in the given period
+     *
+     * @param period The period in millis to look back from now, 0 or less means everything in the buffer
+     * @return Line with count, min, max, avg, first and last
+     */
+    public String getSummary(long period) {
+        var count = (int) reduce(Stat.COUNT, period);
+        if (count == 0)
+            return "No samples in that period";
+        return String.format(Locale.US, "count=%d, min=%s, max=%s, avg=%s, first=%s, last=%s", count,
+                reduce(Stat.MIN, period), reduce(Stat.MAX, period), reduce(Stat.AVG, period),
+                reduce(Stat.FIRST, period), reduce(Stat.LAST, period));
+    }
+
+    /**
+     * Get the newest samples with their timestamp, newest first
+     *
+     * @param amount The maximum amount to return
+     * @return One line per sample in the format 'timestamp -> value'
+     */
+    public String getLast(int amount) {
+        var join = new StringBuilder();
+        long newest = next.get() - 1;
+        for (long index = newest; index >= oldest(newest) && amount > 0; index--) {
+            int slot = (int) (index % values.length);
+            long seq = sequences.get(slot);
+            if (seq < index + 1) // Still being written
+                continue;
+            if (seq > index + 1) // Overwritten already, so are the older ones
+                break;
+            long time = times[slot];
+            var value = values[slot];
+            VarHandle.loadLoadFence();
+            if (sequences.get(slot) != seq) // Overwritten while reading, so are the older ones
+                break;
+            join.append(Instant.ofEpochMilli(time)).append(" -> ").append(value).append("\r\n");
+            amount--;
+        }
+        if (join.isEmpty())
+            return "No samples yet";
+        return join.toString().trim();
+    }
+}
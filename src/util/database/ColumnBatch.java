@@ -0,0 +1,316 @@
+package util.database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.BiConsumer;
+
+/**
+ * Buffer for the records of a prepared statement, stored per column in primitive arrays so numbers are bound with
+ * setInt/setLong/setDouble instead of setObject. The arrays are kept after a flush, so a batch of the same size
+ * doesn't allocate again. Anything that isn't a number is kept as object, timestamps are converted when bound.
+ * Not thread safe, the PrepStatement takes care of that.
+ */
+class ColumnBatch {
+    /* Kind of value in a cell */
+    private static final byte NULL = 0, INT = 1, LONG = 2, DOUBLE = 3, TIMESTAMP = 4, TEXT = 5, OBJECT = 6;
+
+    private int width = 0;  // Amount of columns
+    private int size = 0;   // Amount of records
+    private long[][] values = new long[0][];     // Numbers, doubles as raw bits
+    private byte[][] kinds = new byte[0][];
+    private Object[][] objects = new Object[0][]; // Only created for columns that contain something else than numbers
+
+    public int size() {
+        return size;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public void clear() {
+        for (var col : objects) {
+            if (col != null)
+                Arrays.fill(col, 0, size, null); // Don't keep the strings alive
+        }
+        size = 0;
+    }
+
+    /**
+     * Add a record to the batch
+     *
+     * @param record The values, one per column
+     */
+    public void append(Object[] record) {
+        if (record.length == 0)
+            return;
+        beginRecord(record.length);
+        for (int col = 0; col < width; col++)
+            put(col, record[col]);
+        endRecord();
+    }
+
+    /**
+     * Make room for a record that is written one column at a time with the put methods.
+     * The record is only part of the batch once endRecord is called, so it can be abandoned halfway.
+     *
+     * @param width The amount of columns in the record
+     */
+    public void beginRecord(int width) {
+        if (width != this.width)
+            setWidth(width);
+        if (size == kinds[0].length)
+            grow();
+    }
+
+    public void endRecord() {
+        size++;
+    }
+
+    public void putInt(int col, int value) {
+        set(col, INT, value);
+    }
+
+    public void putLong(int col, long value) {
+        set(col, LONG, value);
+    }
+
+    public void putDouble(int col, double value) {
+        set(col, DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    public void putNull(int col) {
+        set(col, NULL, 0);
+    }
+
+    public void put(int col, Object value) {
+        if (value instanceof Double d) {
+            putDouble(col, d);
+        } else if (value instanceof Integer i) {
+            putInt(col, i);
+        } else if (value instanceof Long l) {
+            putLong(col, l);
+        } else if (value == null) {
+            putNull(col);
+        } else {
+            set(col, value instanceof OffsetDateTime ? TIMESTAMP : value instanceof String ? TEXT : OBJECT, 0);
+            if (objects[col] == null)
+                objects[col] = new Object[kinds[col].length];
+            objects[col][size] = value;
+        }
+    }
+
+    private void set(int col, byte kind, long value) {
+        kinds[col][size] = kind;
+        values[col][size] = value;
+    }
+
+    /**
+     * Copy a single record from another batch
+     *
+     * @param src The batch to copy from
+     * @param row The index of the record in that batch
+     */
+    public void appendRow(ColumnBatch src, int row) {
+        if (src.width == 0)
+            return;
+        beginRecord(src.width);
+        for (int col = 0; col < width; col++) {
+            var kind = src.kinds[col][row];
+            set(col, kind, src.values[col][row]);
+            if (kind >= TIMESTAMP) {
+                if (objects[col] == null)
+                    objects[col] = new Object[kinds[col].length];
+                objects[col][size] = src.objects[col][row];
+            }
+        }
+        endRecord();
+    }
+
+    public void appendAll(ColumnBatch other) {
+        appendRange(other, 0, other.size);
+    }
+
+    public void appendRange(ColumnBatch other, int from, int to) {
+        for (int row = from; row < to; row++)
+            appendRow(other, row);
+    }
+
+    /**
+     * Remove the oldest records, the others are moved to the front
+     *
+     * @param amount The amount of records to remove
+     */
+    public void removeFirst(int amount) {
+        amount = Math.min(amount, size);
+        int left = size - amount;
+        for (int col = 0; col < width; col++) {
+            System.arraycopy(values[col], amount, values[col], 0, left);
+            System.arraycopy(kinds[col], amount, kinds[col], 0, left);
+            if (objects[col] != null) {
+                System.arraycopy(objects[col], amount, objects[col], 0, left);
+                Arrays.fill(objects[col], left, size, null);
+            }
+        }
+        size = left;
+    }
+
+    private void setWidth(int width) {
+        if (size != 0) // Shouldn't happen, all records of a prep have the same amount of columns
+            throw new IllegalArgumentException("Record with " + width + " values added to batch with " + this.width + " columns");
+        if (width > values.length) { // Keep the columns that exist, so switching between widths doesn't allocate
+            int capacity = values.length == 0 ? 16 : kinds[0].length;
+            int old = values.length;
+            values = Arrays.copyOf(values, width);
+            kinds = Arrays.copyOf(kinds, width);
+            objects = Arrays.copyOf(objects, width);
+            for (int col = old; col < width; col++) {
+                values[col] = new long[capacity];
+                kinds[col] = new byte[capacity];
+            }
+        }
+        this.width = width;
+    }
+
+    private void grow() {
+        int capacity = kinds[0].length * 2;
+        for (int col = 0; col < values.length; col++) {
+            values[col] = Arrays.copyOf(values[col], capacity);
+            kinds[col] = Arrays.copyOf(kinds[col], capacity);
+            if (objects[col] != null)
+                objects[col] = Arrays.copyOf(objects[col], capacity);
+        }
+    }
+
+    /**
+     * Get the value of a cell as the object that was added
+     */
+    private Object get(int col, int row) {
+        long value = values[col][row];
+        return switch (kinds[col][row]) {
+            case NULL -> null;
+            case INT -> (int) value;
+            case LONG -> value;
+            case DOUBLE -> Double.longBitsToDouble(value);
+            default -> objects[col][row];
+        };
+    }
+
+    /**
+     * Convert the batch back to records, used when they need to be dumped, spooled or requeued
+     *
+     * @return The records in the order they were added
+     */
+    public ArrayList<Object[]> toRows() {
+        var rows = new ArrayList<Object[]>(size);
+        for (int row = 0; row < size; row++) {
+            var record = new Object[width];
+            for (int col = 0; col < width; col++)
+                record[col] = get(col, row);
+            rows.add(record);
+        }
+        return rows;
+    }
+
+    /**
+     * Bind all the records to the statement and add each to the batch of it
+     *
+     * @param ps The statement to fill
+     * @return The amount of records added
+     */
+    public int bind(PreparedStatement ps) throws SQLException {
+        return bind(ps, 0, size, 1);
+    }
+
+    /**
+     * Bind a range of the records to the statement, with one or more records per statement (multi row insert)
+     *
+     * @param ps           The statement to fill
+     * @param from         The index of the first record
+     * @param to           The index after the last record, the range should be a multiple of perStatement
+     * @param perStatement The amount of records in a single execution of the statement
+     * @return The amount of records added
+     */
+    public int bind(PreparedStatement ps, int from, int to, int perStatement) throws SQLException {
+        int index = 1;
+        for (int row = from; row < to; row++) {
+            bindRow(ps, row, index);
+            index += width;
+            if ((row - from + 1) % perStatement == 0) {
+                ps.addBatch();
+                index = 1;
+            }
+        }
+        return to - from;
+    }
+
+    /**
+     * Bind each record to the statement on its own, a record that can't be bound is left out instead of failing all
+     *
+     * @param ps     The statement to fill
+     * @param failed Gets the index of each record that couldn't be bound and the reason
+     * @return The amount of records added
+     * @throws SQLException If the statement couldn't be cleared after a failed record
+     */
+    public int bindEach(PreparedStatement ps, BiConsumer<Integer, Exception> failed) throws SQLException {
+        int bound = 0;
+        for (int row = 0; row < size; row++) {
+            try {
+                bindRow(ps, row, 1);
+                ps.addBatch();
+                bound++;
+            } catch (SQLException | RuntimeException e) {
+                ps.clearParameters();
+                failed.accept(row, e);
+            }
+        }
+        return bound;
+    }
+
+    private void bindRow(PreparedStatement ps, int row, int index) throws SQLException {
+        for (int col = 0; col < width; col++) {
+            long value = values[col][row];
+            switch (kinds[col][row]) {
+                case INT -> ps.setInt(index, (int) value);
+                case LONG -> ps.setLong(index, value);
+                case DOUBLE -> ps.setDouble(index, Double.longBitsToDouble(value));
+                case TIMESTAMP -> ps.setTimestamp(index, SqlTable.asTimestamp((OffsetDateTime) objects[col][row]));
+                case TEXT -> ps.setString(index, (String) objects[col][row]);
+                case NULL -> ps.setObject(index, null);
+                default -> ps.setObject(index, objects[col][row]);
+            }
+            index++;
+        }
+    }
+
+    /**
+     * Remove the given records, the others keep their order
+     *
+     * @param rows The indexes of the records to remove
+     */
+    public void removeRows(BitSet rows) {
+        int to = 0;
+        for (int row = 0; row < size; row++) {
+            if (rows.get(row))
+                continue;
+            if (to != row) {
+                for (int col = 0; col < width; col++) {
+                    values[col][to] = values[col][row];
+                    kinds[col][to] = kinds[col][row];
+                    if (objects[col] != null)
+                        objects[col][to] = objects[col][row];
+                }
+            }
+            to++;
+        }
+        for (var col : objects) {
+            if (col != null)
+                Arrays.fill(col, to, size, null);
+        }
+        size = to;
+    }
+}
@@ -9,6 +9,7 @@
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public abstract class Database{
 
@@ -25,6 +26,7 @@
     protected int idleCount = 0; // How many seconds this has been idle
     protected int idleTime = -1; // Amount of seconds before a database is considered idle and the disconnected
     protected long maxInsertAge=3600;   // Max age since last insert before it's considered a problem
+    protected FlushTuner tuner;         // Picks the batch size if the flush mode is adaptive, null if fixed
     protected STATE state = STATE.IDLE; // current state of the database
 
     protected enum STATE {
@@ -63,11 +65,28 @@ protected void readFlushSetup(Element set){
             var dig = XMLdigger.goIn(set);
             maxAge = TimeTools.parsePeriodStringToSeconds( dig.attr("age", "30s") ); // How much time before data is flushed (if not reached batch size)
             maxQueries = dig.attr("batchsize", 30);		 // Minimum amount of queries before a flush unless checks till flush is reached
-            Logger.debug( id+" -> Flush:"+maxAge+"s maxQ:"+maxQueries);
+            tuner = FlushTuner.readFromXml(dig, maxQueries);
+            Logger.debug( id+" -> Flush:"+maxAge+"s maxQ:"+maxQueries+(tuner==null?"":" adaptive"));
         }else{
+            tuner = null;
             Logger.debug( id+" -> No changes requested to default flush/idle values ");
         }
     }
+    /**
+     * Get the amount of records that triggers a flush, this is the batchsize unless the flush mode is adaptive
+     */
+    protected int getFlushTarget(){
+        var t = tuner;
+        return t == null ? maxQueries : t.target();
+    }
+    /**
+     * Get the status of the adaptive flush
+     * @return The status prepended with a space or an empty string if the flush mode isn't adaptive
+     */
+    protected String getFlushStatus(){
+        var t = tuner;
+        return t == null ? "" : " "+t.getStatus();
+    }
     protected long getTimeSinceLastInsert(){
         long prep=Math.max(firstPrepStamp,firstSimpleStamp);
         if(prep==0)
@@ -155,4 +174,30 @@ protected long getTimeSinceLastInsert(){
     public Optional<List<List<Object>>> doSelect(String query ){
         return doSelect(query,false);
     }
+
+    /**
+     * Execute a select query and open a forward only cursor on the result, the cursor should be closed when done
+     * @param query The query to execute
+     * @param fetchSize The amount of rows the driver should fetch at once, 0 to let the driver decide
+     * @return The cursor or an empty optional if the connection or query failed
+     */
+    public abstract Optional<SqlCursor> openCursor(String query, int fetchSize);
+
+    /**
+     * Run a select query and give each row to the consumer as it is read, so the result isn't kept in memory
+     * @param query The query to execute
+     * @param fetchSize The amount of rows the driver should fetch at once, 0 to let the driver decide
+     * @param row The consumer that receives the rows
+     * @return The amount of rows processed or -1 if the query failed
+     */
+    public long doSelect(String query, int fetchSize, Consumer<List<Object>> row ){
+        var cursorOpt = openCursor(query, fetchSize);
+        if (cursorOpt.isEmpty())
+            return -1;
+        try (var cursor = cursorOpt.get()) {
+            for (var record = cursor.next(); record.isPresent(); record = cursor.next())
+                row.accept(record.get());
+            return cursor.getRowCount();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package util.database;
+
+import org.tinylog.Logger;
+import util.tools.TimeTools;
+import util.xml.XMLdigger;
+import util.xml.XMLfab;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the batch size of a database based on how long the executeBatch and commit of earlier flushes took.
+ * - If the recent flushes take longer than the latency budget, the batch size is reduced by a quarter.
+ * - If they take less than half the budget while the batch was full, it grows by an eighth.
+ * Records also don't wait longer than the max wait, so a quiet link doesn't keep them until the flush age passes.
+ */
+class FlushTuner {
+    private static final int HISTORY = 256; // Amount of flushes kept for the percentiles
+    private static final int RECENT = 16;   // Amount of flushes used to decide on the batch size
+
+    private final long budget;   // Max latency of a flush in nanos
+    private final long maxWait;  // Max age of the oldest buffered record in millis
+    private final int minBatch;
+    private final int maxBatch;
+    private volatile int target; // Current batch size
+
+    private final long[] latencies = new long[HISTORY]; // Nanos per flush, circular
+    private final int[] sizes = new int[HISTORY];       // Records per flush, circular
+    private long flushes = 0;
+
+    private FlushTuner(long budget, long maxWait, int minBatch, int maxBatch, int start) {
+        this.budget = budget;
+        this.maxWait = maxWait;
+        this.minBatch = minBatch;
+        this.maxBatch = maxBatch;
+        target = Math.min(maxBatch, Math.max(minBatch, start));
+    }
+
+    /**
+     * Read the adaptive settings from the flush node
+     *
+     * @param dig       Digger pointing to the flush node
+     * @param batchSize The batch size given in the node, used as start value
+     * @return The tuner or null if the mode isn't adaptive
+     */
+    static FlushTuner readFromXml(XMLdigger dig, int batchSize) {
+        if (!dig.attr("mode", "fixed").equalsIgnoreCase("adaptive"))
+            return null;
+        var budget = TimeTools.parsePeriodStringToMillis(dig.attr("latency", "250ms"));
+        var wait = TimeTools.parsePeriodStringToMillis(dig.attr("maxwait", budget + "ms"));
+        int min = Math.max(1, dig.attr("minbatch", 10));
+        int max = Math.max(min, dig.attr("maxbatch", 5000));
+        if (budget <= 0) {
+            Logger.error("Invalid latency budget given for adaptive flush, using 250ms");
+            budget = 250;
+        }
+        return new FlushTuner(budget * 1_000_000, Math.max(1, wait), min, max, batchSize);
+    }
+
+    void writeToXml(XMLfab fab) {
+        fab.attr("mode", "adaptive")
+                .attr("latency", (budget / 1_000_000) + "ms")
+                .attr("maxwait", maxWait + "ms")
+                .attr("minbatch", minBatch)
+                .attr("maxbatch", maxBatch);
+    }
+
+    int target() {
+        return target;
+    }
+
+    int maxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * Check if the buffered records should be flushed
+     *
+     * @param count  The amount of buffered records
+     * @param oldest Timestamp in millis of the oldest buffered record
+     * @return True if either the batch size or the max wait is reached
+     */
+    boolean needsFlush(int count, long oldest) {
+        if (count == 0)
+            return false;
+        return count >= target || System.currentTimeMillis() - oldest >= maxWait;
+    }
+
+    /**
+     * Get the time in millis until the oldest record reaches the max wait
+     */
+    long millisTillDue(long oldest) {
+        return Math.max(0, maxWait - (System.currentTimeMillis() - oldest));
+    }
+
+    /**
+     * Add the result of a flush and adjust the batch size
+     *
+     * @param records The amount of records in the flush
+     * @param nanos   How long the executeBatch and commit took
+     */
+    synchronized void addFlush(int records, long nanos) {
+        int index = (int) (flushes % HISTORY);
+        latencies[index] = nanos;
+        sizes[index] = records;
+        flushes++;
+
+        var recent = percentile(Math.min(RECENT, (int) flushes), 90);
+        if (recent > budget) {
+            target = Math.max(minBatch, target - Math.max(1, target / 4));
+        } else if (recent < budget / 2 && records >= target) { // Only grow if the batch size was the limit
+            target = Math.min(maxBatch, target + Math.max(1, target / 8));
+        }
+    }
+
+    /**
+     * Get a percentile of the latency of the most recent flushes
+     *
+     * @param amount  The amount of flushes to use
+     * @param percent The percentile to get
+     * @return The latency in nanos
+     */
+    private long percentile(int amount, int percent) {
+        if (amount == 0)
+            return 0;
+        var sorted = new long[amount];
+        for (int a = 0; a < amount; a++)
+            sorted[a] = latencies[(int) ((flushes - 1 - a) % HISTORY)];
+        Arrays.sort(sorted);
+        return sorted[Math.min(amount - 1, amount * percent / 100)];
+    }
+
+    /**
+     * Get the current batch size, the latency percentiles and the average flush size
+     *
+     * @return Single line status
+     */
+    synchronized String getStatus() {
+        if (flushes == 0)
+            return "adaptive " + target + " (no flushes yet)";
+        int amount = (int) Math.min(HISTORY, flushes);
+        long total = 0;
+        for (int a = 0; a < amount; a++)
+            total += sizes[a];
+        return "adaptive " + target + " [" + minBatch + "-" + maxBatch + "]"
+                + " avg " + (total / amount) + "/flush"
+                + " p50:" + asMillis(percentile(amount, 50))
+                + " p95:" + asMillis(percentile(amount, 95))
+                + " p99:" + asMillis(percentile(amount, 99))
+                + " budget:" + TimeTools.convertPeriodToString(budget / 1_000_000, TimeUnit.MILLISECONDS);
+    }
+
+    private static String asMillis(long nanos) {
+        return String.format("%.1fms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,106 @@
+package util.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock free queue with multiple producers and a single consumer, used to hand inserts to the writer thread of
+ * a database. Each slot has a reusable single record batch, so a producer writes the values in place instead of
+ * creating a record. Every slot has a sequence number that tells whether it's free for the producer at that position
+ * or ready for the consumer.
+ */
+class InsertRing {
+
+    static class Slot {
+        final ColumnBatch record = new ColumnBatch();
+        SqlTable table; // Null if the producer failed to fill it
+        String prep;
+    }
+
+    private final Slot[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // Next position for a producer
+    private volatile long head = 0;                   // Next position for the consumer, only written by the consumer
+
+    /**
+     * Create a ring
+     *
+     * @param capacity Minimum amount of slots, rounded up to a power of two
+     */
+    InsertRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Slot[size];
+        sequences = new AtomicLongArray(size);
+        for (int a = 0; a < size; a++) {
+            slots[a] = new Slot();
+            sequences.set(a, a);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Claim the next slot, this needs to be followed by a publish of that position
+     *
+     * @return The position or -1 if the ring is full
+     */
+    long claim() {
+        while (true) {
+            long pos = tail.get();
+            long diff = sequences.get((int) pos & mask) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1))
+                    return pos;
+            } else if (diff < 0) { // Slot not yet released by the consumer
+                return -1;
+            }
+            // Other producer claimed it, try again
+        }
+    }
+
+    Slot slot(long pos) {
+        return slots[(int) pos & mask];
+    }
+
+    /**
+     * Make the content of a claimed slot available for the consumer
+     */
+    void publish(long pos) {
+        sequences.set((int) pos & mask, pos + 1);
+    }
+
+    /**
+     * Get the oldest published slot, only to be used by the consumer
+     *
+     * @return The slot or null if none are ready
+     */
+    Slot peek() {
+        long pos = head;
+        if (sequences.get((int) pos & mask) != pos + 1)
+            return null;
+        return slots[(int) pos & mask];
+    }
+
+    /**
+     * Give the slot returned by peek back to the producers
+     */
+    void release() {
+        long pos = head;
+        var slot = slots[(int) pos & mask];
+        slot.table = null;
+        slot.record.clear();
+        sequences.lazySet((int) pos & mask, pos + slots.length);
+        head = pos + 1;
+    }
+
+    /**
+     * Get the amount of claimed slots that weren't released yet
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+}
@@ -16,6 +16,8 @@
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -37,7 +39,7 @@ public class SQLDB extends Database implements TableInsert{
     public enum DBTYPE {UNKNOWN, MSSQL, MYSQL, MARIADB, POSTGRESQL} // Supported types
 
     boolean busySimple =false;   // Busy with the executing the simple queries
-    boolean busyPrepared =false; // Busy with executing the prepared statement queries
+    volatile boolean busyPrepared =false; // Replaying the spool or waiting on a connection to flush
 
     ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1); // Scheduler for queries
     Path workPath;
@@ -45,6 +47,20 @@ public enum DBTYPE {UNKNOWN, MSSQL, MYSQL, MARIADB, POSTGRESQL} // Supported typ
     protected boolean doInserts = true;
     protected int connectionAttempts = 0;
     protected String quotePrefix = "", quoteSuffix = "";
+    private SqlSpool spool;          // Keeps the records on disk while the server can't be reached, null if not used
+    private final HashMap<String, Integer> replayedAhead = new HashMap<>(); // Per table:prep, spooled records that were
+                                                                           // inserted but not acknowledged yet
+    protected int multiRow = 0;       // Records per insert statement, multi row inserts if more than one
+    private volatile List<Lane> lanes = List.of(new Lane(0, scheduler)); // Connections that flush, first one is con
+
+    /* Inserts are handed to a writer thread, so the caller never waits on a lock or the connection */
+    private static final int RING_SIZE = 8192;
+    private static final int MAX_MOVES = 512;            // Max inserts moved per lock of the database
+    private static final long PARK_NANOS = 100_000_000L; // Max time the writer waits before checking again
+    private volatile InsertRing ring;
+    private Thread writer;
+    private volatile boolean writerParked = false;
+    private final AtomicLong ringDrops = new AtomicLong();
 
     protected SQLDB(){
         tableRequest="";
@@ -130,16 +146,24 @@ public String toString(){
         var age = getTimeSinceLastInsert();
         var time = TimeTools.convertPeriodToString(age, TimeUnit.SECONDS);
         var join = new StringJoiner("");
-        if( age > maxInsertAge || getRecordsCount()>maxQueries || insertErrors!=0  || state == STATE.ACCESS_DENIED )
+        if( age > maxInsertAge || getRecordsCount()>getFlushTarget() || insertErrors!=0  || state == STATE.ACCESS_DENIED
+                || (spool != null && spool.needsAttention()) || ringDrops.get() != 0 )
             join.add("!! ");
         join.add(id+" : ");
         join.add(type.toString().toLowerCase()+"@"+getTitle());
         join.add(" -> ");
-        join.add(getRecordsCount()+"/"+maxQueries);
+        join.add(getRecordsCount()+"/"+getFlushTarget());
         join.add(" ["+time+"]");
 
         if( insertErrors!=0)
             join.add( " errors:"+insertErrors);
+        if( ringDrops.get() != 0 )
+            join.add( " dropped:"+ringDrops.get());
+        join.add(getFlushStatus());
+        if( lanes.size() > 1 )
+            join.add(" pool "+lanes.stream().filter(l -> l.busy).count()+"/"+lanes.size()+" flushing");
+        if( spool != null )
+            join.add(" "+spool.getStatus());
 
         if( !isValid(3)) {
             if( state == STATE.ACCESS_DENIED){
@@ -187,9 +211,11 @@ public boolean connect(boolean force) {
                 if (con != null) {
                     if (!con.isValid(2) || force) {
                         con.close();
-                    } else {
+                    } else if (connectLanes()) {
                         state = STATE.HAS_CON;
                         return true;
+                    } else {
+                        return false;
                     }
                 }
             } catch (SQLException e) {
@@ -199,7 +225,7 @@ public boolean connect(boolean force) {
             if (!loadClass(type))
                 return false;
 
-            return attemptConnection();
+            return attemptConnection() && connectLanes();
         }, scheduler).thenAccept(result -> {
             // Callback after task is completed
             if (result) {
@@ -207,8 +233,8 @@ public boolean connect(boolean force) {
                 doOnConnectionMade();
             } else {
                 connectionAttempts++;
-                // Dump after x attempts?
-                if (connectionAttempts % 5 == 0) {
+                // Dump after x attempts? Not needed if the records go to the spool
+                if (spool == null && connectionAttempts % 5 == 0) {
                     tables.values().forEach(t -> t.dumpData("", Paths.storage().resolve("db").resolve(id + "_" + t.getTableName() + ".csv")));
 
                 }
@@ -240,6 +266,21 @@ private boolean attemptConnection() {
         }
         return true;
     }
+    /**
+     * Make sure the other connections of the pool are valid, the main one is handled by connect
+     *
+     * @return True if all of them are connected
+     */
+    private boolean connectLanes() {
+        for (var lane : lanes) {
+            if (!lane.connect()) {
+                state = STATE.NEED_CON;
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected void doOnConnectionMade() {
         connectionAttempts = 0;
         if (!tablesRetrieved) {
@@ -250,8 +291,10 @@ protected void doOnConnectionMade() {
         }
         if (busySimple)
             prepSimple();
-        if (busyPrepared)
-            scheduler.submit(new DoPrepared());
+        if (busyPrepared) { // A flush was requested while there was no connection
+            busyPrepared = false;
+            flushPrepared();
+        }
     }
 
     /**
@@ -280,6 +323,7 @@ public boolean disconnect() {
                 if (con.isClosed()) // if no active connection, just return
                     return false;
                 con.close(); // try closing it
+                lanes.forEach(Lane::close);
                 Logger.info(id+" -> Closed connection");
                 return true;
             } catch (SQLException e) { // Failed to close it somehow
@@ -311,14 +355,15 @@ public boolean isValid(int timeout) {
      * @return Get the amount of bufferd records
      */
     public int getRecordsCount() {
-        return tables.values().stream().mapToInt(SqlTable::getRecordCount).sum() + simpleQueries.size();
+        return getPreparedCount() + simpleQueries.size() + (ring == null ? 0 : ring.size());
     }
     /**
      * Check if there are buffered records
      * @return True if there's at least one buffered record
      */
     public boolean hasRecords() {
-        return !simpleQueries.isEmpty() || tables.values().stream().anyMatch(t -> t.getRecordCount() != 0);
+        return !simpleQueries.isEmpty() || (ring != null && ring.size() != 0)
+                || tables.values().stream().anyMatch(SqlTable::hasRecords);
     }
     /**
      * Get the SQLiteTable associated with the given id
@@ -498,33 +543,31 @@ private void createViews() {
      * @return ArrayList with the data or an empty list if nothing found/something went wrong
      */
     public Optional<List<List<Object>>> doSelect(String query, boolean includeNames ){
+        var data = new ArrayList<List<Object>>();
+        var cursorOpt = openCursor(query, 0);
+        if (cursorOpt.isEmpty())
+            return Optional.empty();
+        try (var cursor = cursorOpt.get()) {
+            if (includeNames)
+                data.add(cursor.getColumnNames());
+            for (var row = cursor.next(); row.isPresent(); row = cursor.next())
+                data.add(row.get());
+        }
+        return Optional.of(data);
+    }
 
+    /**
+     * Execute a select query and open a forward only cursor on the result, the cursor should be closed when done
+     * @param query The query to execute
+     * @param fetchSize The amount of rows the driver should fetch at once, 0 to let the driver decide
+     * @return The cursor or an empty optional if the connection or query failed
+     */
+    public Optional<SqlCursor> openCursor(String query, int fetchSize) {
         if( !isValid(1) && !connect(false) ){
             Logger.error( id+"(db) -> Couldn't connect to database: "+id);
             return Optional.empty();
         }
-        var data = new ArrayList<List<Object>>();
-        try( Statement stmt = con.createStatement() ){
-            ResultSet rs = stmt.executeQuery(query);
-            int cols = rs.getMetaData().getColumnCount();
-            if( includeNames ){
-                var record = new ArrayList<>();
-                for( int a=1;a<cols;a++ ){
-                    record.add(rs.getMetaData().getColumnName(a));
-                }
-                data.add(record);
-            }
-            while( rs.next() ){
-                var record = new ArrayList<>();
-                for( int a=0;a<cols;a++ ){
-                    record.add(rs.getObject(a+1));
-                }
-                data.add( record );
-            }
-        } catch (SQLException e) {
-            Logger.error(id+"(db) -> Error running query: "+query+" -> "+e.getErrorCode());
-        }
-        return Optional.of(data);
+        return SqlCursor.open(id, con, query, fetchSize);
     }
     public Optional<TableInsert> getTableInsert( String tableid ){
         int index = tableid.indexOf(":");
@@ -551,7 +594,7 @@ public void buildStores(Rtvals rtvals) {
                         table.setAllowInsertsFlag(res);
                 });
     }
-    public synchronized boolean insertStore(String[] dbInsert ) {
+    public boolean insertStore(String[] dbInsert ) {
         if (!doInserts)  // Global insert disable
             return true;
 
@@ -571,50 +614,182 @@ public synchronized boolean insertStore(String[] dbInsert ) {
         if (table.insertsNotAllowed()) // Table level disable
             return false;
 
-        if (!table.isReady() && isValid(2)) {
+        if (!table.isReady() && state == STATE.HAS_CON) { // Don't check the connection, this runs on the caller thread
             Logger.error(id+"(db) ->  No such table <"+dbInsert[1]+"> in the database.");
             lastError= "No such table <"+dbInsert[1]+"> in the database.";
             insertErrors++;
             return false;
         }
 
-        if (!hasRecords())
-            firstPrepStamp = Instant.now().toEpochMilli();
-
-        if (table.insertFromStore("")) {
-            if (tables.values().stream().mapToInt(SqlTable::getRecordCount).sum() > maxQueries && isValid(3))
-                flushPrepared();
-            return true;
-        }else{
-            Logger.error(id+"(db) -> Build insert failed for <"+dbInsert[1]+">");
+        long pos = claimSlot();
+        if (pos == -1)
+            return false;
+        boolean ok = false;
+        try {
+            ok = table.insertFromStore("", ring.slot(pos).record); // Read the vals now, before they change again
+        } finally { // Always publish, the writer would wait on this slot forever otherwise
+            publish(pos, ok ? table : null, "");
         }
-        return false;
+        if (!ok)
+            Logger.error(id+"(db) -> Build insert failed for <"+dbInsert[1]+">");
+        return ok;
     }
-    public synchronized boolean fillPrep( String table, String[] data){
-        if (!hasRecords())
-            firstPrepStamp = Instant.now().toEpochMilli();
-
-        if( getTable(table).isEmpty() ){
+    public boolean fillPrep( String table, String[] data){
+        var tableOpt = getTable(table);
+        if( tableOpt.isEmpty() ){
             Logger.error(id+"(db) ->  No such table "+table);
             return false;
         }
-        if( getTable(table).map( t -> !t.isReadFromDB()).orElse(false) ){
+        if( !tableOpt.get().isReadFromDB() ){
             Logger.error(id+"(db) ->  No such table <"+table+"> in the database.");
             return false;
         }
-        if (getTable(table).map(t -> t.parsePrep("",data)).orElse(false)) {
-            if(tables.values().stream().mapToInt(SqlTable::getRecordCount).sum() > maxQueries)
-                flushPrepared();
-            return true;
-        }else{
+        var record = tableOpt.get().parseRecord("", data);
+        if (record == null) {
             Logger.error(id+"(db) -> Build insert failed for "+table);
+            return false;
         }
-        return false;
+        return queueRecord(tableOpt.get(), "", record);
+    }
+
+    /* ******************************************* W R I T E R ************************************************* */
+
+    /**
+     * Start the thread that moves the inserts from the ring to the buffers of the tables, done on the first insert
+     * because the size of the ring depends on the flush settings.
+     */
+    private synchronized void startWriter() {
+        if (ring != null)
+            return;
+        var r = new InsertRing(Math.max(RING_SIZE, Math.max(maxQueries, tuner == null ? 0 : tuner.maxBatch()) * 4));
+        writer = new Thread(this::writeInserts, id + "-inserts");
+        writer.setDaemon(true);
+        ring = r;
+        writer.start();
+    }
+
+    /**
+     * Claim a slot in the ring to write an insert in. The callers are often netty threads, so this never waits, if the
+     * ring is full the insert is dropped and counted.
+     *
+     * @return The position of the slot or -1 if the ring is full
+     */
+    private long claimSlot() {
+        if (ring == null)
+            startWriter();
+        long pos = ring.claim();
+        if (pos == -1) {
+            LockSupport.unpark(writer); // Make sure it's working on it
+            var drops = ringDrops.incrementAndGet();
+            if (LookAndFeel.isNthAttempt((int) Math.min(drops, Integer.MAX_VALUE)))
+                Logger.error(id + "(db) -> Insert queue is full, dropped " + drops + " records so far");
+        }
+        return pos;
+    }
+
+    /**
+     * Hand the slot to the writer thread
+     *
+     * @param pos   The position of the slot
+     * @param table The table the record is for, null if filling the slot failed
+     * @param prep  The id of the prep
+     */
+    private void publish(long pos, SqlTable table, String prep) {
+        var slot = ring.slot(pos);
+        slot.table = table;
+        slot.prep = prep;
+        ring.publish(pos);
+        if (writerParked)
+            LockSupport.unpark(writer);
+    }
+
+    private boolean queueRecord(SqlTable table, String prep, Object[] record) {
+        long pos = claimSlot();
+        if (pos == -1)
+            return false;
+        boolean ok = false;
+        try {
+            ring.slot(pos).record.append(record);
+            ok = true;
+        } finally { // Always publish, the writer would wait on this slot forever otherwise
+            publish(pos, ok ? table : null, prep);
+        }
+        return true;
+    }
+
+    /**
+     * Runs on the writer thread, waits for inserts and decides when to flush
+     */
+    private void writeInserts() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                int moved = moveInserts();
+                var t = tuner;
+                long park = PARK_NANOS;
+                if (t == null) {
+                    if (moved != 0 && getPreparedCount() > maxQueries)
+                        flushPrepared();
+                } else { // Adaptive, so also flush once the oldest record waited long enough
+                    int count = getPreparedCount();
+                    if (!busyPrepared && t.needsFlush(count, firstPrepStamp))
+                        flushPrepared();
+                    if (count != 0) // Wake up in time for the max wait, but don't spin while a flush is busy
+                        park = Math.min(PARK_NANOS, Math.max(1, t.millisTillDue(firstPrepStamp)) * 1_000_000);
+                }
+                if (moved != 0)
+                    continue;
+                writerParked = true;
+                if (ring.peek() == null) // Check again, an insert might have arrived before the flag was set
+                    LockSupport.parkNanos(park);
+                writerParked = false;
+            } catch (Exception e) {
+                Logger.error(id + "(db) -> Insert writer error -> " + e.getMessage());
+                Logger.error(e);
+            }
+        }
+    }
+
+    /**
+     * Move the inserts from the ring to the buffers of the tables.
+     * Synchronized so the spool can keep the order of the records.
+     *
+     * @return The amount of inserts moved
+     */
+    private synchronized int moveInserts() {
+        boolean empty = getPreparedCount() == 0;
+        int moved = 0;
+        for (var slot = ring.peek(); slot != null && moved < MAX_MOVES; slot = ring.peek()) {
+            if (slot.table != null && !slot.table.addRecord(slot.prep, slot.record))
+                Logger.error(id + "(db) -> Failed to add record to " + slot.table.getTableName());
+            ring.release();
+            moved++;
+        }
+        if (empty && moved != 0)
+            firstPrepStamp = Instant.now().toEpochMilli();
+        return moved;
     }
+
+    /**
+     * Get the amount of records that were dropped because the insert queue stayed full
+     */
+    protected long getDroppedCount() {
+        return ringDrops.get();
+    }
+
+    private int getPreparedCount() {
+        int total = 0;
+        for (var table : tables.values())
+            total += table.getRecordCount();
+        return total;
+    }
+
     /**
-     * Flush all the buffers to the database
+     * Flush all the buffers to the database, the inserts still waiting in the ring are moved to the buffers first
      */
     public void flushAll(){
+        while (ring != null && moveInserts() != 0) {
+            // Keep moving till the ring is empty
+        }
         flushSimple();
         flushPrepared();
     }
@@ -644,17 +819,42 @@ protected void prepSimple() {
      * Flush all the PreparedStatements to the database
      */
     protected void flushPrepared(){
-        if (!busyPrepared ) { // Don't ask for another flush when one is being done
-            busyPrepared = true; // Set Flag so we know the buffer is being flushed
+        if (busyPrepared || lanes.stream().noneMatch(l -> !l.busy && l.hasRecords())) // Nothing to start
+            return;
+        if(isValid(1)) {
+            if (spool != null && spool.hasRecords()) { // The spooled records need to go first to keep the order
+                startReplay();
+            } else {
+                startLanes();
+            }
+        }else{
+            busyPrepared = true; // Flush once the connection is made
+            if( state != STATE.ACCESS_DENIED ) // No use trying
+                flagNeedcon();
+        }
+    }
 
-            if(isValid(1)) {
-                scheduler.submit(new DoPrepared());
-            }else{
-                if( state != STATE.ACCESS_DENIED ) // No use trying
-                    flagNeedcon();
+    /**
+     * Start a flush on each lane that has records and isn't flushing yet. Each lane has a single thread, so the
+     * records of a table are still inserted in order.
+     */
+    private synchronized void startLanes() {
+        if (busyPrepared) // Replay started in the meantime
+            return;
+        for (var lane : lanes) {
+            if (!lane.busy && lane.con() != null && lane.hasRecords()) {
+                lane.busy = true;
+                lane.executor.submit(new DoPrepared(lane));
             }
         }
     }
+
+    /**
+     * Check if a flush or replay is busy or waiting on a connection
+     */
+    boolean isFlushing() {
+        return busyPrepared || lanes.stream().anyMatch(l -> l.busy);
+    }
     /**
      * Read the setup of a database server from the settings.xml
      * @param dbDig The digger pointing at the element
@@ -686,22 +886,41 @@ public boolean readFromXML(XMLdigger dbDig) {
         maxInsertAge = TimeTools.parsePeriodStringToSeconds(dbDig.peekAt("maxinsertage").value("1h"));
 
         /* Setup */
-        if (dbDig.hasPeek("flush"))
-            readFlushSetup(dbDig.currentTrusted());
+        dbDig.peekAndUse("flush").ifPresent(this::readFlushSetup);
+
+        // Amount of connections used to flush the tables in parallel
+        int pool = Math.max(1, dbDig.peekAt("pool").attr("size", 1));
+        if (pool != lanes.size())
+            buildLanes(pool);
 
         // How many seconds before the connection is considered idle (and closed)
         idleTime = (int) TimeTools.parsePeriodStringToSeconds(dbDig.peekAt("idleclose").value("5m"));
 
-        /* Tables */
+        // Mariadb
+        if (dbDig.hasPeek("timeprecision"))
+            mariadbTimePrecision = dbDig.peekAt("timeprecision").value(0);
+
+        /* Spool */
+        if (spool != null) // Reload
+            spool.close();
+        spool = null;
+        if (dbDig.hasPeek("spool")) {
+            dbDig.digDown("spool");
+            var max = SqlSpool.parseSize(dbDig.attr("maxsize", "1gb"), 1024L * 1024 * 1024);
+            var segment = SqlSpool.parseSize(dbDig.attr("segment", "16mb"), 16L * 1024 * 1024);
+            dbDig.goUp();
+            spool = new SqlSpool(id, Paths.storage().resolve("db").resolve("spool").resolve(id), max, segment);
+            if (!spool.open())
+                spool = null;
+        }
+
+        /* Tables, last because digOut moves the digger to the first table */
         for (var table : dbDig.digOut("table")) {
             SqlTableFab.buildSqlTable(table, true).ifPresent(t -> {
                 t.toggleServer();
                 tables.put(t.getTableName(), t);
             });
         }
-        // Mariadb
-        if (dbDig.hasPeek("timeprecision"))
-            mariadbTimePrecision = dbDig.peekAt("timeprecision").value(0);
 
         return true;
     }
@@ -712,6 +931,7 @@ public void reloadDatabase() {
         var dig = Paths.digInSettings("databases").digDown("server", "id", id);
         tables.clear();
         views.clear();
+        lanes.forEach(l -> l.executor.submit(l::clearStatements)); // Tables might have changed
         readFromXML(dig);
 
         connect(false); // Reconnect
@@ -735,8 +955,12 @@ public void writeToXml(XMLfab fab){
 
         fab.selectOrAddChildAsParent("server","id", id.isEmpty()?"remote":id).attr("type",type.toString().toLowerCase())
                 .alterChild("db",dbName).attr("user",user).attr("pass",pass)
-                .alterChild("flush").attr("age",flush).attr("batchsize",maxQueries)
-                .alterChild("idleclose",idle)
+                .alterChild("flush").attr("age",flush).attr("batchsize",maxQueries);
+        if( tuner != null )
+            tuner.writeToXml(fab);
+        if( lanes.size() > 1 )
+            fab.alterChild("pool").attr("size",lanes.size());
+        fab.alterChild("idleclose",idle)
                 .alterChild("address",address);
 
         fab.build();
@@ -765,21 +989,19 @@ public int writeTableToXml( XMLfab fab, String tableName ){
      *
      * @param table  The table to insert into
      * @param values The values to insert
-     * @return -2=No such table, -1=No such statement,0=bad amount of values,1=ok
+     * @return -4=Insert queue full, -3=Null values, -2=No such table, -1=No such statement,0=bad amount of values,1=ok
      */
-    public synchronized int addDirectInsert(String table, Object... values) {
+    public int addDirectInsert(String table, Object... values) {
         if( values == null){
             Logger.error(id+" -> Tried to insert a null in "+table);
             return -3;
         }
-        if (!hasRecords())
-            firstPrepStamp = Instant.now().toEpochMilli();
-
-        int res = getTable(table).map(t -> t.doInsert(values)).orElse(-2);
+        var tableOpt = getTable(table);
+        int res = tableOpt.map(t -> t.checkRecord(values)).orElse(-2);
         switch (res) {
             case 1 -> {
-                if (tables.values().stream().mapToInt(SqlTable::getRecordCount).sum() > maxQueries)
-                    flushPrepared();
+                if (!queueRecord(tableOpt.get(), "", values))
+                    res = -4;
             }
             case 0 -> Logger.error("Bad amount of values for insert into " + id + ":" + table);
             case -1 -> Logger.error("No such prepStatement found in " + id + ":" + table);
@@ -792,6 +1014,8 @@ public synchronized int addDirectInsert(String table, Object... values) {
      * @param secondsPassed How many seconds passed since the last check (interval so fixed)
      */
     public void checkState( int secondsPassed ) {
+        if (spool != null)
+            checkSpool();
         switch (state) {
             case FLUSH_REQ -> doFlushReq(); // Required a flush
             case HAS_CON -> doHas_Con(secondsPassed); // If we have a connection, but not using it
@@ -819,6 +1043,13 @@ private void doFlushReq() {
     }
 
     private void doHas_Con(int secondsPassed) {
+        for (var lane : lanes) { // The other connections of the pool, busy ones find out when flushing
+            if (lane.nr != 0 && !lane.busy && !lane.isValid(2)) {
+                Logger.warn(id + "(db) -> Connection " + lane.nr + " of the pool is no longer valid, reconnecting");
+                state = STATE.NEED_CON;
+                return;
+            }
+        }
         if (!hasRecords()) {
             idleCount += secondsPassed;
             if (idleCount > idleTime && idleTime > 0) {
@@ -849,7 +1080,7 @@ private void doHas_Con(int secondsPassed) {
     }
 
     private void doIdle() {
-        if (hasRecords()) { // If it has records
+        if (hasRecords() || (spool != null && spool.hasRecords())) { // If it has records
             if (isValid(2000)) { // try to connect but don't reconnect if connected
                 state = STATE.HAS_CON; // connected
             } else {
@@ -858,6 +1089,48 @@ private void doIdle() {
         }
     }
 
+    /**
+     * Move the buffered records to the spool while there's no connection, and replay them once there is
+     */
+    private void checkSpool() {
+        switch (state) {
+            case NEED_CON, CON_BUSY, ACCESS_DENIED -> {
+                if (tables.values().stream().anyMatch(SqlTable::hasRecords))
+                    scheduler.submit(this::spoolRecords); // Tables of busy lanes are skipped, those spool themselves
+            }
+            case HAS_CON -> startReplay();
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Start replaying the spool once no other flush can start, the replay waits on the flushes that are busy
+     */
+    private synchronized void startReplay() {
+        if (spool.hasRecords() && !busyPrepared) {
+            busyPrepared = true;
+            scheduler.submit(new DoReplay());
+        }
+    }
+
+    /**
+     * Write the records of the tables to the spool. Synchronized so no inserts are added and no lane starts a flush
+     * in the meantime.
+     */
+    private synchronized void spoolRecords() {
+        int cnt = 0;
+        for (var table : tables.values()) {
+            var lane = laneOf(table);
+            if (lane.busy && lane.nr != 0) // Flushing, so the records of the flush aren't in the buffer
+                continue;
+            for (var prep : table.getPreps().keySet())
+                cnt += table.spoolData(prep, spool, false);
+        }
+        if (cnt != 0)
+            Logger.info(id + "(db) -> Spooled " + cnt + " records, " + spool.depth() + " waiting");
+    }
+
     // @SuppressWarnings("SQLInjection")
     protected void readTable(Connection con, String query, Consumer<ResultSet> action) {
         Logger.debug("Running query: " + query);
@@ -982,44 +1255,371 @@ private boolean doBatchRun(ArrayList<String> queries){
     }
 
     /**
-     * Execute the stored prepared statements
+     * Connection with its own thread that flushes a part of the tables, each table always uses the same lane so the
+     * order of its records is kept. The first lane uses the main connection and the scheduler, the others only exist
+     * if a pool is set.
+     */
+    private class Lane {
+        final int nr;
+        final ScheduledExecutorService executor;
+        volatile Connection own;       // Connection of this lane, not used by the first lane
+        volatile boolean busy = false; // A flush is queued or running on this lane
+        private final HashMap<String, PreparedStatement> statements = new HashMap<>(); // Prepared statements per query
+        private Connection statementsCon; // The connection the statements were prepared on
+
+        Lane(int nr, ScheduledExecutorService executor) {
+            this.nr = nr;
+            this.executor = executor;
+        }
+
+        Connection con() {
+            return nr == 0 ? con : own;
+        }
+
+        boolean hasRecords() {
+            return tables.values().stream().anyMatch(t -> laneOf(t) == this && t.hasRecords());
+        }
+
+        boolean isValid(int timeout) {
+            try {
+                var c = con();
+                return c != null && c.isValid(timeout);
+            } catch (SQLException e) {
+                Logger.error(id + "(db) -> SQLException when checking if lane " + nr + " is valid: " + e.getMessage());
+                return false;
+            }
+        }
+
+        /**
+         * Open the connection of this lane if it isn't valid, the first lane is handled by connect
+         *
+         * @return True if the lane has a valid connection
+         */
+        boolean connect() {
+            if (nr == 0 || isValid(2))
+                return true;
+            close();
+            try {
+                own = DriverManager.getConnection(irl, user, pass);
+                return true;
+            } catch (SQLException e) {
+                Logger.error(id + "(db) -> Failed to connect lane " + nr + " -> " + e.getMessage());
+                return false;
+            }
+        }
+
+        /**
+         * Close the connection, it's kept so a flush that is still busy gets an exception instead of a null
+         */
+        void close() {
+            if (nr == 0 || own == null)
+                return;
+            try {
+                own.close();
+            } catch (SQLException e) {
+                Logger.error(id + "(db) -> Failed to close lane " + nr + " -> " + e.getMessage());
+            }
+        }
+
+        /**
+         * Get the prepared statement for the query, these are kept for as long as the connection is used.
+         * Only used by the thread of the lane, so no need for synchronization.
+         *
+         * @param sql The query of the statement
+         * @return The statement prepared on the current connection
+         */
+        PreparedStatement getStatement(String sql) throws SQLException {
+            var c = con();
+            if (statementsCon != c) { // Reconnected, the old statements are no longer valid
+                clearStatements();
+                statementsCon = c;
+            }
+            var ps = statements.get(sql);
+            if (ps == null || ps.isClosed()) {
+                ps = c.prepareStatement(sql);
+                statements.put(sql, ps);
+            }
+            return ps;
+        }
+
+        void clearStatements() {
+            for (var ps : statements.values()) {
+                try {
+                    ps.close();
+                } catch (SQLException e) {
+                    Logger.debug(id + "(db) -> Failed to close statement -> " + e.getMessage());
+                }
+            }
+            statements.clear();
+        }
+
+        void rollback() {
+            try {
+                if (!con().getAutoCommit())
+                    con().rollback();
+            } catch (SQLException e) {
+                Logger.error(id + "(db) -> Rollback failed -> " + e.getMessage());
+            }
+        }
+
+        /**
+         * Insert the records using statements that each insert multiple records, the rest is inserted one by one
+         *
+         * @param table The table to insert in
+         * @param id    The id of the prep
+         * @param max   The maximum amount of records to insert
+         * @return The amount of records inserted
+         */
+        int executeMultiRow(SqlTable table, String id, int max) throws SQLException {
+            int rows = table.getMultiRowCount(id, multiRow);
+            var multi = getStatement(table.getMultiRowStatement(id, rows));
+            var single = getStatement(table.getPreparedStatement(id));
+            int cnt = table.fillMultiRow(id, rows, multi, single, max);
+            if (cnt > 0) {
+                multi.executeBatch();
+                single.executeBatch();
+            }
+            return cnt;
+        }
+    }
+
+    /**
+     * Get the lane that flushes the table, based on the name so it doesn't change while running
+     */
+    private Lane laneOf(SqlTable table) {
+        var list = lanes;
+        return list.get(Math.floorMod(table.getTableName().hashCode(), list.size()));
+    }
+
+    /**
+     * Create the lanes for the pool, the first lane is kept because it uses the main connection
+     *
+     * @param size The amount of connections to use
+     */
+    private void buildLanes(int size) {
+        var old = lanes;
+        var list = new ArrayList<Lane>();
+        list.add(old.get(0));
+        for (int nr = 1; nr < size; nr++)
+            list.add(new Lane(nr, Executors.newSingleThreadScheduledExecutor()));
+        lanes = List.copyOf(list);
+        for (var lane : old.subList(1, old.size())) {
+            lane.executor.shutdown();
+            lane.close();
+        }
+    }
+
+    /**
+     * Remove whatever is left in the batch of a statement after a failed execute, so it can be reused
+     */
+    private void clearBatch(PreparedStatement ps) {
+        try {
+            if (ps != null && !ps.isClosed())
+                ps.clearBatch();
+        } catch (SQLException e) {
+            Logger.debug(id + "(db) -> Failed to clear batch -> " + e.getMessage());
+        }
+    }
+
+    private class DoReplay implements Runnable {
+        private static final long LANE_WAIT = 30_000; // Max ms to wait on the other lanes before giving up this round
+        private final long started = System.currentTimeMillis();
+
+        @Override
+        public void run() {
+            if (lanes.stream().anyMatch(l -> l.nr != 0 && l.busy)) { // Let the other lanes finish their flush
+                if (System.currentTimeMillis() - started < LANE_WAIT) {
+                    // Check again later instead of sleeping, connect() needs the scheduler too
+                    scheduler.schedule(this, 20, TimeUnit.MILLISECONDS);
+                } else {
+                    Logger.error(id + "(db) -> Replay of the spool postponed, a lane didn't finish its flush within "
+                            + LANE_WAIT / 1000 + "s");
+                    busyPrepared = false;
+                }
+                return;
+            }
+            try {
+                Logger.info(id + "(db) -> Replaying " + spool.depth() + " spooled records");
+                while (spool.hasRecords() && isValid(1)) {
+                    if (!replayRound())
+                        break;
+                }
+                if (!spool.hasRecords())
+                    Logger.info(id + "(db) -> Replay of the spool finished");
+            } catch (Exception e) {
+                Logger.error(id + "(db) -> Replay of the spool failed -> " + e.getMessage());
+            } finally {
+                synchronized (SQLDB.this) { // The records that arrived during the last round can be flushed again
+                    tables.values().forEach(SqlTable::releaseRecords);
+                }
+                busyPrepared = false;
+            }
+        }
+
+        /**
+         * Insert the oldest records in the spool, they are only removed from it once committed
+         *
+         * @return True if all of them were inserted
+         */
+        private boolean replayRound() {
+            var limits = new HashMap<String, Integer>(); // Replayed records per prep, newer ones are held
+            var ahead = new HashMap<>(replayedAhead);
+            List<SqlSpool.Record> records;
+            boolean[] added;
+            synchronized (SQLDB.this) { // Records received in the meantime go to the spool to keep the order
+                tables.values().forEach(SqlTable::releaseRecords);
+                spoolRecords();
+                tables.values().forEach(SqlTable::holdRecords);
+                records = spool.peek(Math.max(maxQueries, 500));
+                added = new boolean[records.size()];
+                for (int a = 0; a < records.size(); a++) {
+                    var record = records.get(a);
+                    var key = record.table() + ":" + record.prep();
+                    if (ahead.getOrDefault(key, 0) > 0) { // Committed in an earlier round that failed further on
+                        ahead.merge(key, -1, Integer::sum);
+                        continue;
+                    }
+                    var table = tables.get(record.table());
+                    if (table == null || !table.addSpooled(record.prep(), record.values())) {
+                        Logger.error(id + "(db) -> Couldn't replay spooled record for " + record.table());
+                    } else {
+                        limits.merge(key, 1, Integer::sum);
+                        added[a] = true;
+                    }
+                }
+            }
+            new DoPrepared(lanes.get(0), limits).run(); // All tables on one lane, nothing else flushes now
+
+            // Whatever is still buffered wasn't inserted, it stays in the spool for the next attempt
+            var handled = new HashMap<>(limits);
+            for (var key : limits.keySet()) {
+                var split = key.split(":", 2);
+                var table = tables.get(split[0]);
+                if (table != null)
+                    handled.merge(key, -table.discardReplayed(split[1]), Integer::sum);
+            }
+            // Only the oldest records can be acknowledged, those inserted after one that failed are remembered instead
+            int done = -1;
+            replayedAhead.clear();
+            for (int a = 0; a < records.size(); a++) {
+                var record = records.get(a);
+                var key = record.table() + ":" + record.prep();
+                boolean ok = !added[a];
+                if (added[a] && handled.getOrDefault(key, 0) > 0) {
+                    handled.merge(key, -1, Integer::sum);
+                    ok = true;
+                }
+                if (!ok && done == -1)
+                    done = a;
+                if (ok && done != -1 && tables.containsKey(record.table()))
+                    replayedAhead.merge(key, 1, Integer::sum);
+            }
+            spool.ack(done == -1 ? records.size() : done);
+            return done == -1;
+        }
+    }
+
+    /**
+     * Execute the stored prepared statements of the tables of a lane
      */
     private class DoPrepared implements Runnable{
+        private final Lane lane;
+        private final Map<String, Integer> limits; // Max records per table:prep during a replay, null if no limit
+
+        DoPrepared(Lane lane) {
+            this(lane, null);
+        }
+
+        /**
+         * Flush all tables on the given lane, but no more records per prep than the limit
+         *
+         * @param lane   The lane to use
+         * @param limits Max records per table:prep, so records received after those can't overtake the spooled ones
+         */
+        DoPrepared(Lane lane, Map<String, Integer> limits) {
+            this.lane = lane;
+            this.limits = limits;
+        }
 
         @Override
         public void run() {
+            if (lane.con() == null) { // Closed in the meantime, checkState will reconnect it
+                state = STATE.NEED_CON;
+                lane.busy = false;
+                return;
+            }
             // Process the prepared statements
-            tables.values().stream().filter( SqlTable::hasRecords ).forEach(
+            tables.values().stream().filter( t -> (limits != null || laneOf(t) == lane) && t.hasRecords() ).forEach(
                     sqlTable -> sqlTable.getPreps().keySet().forEach(
                             id ->
                             {
                                 boolean ok=true;
+                                boolean singleRow = multiRow < 2;
                                 int errors=0;
-                                while (sqlTable.hasRecords(id) && ok) { //do again if new queries arrived or part of the batch failed
+                                int left = limits == null ? Integer.MAX_VALUE : limits.getOrDefault(sqlTable.getTableName() + ":" + id, 0);
+                                while (left > 0 && sqlTable.hasRecords(id) && ok) { //do again if new queries arrived or part of the batch failed
                                     int cnt;
-                                    try (PreparedStatement ps = con.prepareStatement(sqlTable.getPreparedStatement(id))) {
-                                        cnt = sqlTable.fillStatement(id, ps);
+                                    PreparedStatement ps = null;
+                                    long start;
+                                    var t = tuner;
+                                    int max = Math.min(left, t == null ? Integer.MAX_VALUE : t.target()); // Adaptive commits per target
+                                    try {
+                                        if (singleRow) {
+                                            ps = lane.getStatement(sqlTable.getPreparedStatement(id));
+                                            cnt = sqlTable.fillStatement(id, ps, max);
+                                            start = System.nanoTime();
+                                            if (cnt > 0)
+                                                ps.executeBatch();
+                                        } else {
+                                            start = System.nanoTime();
+                                            cnt = lane.executeMultiRow(sqlTable, id, max);
+                                        }
                                         if( cnt > 0 ){
-                                            ps.executeBatch();
                                             sqlTable.clearTempRecords(id);
-                                            if (!con.getAutoCommit())
-                                                con.commit();
+                                            if (!lane.con().getAutoCommit())
+                                                lane.con().commit();
+                                            if (t != null)
+                                                t.addFlush(cnt, System.nanoTime() - start);
+                                            left -= cnt;
                                             if( hasRecords() ) // if there are records left, the timestamp should be reset
                                                 firstSimpleStamp = Instant.now().toEpochMilli();
                                         }else{
                                             ok=false;
                                         }
                                     } catch (BatchUpdateException e) {
+                                        if (!singleRow) { // Can't tell which record failed, so redo it one record at a time
+                                            Logger.error(id() + " (db)-> Multi row insert failed, retrying per record: " + e.getMessage());
+                                            lane.rollback();
+                                            lane.clearStatements();
+                                            sqlTable.requeueTempRecords(id);
+                                            singleRow = true;
+                                            continue;
+                                        }
                                         // One or multiple queries in the batch failed
                                         Logger.error(id()+" (db)-> Batch error, clearing batched:"+e.getMessage());
                                         insertErrors++;
                                         Logger.error(e.getErrorCode());
+                                        clearBatch(ps);
                                         Logger.error(id() + " (db)-> Removed bad records: " + sqlTable.removeBadRecordsAndQueue(id, e.getLargeUpdateCounts())); // just drop the data or try one by one?
                                     } catch (SQLException e) {
+                                        lane.clearStatements(); // Might be the cause
+                                        if (spool != null && !lane.isValid(1)) { // Lost connection, so keep it for replay
+                                            state = STATE.NEED_CON;
+                                            ok = false;
+                                            if (limits != null) { // Replaying, these are still in the spool
+                                                Logger.error(id() + "(db) -> Lost connection during replay of " + id + " -> " + e.getMessage());
+                                                sqlTable.requeueTempRecords(id);
+                                                continue;
+                                            }
+                                            Logger.error(id() + "(db) -> Lost connection during insert, spooling " + id + " -> " + e.getMessage());
+                                            sqlTable.spoolData(id, spool, true);
+                                            continue;
+                                        }
                                         errors = doSqlException(e, sqlTable, errors);
                                         if (errors > 10)
                                             ok = false;
                                     } catch (Exception e) {
+                                        clearBatch(ps);
                                         insertErrors++;
                                         Logger.error(id() + "(db) -> General Error:" + e);
                                         Logger.error(e);
@@ -1033,7 +1633,7 @@ public void run() {
             if (tables.values().stream().anyMatch(t -> t.getRecordCount() != 0))
                 firstPrepStamp = Instant.now().toEpochMilli();
 
-            busyPrepared = false; // Finished work, so reset the flag
+            lane.busy = false; // Finished work, so reset the flag
         }
 
         private int doSqlException(SQLException e, SqlTable sqlTable, int errors) {
@@ -1042,10 +1642,10 @@ private int doSqlException(SQLException e, SqlTable sqlTable, int errors) {
             if (e.getMessage().contains("no such table") && SQLDB.this instanceof SQLiteDB) {
                 Logger.error(id() + "(db) -> Got no such sqlite table error, trying to resolve...");
                 try {
-                    var c = con.createStatement();
+                    var c = lane.con().createStatement();
                     c.execute(sqlTable.create());
-                    if (!con.getAutoCommit())
-                        con.commit();
+                    if (!lane.con().getAutoCommit())
+                        lane.con().commit();
                 } catch (SQLException f) {
                     Logger.error(f);
                 }
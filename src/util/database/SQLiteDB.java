@@ -1,6 +1,7 @@
 package util.database;
 
 import das.Paths;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.tinylog.Logger;
 import util.tools.TimeTools;
 import util.xml.XMLdigger;
@@ -12,11 +13,13 @@
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.time.Duration;
-import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.StringJoiner;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -37,6 +40,13 @@ public class SQLiteDB extends SQLDB{
     private LocalDateTime rolloverTimestamp;
 
     private String currentForm = "";
+
+    /* Tuning */
+    private final ArrayList<String> pragmas = new ArrayList<>(); // Applied each time a connection is made
+    private long checkpointPeriod = 0; // Seconds between wal checkpoints, 0 if none
+    private ScheduledFuture<?> checkpointFuture;
+    private final LinkedHashMap<String, String> tuning = new LinkedHashMap<>(); // Attributes of the tuning node as read
+    private static final String[] TUNING_ATTR = {"journalmode", "synchronous", "cachesize", "mmapsize", "tempstore", "multirow", "checkpoint"};
     /**
      * Create an instance of a database with rollover
      * @param dbPath Path to the database
@@ -101,6 +111,7 @@ public boolean readFromXML(XMLdigger dig) {
         }
         /* Setup */
         dig.peekAndUse("flush").ifPresent(this::readFlushSetup);
+        readTuning(dig);
 
         // How many seconds before the connection is considered idle (and closed)
         idleTime = (int) TimeTools.parsePeriodStringToSeconds(dig.attr("idleclose", "5m"));
@@ -120,15 +131,100 @@ public boolean readFromXML(XMLdigger dig) {
         lastError = createContent(false);
         return true;
     }
+    /**
+     * Read the optional tuning node, fe.
+     * &lt;tuning journalmode="wal" synchronous="normal" cachesize="-8000" mmapsize="64mb" tempstore="memory"
+     * multirow="50" checkpoint="5m"/&gt;
+     *
+     * @param dig Digger pointing to the sqlite node
+     */
+    private void readTuning(XMLdigger dig) {
+        pragmas.clear();
+        tuning.clear();
+        multiRow = 0;
+        checkpointPeriod = 0;
+        if (checkpointFuture != null)
+            checkpointFuture.cancel(false);
+
+        if (!dig.hasPeek("tuning"))
+            return;
+        dig.digDown("tuning");
+        for (var att : TUNING_ATTR) {
+            var value = dig.attr(att, "");
+            if (!value.isEmpty())
+                tuning.put(att, value);
+        }
+        addPragma("journal_mode", dig.attr("journalmode", ""), "delete", "truncate", "persist", "memory", "wal", "off");
+        addPragma("synchronous", dig.attr("synchronous", ""), "off", "normal", "full", "extra");
+        addPragma("temp_store", dig.attr("tempstore", ""), "default", "file", "memory");
+        var cache = dig.attr("cachesize", "");
+        if (NumberUtils.isParsable(cache)) { // Negative means KiB instead of pages
+            pragmas.add("PRAGMA cache_size=" + cache);
+        } else if (!cache.isEmpty()) {
+            Logger.error(id + "(db) -> Invalid cachesize: " + cache);
+        }
+        var mmap = dig.attr("mmapsize", "");
+        if (!mmap.isEmpty())
+            pragmas.add("PRAGMA mmap_size=" + SqlSpool.parseSize(mmap, 0));
+        multiRow = dig.attr("multirow", 0);
+        var checkpoint = dig.attr("checkpoint", "");
+        if (!checkpoint.isEmpty())
+            checkpointPeriod = TimeTools.parsePeriodStringToSeconds(checkpoint);
+        dig.goUp();
+
+        if (checkpointPeriod > 0)
+            checkpointFuture = scheduler.scheduleAtFixedRate(this::doCheckpoint, checkpointPeriod, checkpointPeriod, TimeUnit.SECONDS);
+    }
+
+    private void addPragma(String pragma, String value, String... allowed) {
+        if (value.isEmpty())
+            return;
+        if (!Arrays.asList(allowed).contains(value.toLowerCase())) {
+            Logger.error(id + "(db) -> Invalid value for " + pragma + ": " + value + ", options: " + String.join(",", allowed));
+            return;
+        }
+        pragmas.add("PRAGMA " + pragma + "=" + value.toUpperCase());
+    }
+
+    /**
+     * Apply the pragmas to the current connection, this needs to be done before a transaction is started
+     */
+    private void applyPragmas() {
+        if (pragmas.isEmpty())
+            return;
+        try (var stmt = con.createStatement()) {
+            for (var pragma : pragmas) {
+                stmt.execute(pragma);
+                Logger.debug(id + "(db) -> Applied " + pragma);
+            }
+        } catch (SQLException e) {
+            Logger.error(id + "(db) -> Failed to apply pragmas -> " + e.getMessage());
+        }
+    }
+
+    /**
+     * Move the content of the wal file to the database and truncate it. Runs on the scheduler, so not during a flush.
+     */
+    private void doCheckpoint() {
+        if (!isValid(1))
+            return;
+        try (var stmt = con.createStatement()) {
+            if (!con.getAutoCommit())
+                con.commit(); // Otherwise the open transaction blocks the checkpoint
+            stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        } catch (SQLException e) {
+            Logger.error(id + "(db) -> Checkpoint failed -> " + e.getMessage());
+        }
+    }
     /* ************************************************************************************************************** */
     @Override
     public String toString(){
         var time = getTimeSinceLastInsert();
         var join = new StringJoiner("");
-        if( time > maxInsertAge || getRecordsCount()>maxQueries || insertErrors!=0 )
+        if( time > maxInsertAge || getRecordsCount()>getFlushTarget() || insertErrors!=0 || getDroppedCount()!=0 )
             join.add("!! ");
         join.add( id +" : ");
-        join.add( getPath() +" -> " +getRecordsCount()+"/"+maxQueries);
+        join.add( getPath() +" -> " +getRecordsCount()+"/"+getFlushTarget());
         if( rollUnit != ChronoUnit.FOREVER){
             if( rollOverFuture==null ){
                 join.add( " -> No proper rollover determined..." );
@@ -139,6 +235,9 @@ public String toString(){
         join.add(" [" + TimeTools.convertPeriodToString(time, TimeUnit.SECONDS) + "]");
         if( insertErrors!=0)
             join.add( " errors:"+insertErrors);
+        if( getDroppedCount()!=0 )
+            join.add( " dropped:"+getDroppedCount());
+        join.add(getFlushStatus());
         join.add(isValid(1)?"":" (NC)");
         return join.toString();
     }
@@ -195,6 +294,7 @@ public boolean connect(boolean force){
         try{
             state = STATE.CON_BUSY;
             con = DriverManager.getConnection(irl, user, pass);
+            applyPragmas(); // Before autocommit is disabled, journal mode can't be changed during a transaction
             con.setAutoCommit(false); //Changed
             Logger.info( id() + " -> Connection: "+con+ " irl:"+irl);
             state=STATE.HAS_CON;
@@ -274,8 +374,14 @@ public void writeToXml( XMLfab fab ){
         fab.selectOrAddChildAsParent("sqlite","id", id).attr("path",dbPath.toString());
         if( hasRollOver() )
             fab.alterChild("rollover", oriFormat).attr("period", TimeTools.convertPeriodToString(rollCount, TimeUnit.SECONDS));
-        fab.alterChild("flush").attr("age",flush).attr("batchsize",maxQueries)
-           .alterChild("idleclose",idle)
+        fab.alterChild("flush").attr("age",flush).attr("batchsize",maxQueries);
+        if( tuner != null )
+            tuner.writeToXml(fab);
+        if( !tuning.isEmpty() ){
+            fab.alterChild("tuning");
+            tuning.forEach(fab::attr);
+        }
+        fab.alterChild("idleclose",idle)
            .build();
     }
 
@@ -439,30 +545,4 @@ public void run() {
             }
         }
     }
-    /**
-     *
-     * @param table  The table to insert into
-     * @param values The values to insert
-     * @return -2=No such table, -1=No such statement,0=bad amount of values,1=ok
-     */
-    public synchronized int addDirectInsert(String table, Object... values) {
-        if( values == null){
-            Logger.error(id+" -> Tried to insert a null in "+table);
-            return -3;
-        }
-        if (!hasRecords())
-            firstPrepStamp = Instant.now().toEpochMilli();
-
-        int res = getTable(table).map(t -> t.doInsert(values)).orElse(-2);
-        switch (res) {
-            case 1 -> {
-                if (tables.values().stream().mapToInt(SqlTable::getRecordCount).sum() > maxQueries)
-                    flushPrepared();
-            }
-            case 0 -> Logger.error("Bad amount of values for insert into " + id + ":" + table);
-            case -1 -> Logger.error("No such prepstatement found in " + id + ":" + table);
-            case -2 -> Logger.error("No such table (" + table + ") found in " + id);
-        }
-        return res;
-    }
-}
\ No newline at end of file
+}
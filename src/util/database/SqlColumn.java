@@ -1,6 +1,8 @@
 package util.database;
 
 import org.tinylog.Logger;
+import util.data.vals.BaseVal;
+import util.data.vals.NumericVal;
 import util.tools.TimeTools;
 
 import java.time.Instant;
@@ -25,6 +27,7 @@ public enum COLUMN_TYPE {
     boolean server = false;
     boolean hasDefault = false;
     String defString = "";
+    BaseVal val;  // The val the data comes from, bound when the store of the table is build
 
     public SqlColumn(String title, String tableName, String rtval, COLUMN_TYPE type) {
         this.title = title;
@@ -57,6 +60,52 @@ public String getDefault() {
         return defString;
     }
 
+    public void bind(BaseVal val) {
+        this.val = val;
+    }
+
+    /**
+     * Write the current value of the bound val to the batch, numbers are written as is instead of via text.
+     * A real val already has its scale applied on update and asString is the same double as text, so nothing is lost.
+     * NaN is written as null.
+     *
+     * @param batch The batch to write to
+     * @param col   The index of the column in the record
+     * @return False if there's no value for this column
+     */
+    boolean writeTo(ColumnBatch batch, int col) {
+        switch (type) {
+            case EPOCH -> {
+                batch.putLong(col, Instant.now().toEpochMilli());
+                return true;
+            }
+            case REAL -> {
+                if (val instanceof NumericVal nv) {
+                    var d = nv.asDouble();
+                    if (Double.isNaN(d)) {
+                        batch.putNull(col);
+                    } else {
+                        batch.putDouble(col, d);
+                    }
+                    return true;
+                }
+            }
+            case INTEGER -> {
+                if (val instanceof NumericVal nv) {
+                    batch.putInt(col, nv.asInteger());
+                    return true;
+                }
+            }
+            default -> {
+            }
+        }
+        var data = fetchData(title, val == null ? null : val.asString());
+        if (data == null)
+            return false;
+        batch.put(col, data);
+        return true;
+    }
+
     public Object fetchData(String id, String val) {
         try {
             if (server) {
@@ -0,0 +1,144 @@
+package util.database;
+
+import org.tinylog.Logger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Forward only, read only cursor over the result of a select query. The rows are read from the driver in steps of
+ * the fetch size, so the full result is never kept in memory.
+ * Note that not all drivers honor the fetch size, postgresql for example only does so when autocommit is disabled.
+ */
+public class SqlCursor implements AutoCloseable {
+    private final String id;
+    private final Statement stmt;
+    private final ResultSet rs;
+    private final int cols;
+    private long rows = 0;
+    private boolean done = false;
+
+    private SqlCursor(String id, Statement stmt, ResultSet rs) throws SQLException {
+        this.id = id;
+        this.stmt = stmt;
+        this.rs = rs;
+        cols = rs.getMetaData().getColumnCount();
+    }
+
+    /**
+     * Execute the query and open a cursor on the result
+     *
+     * @param id        The id of the database, used for logging
+     * @param con       The connection to use
+     * @param query     The select query to execute
+     * @param fetchSize The amount of rows the driver should fetch at once, 0 to let the driver decide
+     * @return The cursor or an empty optional if the query failed
+     */
+    static Optional<SqlCursor> open(String id, Connection con, String query, int fetchSize) {
+        Statement stmt = null;
+        try {
+            stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (fetchSize > 0)
+                stmt.setFetchSize(fetchSize);
+            return Optional.of(new SqlCursor(id, stmt, stmt.executeQuery(query)));
+        } catch (SQLException e) {
+            Logger.error(id + "(db) -> Error running query: " + query + " -> " + e.getMessage());
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (SQLException ex) {
+                    Logger.debug(id + "(db) -> Failed to close statement -> " + ex.getMessage());
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Get the names of the columns in the result
+     */
+    public List<Object> getColumnNames() {
+        var names = new ArrayList<>();
+        try {
+            var meta = rs.getMetaData();
+            for (int a = 1; a <= cols; a++)
+                names.add(meta.getColumnName(a));
+        } catch (SQLException e) {
+            Logger.error(id + "(db) -> Failed to get the column names -> " + e.getMessage());
+        }
+        return names;
+    }
+
+    /**
+     * Read the next row
+     *
+     * @return The row or an empty optional if the end of the result was reached or reading failed
+     */
+    public Optional<List<Object>> next() {
+        if (done)
+            return Optional.empty();
+        try {
+            if (!rs.next()) {
+                close();
+                return Optional.empty();
+            }
+            var record = new ArrayList<>(cols);
+            for (int a = 1; a <= cols; a++)
+                record.add(rs.getObject(a));
+            rows++;
+            return Optional.of(record);
+        } catch (SQLException e) {
+            Logger.error(id + "(db) -> Failed to read row " + (rows + 1) + " -> " + e.getMessage());
+            close();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Read up to max rows
+     *
+     * @param max The maximum amount of rows to read
+     * @return The rows read, less than max (or empty) once the end of the result is reached
+     */
+    public List<List<Object>> nextPage(int max) {
+        var page = new ArrayList<List<Object>>(Math.min(max, 1024));
+        while (page.size() < max) {
+            var row = next();
+            if (row.isEmpty())
+                break;
+            page.add(row.get());
+        }
+        return page;
+    }
+
+    /**
+     * Check if the end of the result was reached or the cursor was closed
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Get the amount of rows read so far
+     */
+    public long getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public void close() {
+        if (done)
+            return;
+        done = true;
+        try {
+            stmt.close(); // Also closes the resultset
+        } catch (SQLException e) {
+            Logger.debug(id + "(db) -> Failed to close cursor -> " + e.getMessage());
+        }
+    }
+}
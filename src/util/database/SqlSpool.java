@@ -0,0 +1,453 @@
+package util.database;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.tinylog.Logger;
+import util.tools.TimeTools;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append only spool on disk for the records of a database that can't be inserted because the connection is lost.
+ * The spool is split in segment files that are deleted once fully replayed, the read position is kept in a separate
+ * file so a restart doesn't replay records twice. Records are peeked and only acknowledged once they are committed,
+ * so a failed replay leaves them where they are.
+ * Record layout: int length, long timestamp, text table, text prep, short columns, then per column a type byte + value.
+ * Text is an int length followed by the utf8 bytes.
+ * Appending, reading and closing are synchronized, because each connection of a pool can spool its own tables.
+ */
+public class SqlSpool {
+    private static final String EXT = ".spool";
+    private static final int MIN_RECORD = 8 + 4 + 4 + 2; // Timestamp, table, prep and columns
+
+    /* Value types */
+    private static final byte NULL = 0, INT = 1, LONG = 2, DOUBLE = 3, TEXT = 4, OFFSET_DT = 5, LOCAL_DT = 6;
+
+    public record Record(String table, String prep, long timestamp, Object[] values) {
+    }
+
+    private final String id;
+    private final Path folder;
+    private final long maxBytes;
+    private final long segmentBytes;
+
+    private FileChannel writer;
+    private int writeSegment = 0;
+    private int readSegment = 0;
+    private long readOffset = 0;
+
+    private volatile long depth = 0; // Records waiting in the spool
+    private long bytes = 0;          // Bytes used by the segments
+    private long oldestStamp = 0;    // Timestamp of the oldest record waiting, 0 if none
+    private long spooled = 0, replayed = 0, dropped = 0;
+    private final ArrayList<long[]> peeked = new ArrayList<>(); // Segment, offset after and length of peeked records
+
+    public SqlSpool(String id, Path folder, long maxBytes, long segmentBytes) {
+        this.id = id;
+        this.folder = folder;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = Math.min(segmentBytes, maxBytes);
+    }
+
+    /**
+     * Convert a size with kb,mb or gb suffix to the amount of bytes
+     *
+     * @param size The size fe. 500mb
+     * @param def  The value to return if it can't be parsed
+     * @return The amount of bytes
+     */
+    public static long parseSize(String size, long def) {
+        size = size.toLowerCase().replace("b", "").trim();
+        long multiplier = 1;
+        if (size.endsWith("k"))
+            multiplier = 1024;
+        if (size.endsWith("m"))
+            multiplier = 1024 * 1024;
+        if (size.endsWith("g"))
+            multiplier = 1024 * 1024 * 1024;
+        if (multiplier != 1)
+            size = size.substring(0, size.length() - 1);
+        var value = NumberUtils.toLong(size, -1);
+        return value <= 0 ? def : value * multiplier;
+    }
+
+    /**
+     * Check the folder for segments left from a previous run and restore the read position
+     *
+     * @return True if the spool is usable
+     */
+    public boolean open() {
+        try {
+            Files.createDirectories(folder);
+            var pos = folder.resolve("position");
+            if (Files.exists(pos)) {
+                var split = Files.readString(pos).trim().split(",");
+                readSegment = NumberUtils.toInt(split[0], 0);
+                readOffset = split.length > 1 ? NumberUtils.toLong(split[1], 0) : 0;
+            }
+            try (var list = Files.list(folder)) {
+                for (var seg : list.filter(p -> p.toString().endsWith(EXT)).toList()) {
+                    var nr = segmentNumber(seg);
+                    if (nr < readSegment) { // Already replayed but not deleted
+                        Files.deleteIfExists(seg);
+                        continue;
+                    }
+                    writeSegment = Math.max(writeSegment, nr);
+                    bytes += Files.size(seg);
+                }
+            }
+            bytes -= repairTail();
+            if (Files.exists(segment(readSegment)))
+                bytes -= readOffset; // Already replayed
+            countWaiting();
+            if (depth != 0)
+                Logger.info(id + "(db) -> Spool contains " + depth + " records from a previous run.");
+            return true;
+        } catch (IOException e) {
+            Logger.error(id + "(db) -> Failed to open the spool at " + folder + " -> " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static int segmentNumber(Path seg) {
+        var name = seg.getFileName().toString();
+        return NumberUtils.toInt(name.substring(0, name.length() - EXT.length()), -1);
+    }
+
+    private Path segment(int nr) {
+        return folder.resolve(String.format("%08d", nr) + EXT);
+    }
+
+    /**
+     * Cut off a record that was only partly written to the last segment, fe. because of a crash during the write.
+     * Otherwise every record appended after it would be read from the wrong offset.
+     *
+     * @return The amount of bytes removed
+     */
+    private long repairTail() throws IOException {
+        var path = segment(writeSegment);
+        if (Files.notExists(path))
+            return 0;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long pos = 0;
+            var length = ByteBuffer.allocate(4);
+            while (pos + 4 <= size) {
+                length.clear();
+                channel.read(length, pos);
+                int len = length.getInt(0);
+                if (len < MIN_RECORD || pos + 4 + len > size) // Garbage or cut off
+                    break;
+                pos += 4 + len;
+            }
+            if (pos == size)
+                return 0;
+            Logger.warn(id + "(db) -> Spool segment " + path.getFileName() + " ends with a partial record, removed "
+                    + (size - pos) + " bytes");
+            channel.truncate(pos);
+            channel.force(false);
+            if (writeSegment == readSegment && readOffset > pos)
+                readOffset = pos;
+            return size - pos;
+        }
+    }
+
+    /**
+     * Go through the waiting records once to know the depth and the oldest timestamp
+     */
+    private void countWaiting() throws IOException {
+        depth = 0;
+        oldestStamp = 0;
+        for (int seg = readSegment; seg <= writeSegment; seg++) {
+            var path = segment(seg);
+            if (Files.notExists(path))
+                continue;
+            try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                if (seg == readSegment)
+                    in.skipNBytes(readOffset);
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (depth == 0)
+                        oldestStamp = in.readLong();
+                    else
+                        in.skipNBytes(8);
+                    in.skipNBytes(length - 8);
+                    depth++;
+                }
+            }
+        }
+    }
+
+    /* ******************************************** W R I T E ************************************************** */
+
+    /**
+     * Add the records of a single prep to the spool, the data is forced to disk once for all of them
+     *
+     * @param table   The name of the table
+     * @param prep    The id of the prep
+     * @param records The records to add
+     * @return The amount of records written, the rest was dropped because the spool is full
+     */
+    public synchronized int append(String table, String prep, List<Object[]> records) {
+        if (records.isEmpty())
+            return 0;
+        int written = 0;
+        long now = System.currentTimeMillis();
+        try {
+            var buffer = new ByteArrayOutputStream();
+            var out = new DataOutputStream(buffer);
+            for (var record : records) {
+                buffer.reset();
+                out.writeInt(0); // Placeholder for the length
+                out.writeLong(now);
+                writeText(out, table);
+                writeText(out, prep);
+                out.writeShort(record.length);
+                for (var value : record)
+                    writeValue(out, value);
+                var data = buffer.toByteArray();
+                ByteBuffer.wrap(data).putInt(0, data.length - 4);
+
+                if (bytes + data.length > maxBytes) {
+                    dropped += records.size() - written;
+                    Logger.error(id + "(db) -> Spool is full, dropped " + (records.size() - written) + " records for " + table);
+                    break;
+                }
+                var channel = getWriter(data.length);
+                channel.write(ByteBuffer.wrap(data));
+                bytes += data.length;
+                if (depth == 0)
+                    oldestStamp = now;
+                depth++;
+                written++;
+            }
+            if (writer != null)
+                writer.force(false); // One sync for the whole batch
+        } catch (IOException e) {
+            Logger.error(id + "(db) -> Failed to write to spool -> " + e.getMessage());
+        }
+        spooled += written;
+        return written;
+    }
+
+    private FileChannel getWriter(int length) throws IOException {
+        if (writer != null && writer.size() + length > segmentBytes && writer.size() != 0) {
+            writer.force(false);
+            writer.close();
+            writer = null;
+            writeSegment++;
+        }
+        if (writer == null)
+            writer = FileChannel.open(segment(writeSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        return writer;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer i) {
+            out.writeByte(INT);
+            out.writeInt(i);
+        } else if (value instanceof Long l) {
+            out.writeByte(LONG);
+            out.writeLong(l);
+        } else if (value instanceof Double d) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(d);
+        } else if (value instanceof OffsetDateTime odt) {
+            out.writeByte(OFFSET_DT);
+            out.writeLong(odt.toInstant().toEpochMilli());
+            out.writeInt(odt.getOffset().getTotalSeconds());
+        } else if (value instanceof LocalDateTime ldt) {
+            out.writeByte(LOCAL_DT);
+            out.writeLong(ldt.toInstant(ZoneOffset.UTC).toEpochMilli());
+        } else if (value instanceof Timestamp ts) { // OffsetDateTime after it was prepared for a failed batch
+            out.writeByte(LOCAL_DT);
+            out.writeLong(ts.toLocalDateTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+        } else {
+            out.writeByte(TEXT);
+            writeText(out, String.valueOf(value));
+        }
+    }
+
+    /* Length and bytes instead of writeUTF, that one is limited to 64kB */
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        var data = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+
+    /* ********************************************* R E A D *************************************************** */
+
+    /**
+     * Read the oldest records from the spool without removing them, once they are committed they need to be
+     * acknowledged with ack. Peeking again without an ack returns the same records.
+     *
+     * @param max The maximum amount to read
+     * @return The records in the order they were added
+     */
+    public synchronized List<Record> peek(int max) {
+        var records = new ArrayList<Record>();
+        peeked.clear();
+        try {
+            if (writer != null)
+                writer.force(false);
+            int seg = readSegment;
+            long offset = readOffset;
+            while (records.size() < max && records.size() < depth) {
+                var path = segment(seg);
+                if (Files.notExists(path) || Files.size(path) <= offset) {
+                    if (seg >= writeSegment) // Nothing left
+                        break;
+                    seg++;
+                    offset = 0;
+                    continue;
+                }
+                long size = Files.size(path);
+                try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                    in.skipNBytes(offset);
+                    while (records.size() < max && offset < size) {
+                        int length = in.readInt();
+                        records.add(readRecord(in));
+                        offset += 4 + length;
+                        peeked.add(new long[]{seg, offset, 4 + length});
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Logger.error(id + "(db) -> Failed to read from spool -> " + e.getMessage());
+            records.subList(peeked.size(), records.size()).clear(); // Only keep the ones that were fully read
+        }
+        return records;
+    }
+
+    /**
+     * Remove the oldest records of the last peek from the spool, because they are committed
+     *
+     * @param count The amount of records, counted from the start of the last peek
+     */
+    public synchronized void ack(int count) {
+        count = Math.min(count, peeked.size());
+        if (count <= 0)
+            return;
+        for (int a = 0; a < count; a++)
+            bytes -= peeked.get(a)[2];
+        var last = peeked.get(count - 1);
+        peeked.clear(); // The positions are no longer valid
+        depth -= count;
+        replayed += count;
+        try {
+            while (readSegment < last[0]) // Fully replayed
+                Files.deleteIfExists(segment(readSegment++));
+            readOffset = last[1];
+            if (depth > 0) {
+                peekOldest();
+            } else { // Everything replayed, start a new segment
+                oldestStamp = 0;
+                close();
+                Files.deleteIfExists(segment(readSegment));
+                writeSegment++;
+                readSegment = writeSegment;
+                readOffset = 0;
+                bytes = 0;
+            }
+            Files.writeString(folder.resolve("position"), readSegment + "," + readOffset);
+        } catch (IOException e) {
+            Logger.error(id + "(db) -> Failed to update the spool position -> " + e.getMessage());
+        }
+    }
+
+    private static Record readRecord(DataInputStream in) throws IOException {
+        var stamp = in.readLong();
+        var table = readText(in);
+        var prep = readText(in);
+        var values = new Object[in.readShort()];
+        for (int a = 0; a < values.length; a++) {
+            values[a] = switch (in.readByte()) {
+                case INT -> in.readInt();
+                case LONG -> in.readLong();
+                case DOUBLE -> in.readDouble();
+                case TEXT -> readText(in);
+                case OFFSET_DT -> OffsetDateTime.ofInstant(Instant.ofEpochMilli(in.readLong()),
+                        ZoneOffset.ofTotalSeconds(in.readInt()));
+                case LOCAL_DT -> LocalDateTime.ofInstant(Instant.ofEpochMilli(in.readLong()), ZoneOffset.UTC);
+                default -> null;
+            };
+        }
+        return new Record(table, prep, stamp, values);
+    }
+
+    private void peekOldest() throws IOException {
+        var path = segment(readSegment);
+        long offset = readOffset;
+        if (Files.size(path) <= offset) { // Next one is in the following segment
+            path = segment(readSegment + 1);
+            offset = 0;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            in.skipNBytes(offset + 4);
+            oldestStamp = in.readLong();
+        }
+    }
+
+    /* ******************************************** S T A T U S ************************************************ */
+    public boolean hasRecords() {
+        return depth > 0;
+    }
+
+    public long depth() {
+        return depth;
+    }
+
+    /**
+     * Get the age of the oldest record waiting in the spool
+     *
+     * @return The age in millis or 0 if the spool is empty
+     */
+    public long lag() {
+        return oldestStamp == 0 ? 0 : System.currentTimeMillis() - oldestStamp;
+    }
+
+    /**
+     * Check if the spool is using more than 80% of the budget or already had to drop records
+     */
+    public boolean needsAttention() {
+        return dropped != 0 || bytes > maxBytes * 0.8;
+    }
+
+    public String getStatus() {
+        return "spool " + depth + " rec, " + (bytes / 1024) + "/" + (maxBytes / 1024) + "kB"
+                + (depth == 0 ? "" : ", lag " + TimeTools.convertPeriodToString(lag() / 1000, TimeUnit.SECONDS))
+                + ", replayed " + replayed + "/" + spooled + (dropped == 0 ? "" : ", dropped " + dropped);
+    }
+
+    public synchronized void close() {
+        try {
+            if (writer != null)
+                writer.close();
+        } catch (IOException e) {
+            Logger.error(id + "(db) -> Failed to close spool -> " + e.getMessage());
+        }
+        writer = null;
+    }
+}
@@ -11,6 +11,7 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.Instant;
@@ -20,6 +21,7 @@
 
 public class SqlTable{
 
+    private static final int MAX_PARAMETERS = 32766; // Max amount of parameters in a single sqlite statement
     private final HashMap<String, SqlTableFab.PrepStatement> preps = new HashMap<>();
     private final String tableName;
     private final ArrayList<SqlColumn> columns = new ArrayList<>();
@@ -245,7 +247,10 @@ public String toString() {
     }
 
     public int getRecordCount() {
-        return preps.values().stream().mapToInt(SqlTableFab.PrepStatement::recordSize).sum();
+        int total = 0;
+        for (var prep : preps.values())
+            total += prep.recordSize();
+        return total;
     }
     public boolean hasRecords(){
         return preps.values().stream().anyMatch(SqlTableFab.PrepStatement::hasRecords);
@@ -273,43 +278,124 @@ public String getPreparedStatement() {
         return prep.getStatement();
     }
     public int fillStatement( String id, PreparedStatement ps ) {
+        return fillStatement(id, ps, Integer.MAX_VALUE);
+    }
+    /**
+     * Bind the oldest pending records of a prep to the statement
+     *
+     * @param id  The id of the prep
+     * @param ps  The statement to fill
+     * @param max The maximum amount of records to bind
+     * @return The amount of records or -1 if binding failed
+     */
+    public int fillStatement( String id, PreparedStatement ps, int max ) {
         SqlTableFab.PrepStatement prep = preps.get(id);
         if( prep==null || ps==null)
             return -1;
+        try {
+            return bindEach(id, prep.drainBatch(max), ps);
+        } catch (Exception e) {
+            Logger.error(tableName + ":" + (id.isEmpty() ? "def" : id) + " -> Failed to bind records -> " + e.getMessage());
+            prep.requeueTemp(); // Keep them for the next attempt
+            return -1;
+        }
+    }
 
-        int count=0;
-        var tempRecords = prep.drainRecords();
-        for (int a = 0; a < tempRecords.size(); a++) { //foreach can cause concurrency issues
+    /**
+     * Bind the records one at a time, the ones that fail are logged and removed from the batch so they don't block
+     * the next flushes
+     *
+     * @param id    The id of the prep
+     * @param batch The drained records
+     * @param ps    The statement to fill
+     * @return The amount of records bound
+     */
+    private int bindEach(String id, ColumnBatch batch, PreparedStatement ps) throws SQLException {
+        var failed = new BitSet();
+        int bound = batch.bindEach(ps, (row, e) -> {
+            failed.set(row);
+            Logger.error(tableName + ":" + (id.isEmpty() ? "def" : id) + " -> Dropped record that couldn't be bound -> " + e.getMessage());
+        });
+        if (!failed.isEmpty())
+            batch.removeRows(failed);
+        return bound;
+    }
+    /**
+     * Get the amount of records that fit in a single multi row insert, limited by the max amount of parameters
+     *
+     * @param id     The id of the prep
+     * @param wanted The amount requested
+     * @return The amount that can be used
+     */
+    public int getMultiRowCount(String id, int wanted) {
+        int width = getPrep(id).map(p -> p.getIndexes().size()).orElse(1);
+        return Math.max(1, Math.min(wanted, MAX_PARAMETERS / Math.max(1, width)));
+    }
 
-            Object[] d = tempRecords.get(a);
-            if( d==null ){
-                Logger.error(tableName + ":" + (id.isEmpty() ? "def" : id) + " -> Asked for a record at " + a + " which is null... skipping");
-                continue;
-            }
-            int index = 0;
+    /**
+     * Get the insert statement that inserts multiple records at once, so INSERT ... VALUES (?,?),(?,?) and so on
+     *
+     * @param id   The id of the prep
+     * @param rows The amount of records per insert
+     * @return The statement or an empty string if the prep has no statement
+     */
+    public String getMultiRowStatement(String id, int rows) {
+        var single = getPreparedStatement(id);
+        int values = single.lastIndexOf("VALUES (");
+        if (values == -1)
+            return "";
+        var group = single.substring(values + 7, single.lastIndexOf(')') + 1);
+        var join = new StringJoiner(",", single.substring(0, values + 7), ";");
+        for (int a = 0; a < rows; a++)
+            join.add(group);
+        return join.toString();
+    }
+
+    /**
+     * Fill the statements for a multi row insert, the full groups go to the multi row statement and the rest to the
+     * regular one.
+     *
+     * @param id     The id of the prep
+     * @param rows   The amount of records per multi row insert
+     * @param multi  The multi row statement
+     * @param single The regular statement
+     * @param max    The maximum amount of records to bind
+     * @return The amount of records or -1 if binding failed
+     */
+    public int fillMultiRow(String id, int rows, PreparedStatement multi, PreparedStatement single, int max) {
+        SqlTableFab.PrepStatement prep = preps.get(id);
+        if (prep == null)
+            return -1;
+        try {
+            var batch = prep.drainBatch(max);
+            int full = batch.size() - batch.size() % rows;
             try {
-                for ( int colIndex : prep.getIndexes() ) {
-                    SqlColumn c = columns.get(colIndex);
-                    try{
-                        if( d[index] instanceof OffsetDateTime )
-                            d[index] = asTimestamp((OffsetDateTime) d[index]);
-                        ps.setObject( index+1,d[index] );
-                        index++;
-                    }catch( java.lang.ClassCastException | NullPointerException e){
-                        Logger.error(tableName + ":" + id + " -> Failed to cast " + d[index] + " to " + c.type);
-                        Logger.error(e);
-                        break;
-                    }                    
-                }
-                count++;                
-                ps.addBatch();
-            } catch ( Exception e ) {
-                Logger.error(e);
-                return -1;
-            } 
+                batch.bind(multi, 0, full, rows);
+                batch.bind(single, full, batch.size(), 1);
+                return batch.size();
+            } catch (SQLException | RuntimeException e) { // Can't tell which record, so bind them one at a time instead
+                multi.clearParameters();
+                multi.clearBatch();
+                single.clearParameters();
+                single.clearBatch();
+                return bindEach(id, batch, single);
+            }
+        } catch (Exception e) {
+            Logger.error(tableName + ":" + (id.isEmpty() ? "def" : id) + " -> Failed to bind records -> " + e.getMessage());
+            prep.requeueTemp(); // Keep them for the next attempt
+            return -1;
         }
-        return count;
     }
+
+    /**
+     * Put the records of the last flush back in the buffer, fe. to retry them in another way
+     *
+     * @param id The id of the prep
+     */
+    public void requeueTempRecords(String id) {
+        getPrep(id).ifPresent(SqlTableFab.PrepStatement::requeueTemp);
+    }
+
     public void dumpData(String id, Path path) {
         SqlTableFab.PrepStatement prep = preps.get(id);
         if( prep==null )
@@ -328,6 +414,60 @@ public void dumpData(String id, Path path) {
             FileTools.appendToTxtFile(path, join + System.lineSeparator());
         }
     }
+    /**
+     * Move the buffered records of a prep to the spool
+     *
+     * @param id     The id of the prep
+     * @param spool  The spool to write to
+     * @param failed True if the batch that was being inserted should be spooled first
+     * @return The amount of records spooled
+     */
+    public int spoolData(String id, SqlSpool spool, boolean failed) {
+        SqlTableFab.PrepStatement prep = preps.get(id);
+        if (prep == null)
+            return 0;
+        int cnt = 0;
+        if (failed)
+            cnt += spool.append(tableName, id, prep.getTempRecords());
+        cnt += spool.append(tableName, id, prep.drainRecords());
+        prep.clearTempRecords();
+        return cnt;
+    }
+
+    /**
+     * Add a record read back from the spool to the buffer of a prep
+     *
+     * @param id     The id of the prep
+     * @param record The values of the record
+     * @return True if added
+     */
+    public boolean addSpooled(String id, Object[] record) {
+        return getPrep(id).map(p -> p.addReplayed(record)).orElse(false);
+    }
+
+    /**
+     * Hold the records that are added to the preps from now on, so during a replay only spooled records are flushed
+     */
+    public void holdRecords() {
+        preps.values().forEach(SqlTableFab.PrepStatement::hold);
+    }
+
+    /**
+     * Stop holding the records, the held ones go after those still buffered
+     */
+    public void releaseRecords() {
+        preps.values().forEach(SqlTableFab.PrepStatement::release);
+    }
+
+    /**
+     * Remove the replayed records of a prep that weren't inserted, those are still in the spool
+     *
+     * @param id The id of the prep
+     * @return The amount of records removed
+     */
+    public int discardReplayed(String id) {
+        return getPrep(id).map(SqlTableFab.PrepStatement::discard).orElse(0);
+    }
     public static Timestamp asTimestamp(OffsetDateTime offsetDateTime) {
         if (offsetDateTime != null)
             return Timestamp.valueOf(offsetDateTime.atZoneSameInstant(ZoneOffset.UTC).toLocalDateTime());
@@ -354,7 +494,8 @@ public int removeBadRecordsAndQueue(String id, long[] updateCounts) {
                 offset++;
             }
         }
-        prep.requeueTemp();
+        prep.clearTempRecords();
+        prep.addAll(dd);
         return offset;
     }
 
@@ -364,12 +505,23 @@ private String badQuery(SqlTableFab.PrepStatement prep, Object[] bad) {
             join.add(String.valueOf(o));
         return join.toString();
     }
-    public int doInsert(Object[] values){
-        return getPrep("").map(p -> p.add(values) ? 1 : 0).orElse(-1);
+    /**
+     * Check if the values can be inserted with the default prep
+     *
+     * @return -1=No such statement,0=bad amount of values,1=ok
+     */
+    public int checkRecord(Object[] values) {
+        return getPrep("").map(p -> p.getIndexes().size() == values.length ? 1 : 0).orElse(-1);
     }
 
-
-    public boolean insertFromStore(String id ){
+    /**
+     * Write the current values of the vals bound to the columns to the batch
+     *
+     * @param id     The id of the prep
+     * @param target The batch to write to
+     * @return True if written
+     */
+    public boolean insertFromStore(String id, ColumnBatch target) {
         if( stores.isEmpty())
             return false;
 
@@ -378,31 +530,32 @@ public boolean insertFromStore(String id ){
             return false;
         }
 
-        var store = stores.get(id);
-        var rt = store.getCurrentValues(); // Get the values of the rtvals
-
         SqlTableFab.PrepStatement prep = preps.get(id);
         if( prep==null){
             Logger.error(tableName + " -> No such prep: " + id);
             return false;
         }
-
-        Object[] record = new Object[columns.size()];
-        int index=-1;
-        for( int colPos : prep.getIndexes() ){
-            SqlColumn col = columns.get(colPos);
-            index++;
-
-            Object val = col.fetchData(id, rt.get(index));
-            if (val != null) {
-                record[index] = val;
-            }else{
-                Logger.error(id + " -> Couldn't find " + col.rtval + " for " + tableName + " aborted insert.");
-                return false;
-            }
+        // The vals were bound to the columns when the store was build
+        int missing = prep.writeRecord(columns, target);
+        if (missing != -1) {
+            Logger.error(id + " -> Couldn't find " + columns.get(missing).rtval + " for " + tableName + " aborted insert.");
+            return false;
         }
+        return true;
+    }
+
+    /**
+     * Add the record in the batch to the buffer of the prep
+     *
+     * @param id     The id of the prep
+     * @param record Batch with the record as first one
+     * @return True if added
+     */
+    public boolean addRecord(String id, ColumnBatch record) {
+        if (!getPrep(id).map(p -> p.addRecord(record)).orElse(false))
+            return false;
         prepCount++;
-        return prep.add(record);
+        return true;
     }
 
     public long getPrepCount(){
@@ -414,13 +567,13 @@ public long getPrepCount(){
      * Gives all the data as strings to be parsed to the correct object, so it can use the prepared statement
      * @param id The id of the prepared statement to use
      * @param data The array of data
-     * @return True if it works
+     * @return The record or null if the prep doesn't exist
      */
-    public boolean parsePrep( String id, String[] data ){
+    public Object[] parseRecord( String id, String[] data ){
         SqlTableFab.PrepStatement prep = preps.get(id);
         if( prep==null){
             Logger.error(tableName + " -> No such prep: " + id);
-            return false;
+            return null;
         }
         int dataIndex=0;
         int recordIndex=0;
@@ -456,8 +609,7 @@ public boolean parsePrep( String id, String[] data ){
                 Logger.error(id+" -> Null pointer when looking for at "+dataIndex + " type:"+col.type);
             }
         }
-        prepCount++;
-        return prep.add(record);
+        return record;
     }
 
     private void buildDefStatement(){
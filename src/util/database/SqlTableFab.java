@@ -10,7 +10,6 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.LinkedBlockingQueue;
 
 public class SqlTableFab {
 
@@ -132,6 +131,7 @@ private static ValStore buildStore(Rtvals rtvals, String tableName, ArrayList<Sq
         for (int colPos : prep.getIndexes()) {
             SqlColumn col = columns.get(colPos);
             String ref = col.rtval;
+            int size = store.size();
             try {
                 switch (col.type) {
                     case EPOCH -> store.addEmptyVal();
@@ -159,6 +159,8 @@ private static ValStore buildStore(Rtvals rtvals, String tableName, ArrayList<Sq
             } catch (NullPointerException e) {
                 Logger.error(tableName + " -> Null pointer when looking for " + ref + " type:" + col.type);
             }
+            // Bind the val to the column, so inserts can read it directly
+            col.bind(store.size() > size ? store.getVal(store.size() - 1) : null);
         }
         return store;
     }
@@ -273,39 +275,70 @@ public static boolean addBlankToXML(XMLfab fab, String tableName, String format)
     }
 
     public static class PrepStatement {
-        LinkedBlockingQueue<Object[]> data = new LinkedBlockingQueue<>();
+        private ColumnBatch pending = new ColumnBatch(); // Records waiting for the next flush
+        private ColumnBatch drained = new ColumnBatch(); // Records of the last flush, swapped with pending to reuse both
+        private ColumnBatch held;                        // Records that arrived during a replay round, null if not holding
+        private volatile int count = 0; // Amount of pending records, so it can be read without locking
         ArrayList<Integer> indexes = new ArrayList<>(); // which columns
-        ArrayList<Object[]> tempRecords = new ArrayList<>();
         String statement = "";
 
         public int recordSize() {
-            return data.size();
+            return count;
         }
 
         public boolean hasRecords() {
-            return !data.isEmpty();
+            return count != 0;
+        }
+
+        /**
+         * Swap the buffers, so the pending records can be bound while new ones are added
+         *
+         * @return The batch with the records that were pending
+         */
+        synchronized ColumnBatch drainBatch() {
+            drained.clear();
+            var batch = pending;
+            pending = drained;
+            drained = batch;
+            count = 0;
+            return batch;
+        }
+
+        /**
+         * Take at most max of the oldest pending records, the rest stays pending
+         *
+         * @param max The maximum amount of records to take
+         * @return The batch with the records that were taken
+         */
+        synchronized ColumnBatch drainBatch(int max) {
+            if (pending.size() <= max)
+                return drainBatch();
+            drained.clear();
+            drained.appendRange(pending, 0, max);
+            pending.removeFirst(max);
+            count = pending.size();
+            return drained;
         }
 
         public ArrayList<Object[]> drainRecords() {
-            tempRecords.clear();
-            data.drainTo(tempRecords);
-            return tempRecords;
+            return drainBatch().toRows();
         }
 
-        public void clearTempRecords() {
-            tempRecords.clear();
+        public synchronized void clearTempRecords() {
+            drained.clear();
         }
 
-        public ArrayList<Object[]> getTempRecords() {
-            return tempRecords;
+        public synchronized ArrayList<Object[]> getTempRecords() {
+            return drained.toRows();
         }
 
-        public void requeueTemp() {
-            if (data.addAll(tempRecords)) {
-                tempRecords.clear();
-            } else {
-                Logger.error("Failed to restore temps.");
-            }
+        public synchronized void requeueTemp() {
+            drained.appendAll(pending); // The drained ones are older, so they go first
+            var batch = pending;
+            pending = drained;
+            drained = batch;
+            drained.clear();
+            count = pending.size();
         }
 
         public void addColumnIndex(int index) {
@@ -316,14 +349,100 @@ public List<Integer> getIndexes() {
             return indexes;
         }
 
-        public boolean add(Object[] d) {
+        public synchronized boolean add(Object[] d) {
             if (d.length != indexes.size())
                 return false;
-            return data.add(d);
+            if (held != null) {
+                held.append(d);
+                return true;
+            }
+            pending.append(d);
+            count = pending.size();
+            return true;
+        }
+
+        /**
+         * Add a record read back from the spool, this one isn't held during a replay round
+         *
+         * @return False if it hasn't got the right amount of columns
+         */
+        synchronized boolean addReplayed(Object[] d) {
+            if (d.length != indexes.size())
+                return false;
+            pending.append(d);
+            count = pending.size();
+            return true;
+        }
+
+        /**
+         * Keep the records that arrive from now on apart, so only the replayed ones are in the buffer
+         */
+        synchronized void hold() {
+            if (held == null)
+                held = new ColumnBatch();
+        }
+
+        /**
+         * Put the held records after the pending ones and stop holding
+         */
+        synchronized void release() {
+            if (held == null)
+                return;
+            pending.appendAll(held);
+            held = null;
+            count = pending.size();
+        }
+
+        /**
+         * Remove the records that are pending or being flushed, used for replayed records that weren't committed
+         *
+         * @return The amount of records removed
+         */
+        synchronized int discard() {
+            int removed = pending.size() + drained.size();
+            pending.clear();
+            drained.clear();
+            count = 0;
+            return removed;
+        }
+
+        /**
+         * Write a record with the current values of the vals bound to the columns, without creating objects for them
+         *
+         * @param columns All the columns of the table
+         * @param target  The batch to write the record to
+         * @return -1 if written, otherwise the index of the column that had no value
+         */
+        int writeRecord(List<SqlColumn> columns, ColumnBatch target) {
+            target.beginRecord(indexes.size());
+            for (int a = 0; a < indexes.size(); a++) {
+                if (!columns.get(indexes.get(a)).writeTo(target, a))
+                    return indexes.get(a); // Record wasn't ended, so the next one overwrites it
+            }
+            target.endRecord();
+            return -1;
+        }
+
+        /**
+         * Add the first record of the batch
+         *
+         * @return False if it hasn't got the right amount of columns
+         */
+        synchronized boolean addRecord(ColumnBatch record) {
+            if (record.width() != indexes.size())
+                return false;
+            if (held != null) {
+                held.appendRow(record, 0);
+                return true;
+            }
+            pending.appendRow(record, 0);
+            count = pending.size();
+            return true;
         }
 
-        public void addAll(ArrayList<Object[]> records) {
-            data.addAll(records);
+        public synchronized void addAll(ArrayList<Object[]> records) {
+            records.forEach(pending::append);
+            count = pending.size();
         }
 
         public void setStatement(String stat) {
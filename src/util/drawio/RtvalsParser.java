@@ -88,6 +88,7 @@ public static RealVal doRealVal(Drawio.DrawioCell cell, TaskParser.TaskTools too
         } else {
             var reducer = Reducer.getDoubleReducer(cell.getParam("reducer", "avg"), cell.getParam("def", 0), window);
             var ra = new RealValAggregator(group, name, unit, reducer, window);
+            ra.setIncremental(Reducer.getDoubleWindowReducer(cell.getParam("reducer", "avg"), cell.getParam("def", 0), window));
             ra.setScale(cell.getParam("scale", -1));
             Logger.info("Building RealValAggregator " + ra.id());
             rv = ra;
@@ -115,6 +116,7 @@ public static IntegerVal doIntegerVal(Drawio.DrawioCell cell, TaskParser.TaskToo
         } else {
             var reducer = Reducer.getIntegerReducer(cell.getParam("reducer", "sum"), cell.getParam("def", 0), window);
             var ri = new IntegerValAggregator(group, name, unit, reducer, window);
+            ri.setIncremental(Reducer.getIntegerWindowReducer(cell.getParam("reducer", "sum"), cell.getParam("def", 0), window));
 
             Logger.info("Building IntegerValAggregator " + ri.id());
             iv = ri;
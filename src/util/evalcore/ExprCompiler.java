@@ -0,0 +1,473 @@
+package util.evalcore;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.tinylog.Logger;
+import util.data.procs.DoubleArrayToDouble;
+import util.math.MathUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles the ops of a parsed expression to a hidden class with a single straight-line method instead of a lambda
+ * per op, this allows the JIT to inline the whole expression.
+ * The results are cached on the normalized expression, because a lot of vals share the same formula.
+ */
+public class ExprCompiler {
+
+    /**
+     * A single op, an index of -1 means the constant is used instead
+     */
+    record Op(String op, int i1, double d1, int i2, double d2) {
+    }
+
+    private static final ConcurrentHashMap<String, Optional<DoubleArrayToDouble>> cache = new ConcurrentHashMap<>();
+    private static final String HELPERS = "util/evalcore/ExprCompiler";
+    private static final String HELPER_DESC = "(DD)D";
+    private static boolean enabled = true;
+
+    public static void setEnabled(boolean enable) {
+        if (enabled != enable)
+            Logger.info("Compiling of math and logic expressions is " + (enable ? "enabled" : "disabled"));
+        enabled = enable;
+    }
+
+    public static int getCacheSize() {
+        return cache.size();
+    }
+
+    /* ******************************************** E N T R Y ************************************************** */
+
+    /**
+     * Compile the sub expressions as produced by MathFab
+     *
+     * @param normalized The normalized expression, used as key for the cache
+     * @param subs       The sub expressions, first, second and operand
+     * @param refCount   The amount of entries in the scratchpad before the results of the ops
+     * @return The compiled expression or an empty optional if not possible
+     */
+    static Optional<DoubleArrayToDouble> compileMath(String normalized, List<String[]> subs, int refCount) {
+        if (!enabled)
+            return Optional.empty();
+        return cache.computeIfAbsent("m" + refCount + ":" + normalized, key -> {
+            var ops = new ArrayList<Op>();
+            for (var sub : subs) {
+                var op = toMathOp(sub[0], sub[1], sub[2], refCount);
+                if (op == null)
+                    return Optional.empty();
+                ops.add(op);
+            }
+            return compile(key, ops, refCount, null);
+        });
+    }
+
+    /**
+     * Compile the blocks as produced by LogicFab
+     *
+     * @param normalized The normalized expression, used as key for the cache
+     * @param blocks     The parts of each block, first, operand, second
+     * @param logic      The logic that links the block with the next one, NaN for none, 1 for or and 0 for and
+     * @param refCount   The amount of entries in the scratchpad
+     * @return The compiled expression or an empty optional if not possible
+     */
+    static Optional<DoubleArrayToDouble> compileLogic(String normalized, List<String[]> blocks, double[] logic, int refCount) {
+        if (!enabled)
+            return Optional.empty();
+        return cache.computeIfAbsent("l" + refCount + ":" + normalized, key -> {
+            var ops = new ArrayList<Op>();
+            for (var parts : blocks) {
+                var op = toLogicOp(parts[0], parts[2], parts[1]);
+                if (op == null)
+                    return Optional.empty();
+                ops.add(op);
+            }
+            return compile(key, ops, refCount, logic);
+        });
+    }
+
+    /* ***************************************** C O N V E R T ************************************************* */
+
+    /**
+     * Convert to an op following the same rules as ParseTools.decodeDoublesMathOp
+     */
+    private static Op toMathOp(String first, String second, String op, int offset) {
+        var name = switch (op) {
+            case "+", "-", "*", "/", "%", "scale", "ln" -> op;
+            case "^" -> "powInt";
+            case "~" -> "absMin";
+            case "°" -> "angle";
+            case "<" -> "lt";
+            case ">" -> "gt";
+            case "<=" -> "le";
+            case ">=" -> "ge";
+            case "==" -> "eq";
+            case "!=" -> "ne";
+            default -> "";
+        };
+        return name.isEmpty() ? null : toOp(name, first, second, offset);
+    }
+
+    /**
+     * Convert to an op following the same rules as ParseTools.decodeDoublesOp with an offset of 0
+     */
+    private static Op toLogicOp(String first, String second, String op) {
+        if (first.startsWith("!")) {
+            op = "!";
+            first = first.substring(1);
+            second = "";
+        } else if (op.equalsIgnoreCase("!")) {
+            first = second.replace("!", "");
+            second = "";
+        }
+        if (second.isEmpty())
+            return toOp(op.equals("!") ? "not" : "copy", first, "0", 0);
+        if (first.isEmpty())
+            return toOp("copy", second, "0", 0);
+
+        var name = switch (op) {
+            case "+", "-", "*", "/", "%", "scale", "ln" -> op;
+            case "^" -> "pow";
+            case "diff", "~" -> "absDiff";
+            case "<" -> "lt";
+            case ">" -> "gt";
+            case "<=" -> "le";
+            case ">=" -> "ge";
+            case "==" -> "eq";
+            case "!=" -> "ne";
+            default -> "";
+        };
+        return name.isEmpty() ? null : toOp(name, first, second, 0);
+    }
+
+    private static Op toOp(String name, String first, String second, int offset) {
+        try {
+            int i1 = -1, i2 = -1;
+            double d1 = 0, d2 = 0;
+            if (NumberUtils.isCreatable(first)) {
+                d1 = NumberUtils.createDouble(first);
+            } else {
+                i1 = NumberUtils.createInteger(first.substring(1)) + (first.startsWith("o") ? offset : 0);
+            }
+            if (NumberUtils.isCreatable(second)) {
+                d2 = NumberUtils.createDouble(second);
+            } else {
+                i2 = NumberUtils.createInteger(second.substring(1)) + (second.startsWith("o") ? offset : 0);
+            }
+            return new Op(name, i1, d1, i2, d2);
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /* ***************************************** C O M P I L E ************************************************* */
+
+    /**
+     * Generate the hidden class and create an instance of it.
+     * Math writes the result of each op in the scratchpad (after the refs) like the lambdas do and returns the last.
+     * Logic combines the ops with the given logic and returns 1 if true and 0 if false.
+     */
+    private static Optional<DoubleArrayToDouble> compile(String key, List<Op> ops, int refCount, double[] logic) {
+        try {
+            var bytes = generate(ops, refCount, logic);
+            if (bytes.length == 0)
+                return Optional.empty();
+            var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            var constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class));
+            return Optional.of((DoubleArrayToDouble) constructor.invoke());
+        } catch (Throwable e) {
+            Logger.error("Failed to compile " + key + " -> " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static byte[] generate(List<Op> ops, int refCount, double[] logic) throws IOException {
+        if (ops.isEmpty() || refCount + ops.size() > Short.MAX_VALUE)
+            return new byte[0];
+
+        var cp = new ConstPool();
+        var thisClass = cp.cls("util/evalcore/CompiledExpression");
+        var superClass = cp.cls("java/lang/Object");
+        var iface = cp.cls("util/data/procs/DoubleArrayToDouble");
+        var objInit = cp.methodRef("java/lang/Object", "<init>", "()V");
+        var initName = cp.utf8("<init>");
+        var initDesc = cp.utf8("()V");
+        var applyName = cp.utf8("apply");
+        var applyDesc = cp.utf8("([D)D");
+        var codeName = cp.utf8("Code");
+
+        /* Body of apply */
+        var code = new ByteArrayOutputStream();
+        var c = new DataOutputStream(code);
+        for (int k = 0; k < ops.size(); k++) {
+            var op = ops.get(k);
+            if (!pushOperand(c, cp, op.i1(), op.d1(), refCount, k, logic == null)
+                    || !pushOperand(c, cp, op.i2(), op.d2(), refCount, k, logic == null))
+                return new byte[0];
+            switch (op.op()) {
+                case "+" -> c.writeByte(0x63); // dadd
+                case "-" -> c.writeByte(0x67); // dsub
+                case "*" -> c.writeByte(0x6B); // dmul
+                case "/" -> c.writeByte(0x6F); // ddiv
+                case "%" -> c.writeByte(0x73); // drem
+                case "copy" -> c.writeByte(0x58); // pop2, so only first remains
+                default -> {
+                    c.writeByte(0xB8); // invokestatic
+                    c.writeShort(cp.methodRef(HELPERS, op.op(), HELPER_DESC));
+                }
+            }
+            localOp(c, 0x39, k); // dstore
+        }
+        if (logic == null) { // Math, so write the results to the scratchpad and return the last one
+            for (int k = 0; k < ops.size(); k++) {
+                c.writeByte(0x2B); // aload_1
+                c.writeByte(0x11); // sipush
+                c.writeShort(refCount + k);
+                localOp(c, 0x18, k); // dload
+                c.writeByte(0x52); // dastore
+            }
+            localOp(c, 0x18, ops.size() - 1);
+        } else { // Logic, so fold the results starting from the last one
+            var eq = cp.methodRef(HELPERS, "eq", HELPER_DESC);
+            var or = cp.methodRef(HELPERS, "or", HELPER_DESC);
+            c.writeByte(0x0E); // dconst_0, nothing was true
+            for (int k = ops.size() - 1; k >= 0; k--) {
+                var last = Double.isNaN(logic[k]);
+                if (last) // No logic after it, so the rest doesn't matter
+                    c.writeByte(0x58); // pop2
+                localOp(c, 0x18, k);
+                c.writeByte(0x0F); // dconst_1
+                c.writeByte(0xB8);
+                c.writeShort(eq);
+                if (!last) {
+                    c.writeByte(0xB8);
+                    c.writeShort(or);
+                }
+            }
+        }
+        c.writeByte(0xAF); // dreturn
+        if (code.size() > 65535)
+            return new byte[0];
+
+        /* The class itself */
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);  // minor
+        out.writeShort(61); // major, java 17
+        cp.writeTo(out);
+        out.writeShort(0x0031); // public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(iface);
+        out.writeShort(0); // No fields
+        out.writeShort(2); // Two methods, constructor and apply
+
+        out.writeShort(0x0001);
+        out.writeShort(initName);
+        out.writeShort(initDesc);
+        writeCode(out, codeName, 1, 1, new byte[]{0x2A, (byte) 0xB7, (byte) (objInit >> 8), (byte) objInit, (byte) 0xB1});
+
+        out.writeShort(0x0001);
+        out.writeShort(applyName);
+        out.writeShort(applyDesc);
+        writeCode(out, codeName, 6, 2 + 2 * ops.size(), code.toByteArray());
+
+        out.writeShort(0); // No class attributes
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Push an operand on the stack, either a constant, an element of the scratchpad or the result of an earlier op
+     *
+     * @return False if it refers to something that isn't available
+     */
+    private static boolean pushOperand(DataOutputStream c, ConstPool cp, int index, double value, int refCount, int current, boolean math) throws IOException {
+        if (index == -1) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                c.writeByte(0x0E); // dconst_0
+            } else if (value == 1.0) {
+                c.writeByte(0x0F); // dconst_1
+            } else {
+                c.writeByte(0x14); // ldc2_w
+                c.writeShort(cp.dbl(value));
+            }
+        } else if (index < refCount) {
+            c.writeByte(0x2B); // aload_1
+            c.writeByte(0x11); // sipush
+            c.writeShort(index);
+            c.writeByte(0x31); // daload
+        } else if (math && index - refCount < current) {
+            localOp(c, 0x18, index - refCount); // dload
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write a dload or dstore for the local that holds the result of the given op
+     */
+    private static void localOp(DataOutputStream c, int opcode, int op) throws IOException {
+        int slot = 2 + 2 * op; // 0 is this and 1 the array
+        if (slot <= 255) {
+            c.writeByte(opcode);
+            c.writeByte(slot);
+        } else {
+            c.writeByte(0xC4); // wide
+            c.writeByte(opcode);
+            c.writeShort(slot);
+        }
+    }
+
+    private static void writeCode(DataOutputStream out, int codeName, int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(1); // One attribute
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // No exceptions
+        out.writeShort(0); // No attributes
+    }
+
+    /**
+     * Minimal constant pool, only has the entry types needed by the generated class
+     */
+    private static class ConstPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final HashMap<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String text) throws IOException {
+            var index = entries.get("U" + text);
+            if (index != null)
+                return index;
+            out.writeByte(1);
+            out.writeUTF(text);
+            return add("U" + text, 1);
+        }
+
+        int cls(String name) throws IOException {
+            var index = entries.get("C" + name);
+            if (index != null)
+                return index;
+            var utf = utf8(name);
+            out.writeByte(7);
+            out.writeShort(utf);
+            return add("C" + name, 1);
+        }
+
+        int methodRef(String owner, String name, String desc) throws IOException {
+            var key = "M" + owner + "." + name + desc;
+            var index = entries.get(key);
+            if (index != null)
+                return index;
+            var cls = cls(owner);
+            var nameIndex = utf8(name);
+            var descIndex = utf8(desc);
+            out.writeByte(12); // NameAndType
+            out.writeShort(nameIndex);
+            out.writeShort(descIndex);
+            var nameType = add("N" + name + desc, 1);
+            out.writeByte(10);
+            out.writeShort(cls);
+            out.writeShort(nameType);
+            return add(key, 1);
+        }
+
+        int dbl(double value) throws IOException {
+            var key = "D" + Double.doubleToRawLongBits(value);
+            var index = entries.get(key);
+            if (index != null)
+                return index;
+            out.writeByte(6);
+            out.writeDouble(value);
+            return add(key, 2); // Doubles take two slots
+        }
+
+        private int add(String key, int slots) {
+            var index = count;
+            entries.put(key, index);
+            count += slots;
+            return index;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            target.write(bytes.toByteArray());
+        }
+    }
+
+    /* ***************************************** H E L P E R S ************************************************* */
+    /* Called by the generated classes, these mimic the lambdas made by ParseTools */
+    public static double powInt(double a, double b) {
+        return Double.compare(b, 0.5) == 0 ? Math.sqrt(a) : Math.pow(a, (int) b);
+    }
+
+    public static double pow(double a, double b) {
+        return Double.compare(b, 0.5) == 0 ? Math.sqrt(a) : Math.pow(a, b);
+    }
+
+    public static double absMin(double a, double b) {
+        return Math.abs(Math.min(a, b));
+    }
+
+    public static double absDiff(double a, double b) {
+        return Math.abs(a - b);
+    }
+
+    public static double scale(double a, double b) {
+        return MathUtils.roundDouble(a, (int) b);
+    }
+
+    public static double ln(double a, double b) {
+        return Math.log(b);
+    }
+
+    public static double angle(double a, double b) {
+        return MathUtils.calcAngleDoublesOp((int) a, b);
+    }
+
+    public static double not(double a, double b) {
+        return Double.compare(a, 1) >= 0 ? 0.0 : 1.0;
+    }
+
+    public static double or(double a, double b) {
+        return a == 1.0 || b == 1.0 ? 1.0 : 0.0;
+    }
+
+    public static double lt(double a, double b) {
+        return Double.compare(a, b) < 0 ? 1.0 : 0.0;
+    }
+
+    public static double gt(double a, double b) {
+        return Double.compare(a, b) > 0 ? 1.0 : 0.0;
+    }
+
+    public static double le(double a, double b) {
+        return Double.compare(a, b) <= 0 ? 1.0 : 0.0;
+    }
+
+    public static double ge(double a, double b) {
+        return Double.compare(a, b) >= 0 ? 1.0 : 0.0;
+    }
+
+    public static double eq(double a, double b) {
+        return Double.compare(a, b) == 0 ? 1.0 : 0.0;
+    }
+
+    public static double ne(double a, double b) {
+        return Double.compare(a, b) != 0 ? 1.0 : 0.0;
+    }
+}
@@ -16,6 +16,7 @@ private record LogicOperation(DoubleArrayToDouble func, double logic) {
 
     LogicOperation[] logicOps;
     double[] scratchpad;
+    DoubleArrayToDouble compiled; // All the ops compiled to a single method, null if not available
 
     LogicEvaluator( String ori, String normalized, String parseResult, int ops ){
         logicOps = new LogicOperation[ops];
@@ -27,6 +28,9 @@ private record LogicOperation(DoubleArrayToDouble func, double logic) {
     void addOp(int index, DoubleArrayToDouble func, double logic) {
         logicOps[index] = new LogicOperation(func,logic);
     }
+    void setCompiled(DoubleArrayToDouble compiled) {
+        this.compiled = compiled;
+    }
     void setRefLookup( Integer[] refLookup ){
         this.refLookup=refLookup;
         scratchpad = new double[refLookup.length];
@@ -67,6 +71,8 @@ private boolean buildScratchpad(double[] inputs){
     public boolean logicEval(double... inputs) {
         if( ! buildScratchpad(inputs) )
             return false;
+        if (compiled != null) // Returns 1 if true
+            return Double.compare(compiled.apply(scratchpad), 1.0) == 0;
 
         for( var op : logicOps ){
             var res = Double.compare( op.func().apply(scratchpad),1.0)==0;
@@ -112,7 +118,7 @@ public String getCurrentScratchpad(){
     public String getInfo(){
         var info = new StringJoiner("\r\n");
         info.add( "Original: "+originalExpression );
-        info.add( "Normalized: "+ normalizedExpression );
+        info.add( "Normalized: "+ normalizedExpression + (compiled != null ? " (compiled)" : ""));
         info.add( "Expected input: "+highestI+" items" );
         info.add( "");
         info.add( "Parse result before conversion" );
@@ -99,6 +99,8 @@ public static Optional<LogicEvaluator> parseComparison(String exp, Rtvals rtvals
         // Split the blocks in parts to easily convert to functions
         blocks.replaceAll(LogicFab::extractParts);
 
+        var logic = new double[blocks.size()];
+        var compile = true;
         for( int a=0;a<blocks.size();a++) {
             var parts = blocks.get(a);
 
@@ -114,7 +116,12 @@ public static Optional<LogicEvaluator> parseComparison(String exp, Rtvals rtvals
             if( parts[3].equals("&&"))
                 ss=0.0;
             logicEval.addOp(a,function,ss);
+            logic[a] = ss;
+            if (function == null)
+                compile = false;
         }
+        if (compile) // Try to replace the ops with a single compiled method
+            ExprCompiler.compileLogic(normalized, blocks, logic, refLookup.size()).ifPresent(logicEval::setCompiled);
         if( blocks.size()==1 ){
             Logger.info("Simple comparison -> " + ori);
         }
@@ -2,17 +2,21 @@
 
 import io.telnet.TelnetCodes;
 import org.tinylog.Logger;
+import util.data.procs.DoubleArrayToDouble;
 import util.data.procs.MathEvalForVal;
 import util.data.vals.NumericVal;
+import util.math.MathUtils;
 import util.tools.TimeTools;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.function.Function;
+import java.util.function.IntToDoubleFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,6 +25,12 @@ public class MathEvaluator extends BaseEvaluator implements MathEvalForVal, Eval
 
     Function<BigDecimal[], BigDecimal>[] ops;
     BigDecimal[] scratchpad;
+    // Fast path, same ops but working on doubles
+    DoubleArrayToDouble[] dOps;
+    double[] dScratchpad;
+    boolean exactOps = false; // True if an op relies on decimal precision or gets rounded (scale, %, /, ^ ...)
+    boolean useDoubles = false;
+    DoubleArrayToDouble compiled; // All the dOps compiled to a single method, null if not available
     int resultIndex = -1;
     int scale = -1;
     MathEvaluator next = null;
@@ -53,12 +63,24 @@ void setRefLookup(Integer[] refLookup) {
     void setIntermediateSteps(int steps) {
         ops = new Function[steps];
         scratchpad = new BigDecimal[steps + refLookup.length];
+        dOps = new DoubleArrayToDouble[steps];
+        dScratchpad = new double[steps + refLookup.length];
+        Arrays.fill(dScratchpad, Double.NaN);
     }
 
     void addOp(int index, Function<BigDecimal[], BigDecimal> func) {
         ops[index] = func;
     }
 
+    void addDoubleOp(int index, DoubleArrayToDouble func, boolean exact) {
+        dOps[index] = func;
+        exactOps |= exact;
+    }
+
+    void setCompiled(DoubleArrayToDouble compiled) {
+        this.compiled = compiled;
+    }
+
     public
     void setResultIndex(int resultIndex) {
         this.resultIndex = resultIndex;
@@ -71,6 +93,80 @@ public void setScale(int scale) {
         this.scale = scale;
     }
 
+    /**
+     * Check if this evaluator and the ones linked to it can be done with doubles
+     *
+     * @return True if all the ops have a double variant
+     */
+    public boolean canUseDoubles() {
+        if (dOps == null || Arrays.stream(dOps).anyMatch(Objects::isNull))
+            return false;
+        return next == null || next.canUseDoubles();
+    }
+
+    /**
+     * Check if this evaluator and the ones linked to it can be done with doubles without a noticeable difference in
+     * the result. Meaning no scale is set and none of the ops depend on decimal precision.
+     *
+     * @return True if doubles can be used
+     */
+    public boolean suitsDoubles() {
+        if (!canUseDoubles() || exactOps || scale != -1)
+            return false;
+        return next == null || next.suitsDoubles();
+    }
+
+    /**
+     * Set whether the double based ops are used by this evaluator and the ones linked to it
+     *
+     * @param use True to use doubles, false for BigDecimals
+     */
+    public void useDoubles(boolean use) {
+        useDoubles = use && dOps != null;
+        if (next != null)
+            next.useDoubles(use);
+    }
+
+    public boolean usesDoubles() {
+        return useDoubles;
+    }
+
+    /**
+     * Decide if the math is done with doubles or BigDecimals. Exact is the default, so results don't change unless asked.
+     * Auto only uses doubles if that gives the same result, so no scale and no op that gets rounded like / or ^.
+     *
+     * @param precision The requested precision, exact, auto or double
+     * @param id        The id of the node this math belongs to, used in the logging
+     */
+    public void applyPrecision(String precision, String id) {
+        switch (precision.toLowerCase()) {
+            case "auto" -> useDoubles(suitsDoubles());
+            case "double" -> {
+                if (canUseDoubles()) {
+                    useDoubles(true);
+                } else {
+                    Logger.warn("(mf) -> " + id + " contains ops without double variant, using exact instead.");
+                }
+            }
+            case "exact" -> useDoubles(false);
+            default -> Logger.warn("(mf) -> " + id + " has unknown precision '" + precision + "', using exact.");
+        }
+    }
+
+    /**
+     * Get the indexes of the input data that are altered by this evaluator and the ones linked to it
+     *
+     * @return Array with the indexes, empty if none
+     */
+    public int[] getAlteredInputs() {
+        var res = new ArrayList<Integer>();
+        for (var me = this; me != null; me = me.next) {
+            if (me.resultIndex >= 0 && me.resultIndex < 100 && !res.contains(me.resultIndex))
+                res.add(me.resultIndex);
+        }
+        return res.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     public NumericVal[] getLastRefs() {
         if (next == null)
             return refs;
@@ -90,7 +186,7 @@ public String getInfo(String id) {
         var info = new StringJoiner("\r\n");
 
         info.add(TelnetCodes.TEXT_CYAN + "Debugging information for ID: " + this.id + TelnetCodes.TEXT_DEFAULT);
-        info.add("Original: " + originalExpression);
+        info.add("Original: " + originalExpression + (useDoubles ? (compiled != null ? " (doubles, compiled)" : " (doubles)") : ""));
         info.add("Normalized: " + normalizedExpression);
         info.add("Input data needs at least " + (highestI + 1) + " items");
         info.add("------------------------------------------");
@@ -118,10 +214,15 @@ public String getCurrentScratchpad(String[] parse) {
         info.add("-Inputs & rtvals-");
         for (int a = 0; a < scratchpad.length; a++) {
             var extra = "";
-            var val = scratchpad[a] == null ? "NaN" : scratchpad[a].toPlainString();
+            String val;
+            if (useDoubles) {
+                val = Double.isNaN(dScratchpad[a]) ? "NaN" : MathUtils.formatDouble(dScratchpad[a]);
+            } else {
+                val = scratchpad[a] == null ? "NaN" : scratchpad[a].toPlainString();
+            }
             if (a < refLookup.length) {
                 if (refLookup[a] >= 100) {
-                    extra = " (" + refs[refLookup[a] - 100].id() + ")";
+                    extra = " (" + refs[refLookup[a] % 100].id() + ")";
                 } else {
                     extra = " (i" + refLookup[a] + ")";
                 }
@@ -154,8 +255,8 @@ private boolean buildScratchpad(BigDecimal[] inputs) {
             BigDecimal val;
             if (r < 100 && r < inputs.length) { // second check redundant because highestI earlier?
                 val = inputs[r];
-            } else if (refs != null && r - 100 < refs.length ) {
-                val = refs[r - 100].asBigDecimal();
+            } else if (refs != null && r % 100 < refs.length) { // Either val (1xx) or temp (2xx)
+                val = refs[r % 100].asBigDecimal();
             } else {
                 Logger.error(id + " (me) -> Scratchpad couldn't be filled for index " + a + " from r" + r + " due to out of bounds");
                 return false;
@@ -213,6 +314,128 @@ private BigDecimal applyResult(BigDecimal[] bds, BigDecimal result) {
         return result;
     }
 
+    /* ******************************** Do evaluation with doubles ******************************************* */
+
+    /**
+     * Parse the inputs used by this evaluator and the ones linked to it, already filled in elements aren't overwritten.
+     *
+     * @param dbs    The array to fill in, should be at least as long as the inputs. Elements not filled in must be NaN
+     * @param inputs The split data received
+     * @return True if parsing succeeded
+     */
+    public boolean prepareDoubleArray(double[] dbs, String[] inputs) {
+        if (highestI >= inputs.length) {
+            Logger.error(id + " (me) -> Not enough data in inputs (need " + (highestI + 1) + "), aborting. -> " + String.join(",", inputs));
+            return false;
+        }
+        for (Integer ref : refLookup) {
+            if (ref < 100 && Double.isNaN(dbs[ref])) { // meaning from input and don't overwrite
+                try {
+                    dbs[ref] = Double.parseDouble(inputs[ref]);
+                } catch (NumberFormatException e) {
+                    Logger.error(id + " (me) -> Failed to parse i" + ref + " from " + inputs[ref]);
+                    return false;
+                }
+            }
+        }
+        return next == null || next.prepareDoubleArray(dbs, inputs);
+    }
+
+    /**
+     * Variant of prepareDoubleArray that gets the inputs as numbers, fe. because they were already parsed.
+     *
+     * @param dbs    The array to fill
+     * @param count  The amount of inputs available
+     * @param inputs Gives the input at an index, NaN if it isn't a number
+     * @return True if all the needed inputs were valid
+     */
+    public boolean prepareDoubleArray(double[] dbs, int count, IntToDoubleFunction inputs) {
+        if (highestI >= count) {
+            Logger.error(id + " (me) -> Not enough data in inputs (need " + (highestI + 1) + ", got " + count + "), aborting.");
+            return false;
+        }
+        for (Integer ref : refLookup) {
+            if (ref < 100 && Double.isNaN(dbs[ref])) { // meaning from input and don't overwrite
+                dbs[ref] = inputs.applyAsDouble(ref);
+                if (Double.isNaN(dbs[ref])) {
+                    Logger.error(id + " (me) -> Failed to parse i" + ref);
+                    return false;
+                }
+            }
+        }
+        return next == null || next.prepareDoubleArray(dbs, count, inputs);
+    }
+
+    /**
+     * Evaluate using doubles, the array should have been filled by prepareDoubleArray.
+     * Results targeting the inputs are written to the array.
+     *
+     * @param dbs The parsed inputs
+     * @return True if this and the linked evaluators succeeded
+     */
+    public boolean eval(double[] dbs) {
+        if (Double.isNaN(solveDoubles(dbs)))
+            return false;
+        return next == null || next.eval(dbs);
+    }
+
+    /**
+     * Evaluate using doubles without the linked evaluators, for when the values are already available as doubles.
+     *
+     * @param values The values the i's refer to
+     * @return The result or NaN if something went wrong
+     */
+    public double solve(double[] values) {
+        if (highestI >= values.length) {
+            Logger.error(id + " (me) -> Not enough values (need " + (highestI + 1) + ", got " + values.length + ")");
+            return Double.NaN;
+        }
+        return solveDoubles(values);
+    }
+
+    /**
+     * Fill the double scratchpad, do the ops and apply the result. Doesn't include the linked evaluators.
+     *
+     * @param dbs The parsed inputs
+     * @return The result or NaN if something went wrong
+     */
+    private double solveDoubles(double[] dbs) {
+        for (int a = 0; a < refLookup.length; a++) {
+            var r = refLookup[a];
+            if (r < 100) {
+                dScratchpad[a] = dbs[r];
+            } else if (refs != null && r % 100 < refs.length) { // Either val (1xx) or temp (2xx)
+                dScratchpad[a] = refs[r % 100].asDouble();
+            } else {
+                Logger.error(id + " (me) -> Scratchpad couldn't be filled for index " + a + " from r" + r + " due to out of bounds");
+                return Double.NaN;
+            }
+        }
+        double result;
+        if (compiled != null) { // Does all the ops and fills in the scratchpad
+            result = compiled.apply(dScratchpad);
+        } else {
+            for (int a = 0; a < dOps.length; a++)
+                dScratchpad[a + refLookup.length] = dOps[a].apply(dScratchpad);
+            result = dScratchpad[dScratchpad.length - 1];
+        }
+        if (!Double.isFinite(result)) { // BigDecimal would have thrown an ArithmeticException instead
+            Logger.error(id + " (me) -> Result isn't a number while evaluating: " + originalExpression);
+            return Double.NaN;
+        }
+        if (resultIndex != -1) {
+            if (scale != -1)
+                result = MathUtils.roundDouble(result, scale);
+            if (resultIndex < 100) {
+                if (resultIndex < dbs.length)
+                    dbs[resultIndex] = result;
+            } else if (resultIndex % 100 < refs.length) { // Or a val ref, either permanent (1xx) or temp (2xx)
+                refs[resultIndex % 100].update(result);
+            }
+        }
+        return result;
+    }
+
     /* ************************* Alternative variants of eval for specific use cases ****************************** */
 
     /**
@@ -252,6 +475,14 @@ public double eval(double d0, double d1, double d2) {
         if (highestI > 1)
             return Double.NaN;
 
+        if (compiled != null && useDoubles) { // Only if asked for with the precision, no need to go through BigDecimal
+            var dbs = new double[]{d0, d1, d2};
+            var res = solveDoubles(dbs);
+            if (!Double.isNaN(res) && next != null)
+                next.eval(dbs);
+            return res;
+        }
+
         var bd0 = Double.isNaN(d0) ? null : BigDecimal.valueOf(d0);
         var bd1 = Double.isNaN(d1) ? null : BigDecimal.valueOf(d1);
         var bd2 = Double.isNaN(d2) ? null : BigDecimal.valueOf(d2);
@@ -281,8 +512,18 @@ public int eval(int i0, int i1, int i2) {
     }
 
     public BigDecimal[] prepareBdArray(BigDecimal[] bds, String data, String delimiter) {
-        var inputs = data.split(delimiter);
+        return prepareBdArray(bds, data.split(delimiter), data);
+    }
 
+    /**
+     * Fill the array with the inputs that are used, for when the data was already split
+     *
+     * @param bds    The array to fill, a new one is made if null
+     * @param inputs The items of the data
+     * @param data   The data, only used for the error messages
+     * @return The filled array or an empty one if there weren't enough inputs
+     */
+    public BigDecimal[] prepareBdArray(BigDecimal[] bds, String[] inputs, String data) {
         if (badInputCount(inputs.length, data))
             return new BigDecimal[0];
 
@@ -1,9 +1,11 @@
 package util.evalcore;
 
 import org.tinylog.Logger;
+import util.data.procs.DoubleArrayToDouble;
 import util.data.procs.MathEvalForVal;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.function.Function;
 
@@ -11,6 +13,10 @@ public class MathEvaluatorLite implements MathEvalForVal {
 
     Function<BigDecimal[], BigDecimal>[] ops;
     BigDecimal[] scratchpad;
+    // Compiled variant
+    DoubleArrayToDouble compiled;
+    int[] inputLookup; // Which of the three inputs goes where in the double scratchpad
+    double[] dScratchpad;
     // Info for debugging
     protected String originalExpression;
 
@@ -23,6 +29,18 @@ public MathEvaluatorLite(String id, String ori, Function<BigDecimal[], BigDecima
 
         scratchpad = new BigDecimal[ops.length + 3];
     }
+
+    /**
+     * Use the compiled version of the ops instead
+     *
+     * @param compiled  The compiled ops
+     * @param refLookup Lookup table linking the scratchpad to the inputs
+     */
+    void setCompiled(DoubleArrayToDouble compiled, Integer[] refLookup) {
+        this.compiled = compiled;
+        inputLookup = Arrays.stream(refLookup).mapToInt(Integer::intValue).toArray();
+        dScratchpad = new double[ops.length + inputLookup.length];
+    }
     /* *********************************** Do evaluation ************************************************ */
 
     /**
@@ -31,6 +49,15 @@ public MathEvaluatorLite(String id, String ori, Function<BigDecimal[], BigDecima
      * @return The result if successful or NaN if something went wrong
      */
     public double eval(double d0, double d1, double d2) {
+        if (compiled != null) {
+            for (int a = 0; a < inputLookup.length; a++)
+                dScratchpad[a] = switch (inputLookup[a]) {
+                    case 0 -> d0;
+                    case 1 -> d1;
+                    default -> d2;
+                };
+            return compiled.apply(dScratchpad);
+        }
         scratchpad[0] = BigDecimal.valueOf(d0);
         scratchpad[1] = BigDecimal.valueOf(d1);
         scratchpad[2] = BigDecimal.valueOf(d2);
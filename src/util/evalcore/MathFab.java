@@ -9,9 +9,12 @@
 import util.math.MathUtils;
 
 import java.util.ArrayList;
+import java.util.Set;
 import java.util.StringJoiner;
 
 public class MathFab {
+    /* Ops that rely on decimal precision or are rounded by the BigDecimal variant, doubles would give another result */
+    private static final Set<String> EXACT_OPS = Set.of("scale", "%", "/", "^", "ln", "°");
 
     public static MathEvaluator parseExpression(String expression, Rtvals rtvals, NumericVal[] valRefs) {
         return build(expression, rtvals, valRefs);
@@ -104,7 +107,12 @@ private static MathEvaluator build(String expression, Rtvals rtvals, NumericVal[
             if (op == null)
                 return mathEval;
             mathEval.addOp(a, op);
+            // Same op but on doubles, used instead if precision isn't an issue
+            var dOp = ParseTools.decodeDoublesMathOp(sub[0], sub[1], sub[2], refLookup.size());
+            mathEval.addDoubleOp(a, dOp, EXACT_OPS.contains(sub[2]));
         }
+        if (mathEval.canUseDoubles()) // Try to replace the double ops with a single compiled method
+            ExprCompiler.compileMath(expression, subExpressions, refLookup.size()).ifPresent(mathEval::setCompiled);
 
         return mathEval.makeValid();
     }
@@ -298,6 +306,9 @@ public static MathEvalForVal stripForValIfPossible(MathEvaluator math) {
         // Max lookup of two, and only i0 and i1
         if (math.highestI > 1)
             return math;
-        return new MathEvaluatorLite(math.id, math.getOriginalExpression(), math.ops);
+        var lite = new MathEvaluatorLite(math.id, math.getOriginalExpression(), math.ops);
+        if (math.usesDoubles() && math.compiled != null) // Only if asked for with the precision
+            lite.setCompiled(math.compiled, math.refLookup);
+        return lite;
     }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@
 import org.apache.commons.lang3.math.NumberUtils;
 import org.tinylog.Logger;
 import util.data.procs.DoubleArrayToDouble;
+import util.data.vals.BaseVal;
 import util.data.vals.NumericVal;
 import util.data.vals.Rtvals;
 import util.math.MathUtils;
@@ -13,6 +14,7 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.DoubleBinaryOperator;
 import java.util.function.Function;
 import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
@@ -218,6 +220,8 @@ public static String replaceRealtimeValues(String expression, ArrayList<NumericV
 
         for (var val : bracketVals) {
             var result = rtvals.getBaseVal(val);
+            if (result.isEmpty() && val.contains(":")) // Might be a stat over the history fe. {temp:avg:10m}
+                result = rtvals.getHistoryStat(val).map(BaseVal.class::cast);
             if (result.isEmpty()) {
                 Logger.error("No such rtval yet: " + val);
                 return "";
@@ -529,7 +533,7 @@ public static Function<BigDecimal[],BigDecimal> decodeBigDecimalsOp(String first
                         break;
                     case 2: //cosr
                         if( bd2==null) {
-                            proc = x -> BigDecimal.valueOf(Math.sin(x[i2].doubleValue()));
+                            proc = x -> BigDecimal.valueOf(Math.cos(x[i2].doubleValue()));
                         }else {
                             var res = BigDecimal.valueOf(Math.cos(bd2.doubleValue()));
                             proc = x -> res;
@@ -660,6 +664,81 @@ public static Function<BigDecimal[],BigDecimal> decodeBigDecimalsOp(String first
         }
         return proc;
     }
+    /**
+     * Double based counterpart of decodeBigDecimalsOp, uses the same indexing (o refers to the ops so gets the offset)
+     * and mimics the BigDecimal version of each operator so the result only differs in precision.
+     * @param first The first element of the operation
+     * @param second The second element of the operation
+     * @param op The operator to apply
+     * @param offset The offset for the index in the array
+     * @return The function or null if the op isn't supported
+     */
+    public static DoubleArrayToDouble decodeDoublesMathOp(String first, String second, String op, int offset) {
+        final double db1;
+        final int i1;
+        final double db2;
+        final int i2;
+
+        try {
+            if (NumberUtils.isCreatable(first)) {
+                db1 = NumberUtils.createDouble(first);
+                i1 = -1;
+            } else {
+                db1 = Double.NaN;
+                int index = NumberUtils.createInteger(first.substring(1));
+                i1 = first.startsWith("o") ? index + offset : index;
+            }
+            if (NumberUtils.isCreatable(second)) {
+                db2 = NumberUtils.createDouble(second);
+                i2 = -1;
+            } else {
+                db2 = Double.NaN;
+                int index = NumberUtils.createInteger(second.substring(1));
+                i2 = second.startsWith("o") ? index + offset : index;
+            }
+        } catch (NumberFormatException e) {
+            Logger.error("Something went wrong decoding: " + first + " or " + second);
+            return null;
+        }
+
+        final DoubleBinaryOperator mathOp = switch (op) {
+            case "+" -> Double::sum;
+            case "-" -> (a, b) -> a - b;
+            case "*" -> (a, b) -> a * b;
+            case "/" -> (a, b) -> a / b;
+            case "%" -> (a, b) -> a % b;
+            case "^" -> (a, b) -> Math.pow(a, (int) b); // Root is only applied to index^0.5, see below
+            case "~" -> (a, b) -> Math.abs(Math.min(a, b));
+            case "scale" -> (a, b) -> b < 0 ? BigDecimal.valueOf(a).setScale((int) b, RoundingMode.HALF_UP).doubleValue()
+                                             : MathUtils.roundDouble(a, (int) b);
+            case "ln" -> (a, b) -> Math.log(b);
+            case "°" -> (a, b) -> MathUtils.calcAngleDoublesOp((int) a, b);
+            case "<" -> (a, b) -> Double.compare(a, b) < 0 ? 1.0 : 0.0;
+            case ">" -> (a, b) -> Double.compare(a, b) > 0 ? 1.0 : 0.0;
+            case "<=" -> (a, b) -> Double.compare(a, b) <= 0 ? 1.0 : 0.0;
+            case ">=" -> (a, b) -> Double.compare(a, b) >= 0 ? 1.0 : 0.0;
+            case "==" -> (a, b) -> Double.compare(a, b) == 0 ? 1.0 : 0.0;
+            case "!=" -> (a, b) -> Double.compare(a, b) != 0 ? 1.0 : 0.0;
+            default -> null;
+        };
+        if (mathOp == null) {
+            Logger.error("Unknown operand: " + op);
+            return null;
+        }
+        if (i1 == -1 && i2 == -1) { // meaning both numbers
+            var res = mathOp.applyAsDouble(db1, db2);
+            return x -> res;
+        }
+        if (i1 != -1 && i2 == -1) { // meaning first is an index and second a number
+            if (op.equals("^") && Double.compare(db2, 0.5) == 0) // root
+                return x -> Math.sqrt(x[i1]);
+            return x -> mathOp.applyAsDouble(x[i1], db2);
+        }
+        if (i1 == -1) //  meaning first is a number and second an index
+            return x -> mathOp.applyAsDouble(db1, x[i2]);
+        return x -> mathOp.applyAsDouble(x[i1], x[i2]); // meaning both indexes
+    }
+
     /**
      * Converts a simple operation (only two operands) on elements in an array to a function
      * @param first The first element of the operation
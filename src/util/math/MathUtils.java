@@ -17,6 +17,7 @@ public class MathUtils {
     // Ordered ops come in pairs, the pairs share precedence, so repeated means it's higher than whatever comes next
     static final String[] ORDERED_OPS = {"°", "°", "^", "^", "*", "/", "%", "%", "+", "-", "<", ">", "<=", ">="};
     static final MathContext MATH_CONTEXT = new MathContext(10, RoundingMode.HALF_UP);
+    static final MathContext DOUBLE_CONTEXT = new MathContext(15, RoundingMode.HALF_EVEN); // Digits a double can hold
     /**
      * Splits a simple expression of the type i1+125 etc. into distinct parts i1,+,125
      * @param expression The expression to split
@@ -156,7 +157,7 @@ public static double calcDoublesOp(double d1, double d2, String op ){
             case "^" -> Math.pow(d1,d2);
             case "~" -> Math.abs(d1-d2);
             case "scale" -> MathUtils.roundDouble(d1, (int) d2);
-            case "°" -> handleAngleDoublesOps((int)d1,d2);
+            case "°" -> calcAngleDoublesOp((int)d1,d2);
             case ">" -> Double.compare(d1,d2) > 0?1:0;
             case ">=" -> Double.compare(d1,d2) >= 0?1:0;
             case "<" -> Double.compare(d1,d2) < 0?1:0;
@@ -169,7 +170,7 @@ public static double calcDoublesOp(double d1, double d2, String op ){
             }
         };
     }
-    private static double handleAngleDoublesOps( int function, double d2 ){
+    public static double calcAngleDoublesOp( int function, double d2 ){
         return switch( function ){
             case 1 -> Math.cos(Math.toRadians(d2)); //cosd,sin
             case 2 -> Math.cos(d2); //cosr
@@ -194,6 +195,20 @@ public static double roundDouble(double value, int decimalPlace) {
         BigDecimal bd = BigDecimal.valueOf(value);
         return bd.setScale(decimalPlace, RoundingMode.HALF_UP).doubleValue();
     }
+    /**
+     * Converts a double to plain text without trailing zeros, limited to 15 significant digits to hide the noise
+     * of binary fractions (so 0.1+0.2 becomes 0.3 instead of 0.30000000000000004).
+     *
+     * @param value the double to format
+     * @return the text representation
+     */
+    public static String formatDouble(double value) {
+        if (Double.isInfinite(value) || Double.isNaN(value))
+            return String.valueOf(value);
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) // No need for BigDecimal if it's an integer
+            return Long.toString((long) value);
+        return new BigDecimal(value, DOUBLE_CONTEXT).stripTrailingZeros().toPlainString();
+    }
     /**
      * Convert a 8bit value to an actual signed int
      * @param ori The value to convert
@@ -0,0 +1,121 @@
+package util.tools;
+
+import org.tinylog.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Keeps a file open to read it in chunks of lines, so reading the next chunk doesn't mean skipping all the earlier
+ * lines again like FileTools.readLines does. Malformed characters are replaced instead of failing the read.
+ */
+public class LineReader implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private final BufferedReader reader;
+    private long lineNr; // Amount of lines read (or skipped) so far
+    private boolean done = false;
+
+    private LineReader(Path path, BufferedReader reader) {
+        this.path = path;
+        this.reader = reader;
+    }
+
+    /**
+     * Open a file and skip the given amount of lines
+     *
+     * @param path The path to the file
+     * @param skip The amount of lines to skip, fe. a header or the lines read before a reopen
+     * @param cs   The charset of the file
+     * @return The reader or an empty optional if the file couldn't be opened
+     */
+    public static Optional<LineReader> open(Path path, long skip, Charset cs) {
+        if (Files.notExists(path)) {
+            Logger.error("Tried to read lines from " + path + " but no such file");
+            return Optional.empty();
+        }
+        try {
+            var lr = new LineReader(path, new BufferedReader(new InputStreamReader(Files.newInputStream(path), cs), BUFFER_SIZE));
+            while (lr.lineNr < skip && lr.readLine() != null)
+                ; // Skip the lines
+            return Optional.of(lr);
+        } catch (IOException e) {
+            Logger.error("Failed to open " + path + " -> " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private String readLine() {
+        if (done)
+            return null;
+        try {
+            var line = reader.readLine();
+            if (line == null) {
+                close();
+            } else {
+                lineNr++;
+            }
+            return line;
+        } catch (IOException e) {
+            Logger.error("Failed reading line " + (lineNr + 1) + " of " + path + " -> " + e.getMessage());
+            close();
+            return null;
+        }
+    }
+
+    /**
+     * Read the next lines and add them to the target
+     *
+     * @param target The collection to add the lines to
+     * @param amount The maximum amount of lines to read
+     * @return The amount of lines read, less than amount if the end of the file was reached
+     */
+    public int readInto(Collection<String> target, int amount) {
+        int read = 0;
+        while (read < amount) {
+            var line = readLine();
+            if (line == null)
+                break;
+            target.add(line);
+            read++;
+        }
+        return read;
+    }
+
+    /**
+     * Check if the end of the file was reached or reading failed, the file is closed at that point
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Get the amount of lines read (or skipped) so far
+     */
+    public long getLineNr() {
+        return lineNr;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() {
+        if (done)
+            return;
+        done = true;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            Logger.error("Failed to close " + path + " -> " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package util.tools;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Aho-Corasick automaton over a set of literals, finds which of them occur in a line with a single pass over it
+ * instead of one String.contains per literal. Built once and read only afterwards, so safe to share between threads.
+ */
+public class LiteralSet {
+    public static final int MAX_LITERALS = 64; // The found literals are returned as bits in a long
+
+    private final String[] literals;
+    private final int[] ascii = new int[128];                   // Char class of the ascii chars, 0 if not used
+    private final HashMap<Character, Integer> others = new HashMap<>(); // Char class of the other chars
+    private final int classes;   // Amount of char classes, class 0 means a char that's not in any literal
+    private final int[][] next;  // Transition per state and char class, a full table so no fail links during a scan
+    private final long[] output; // Literals that end in each state, including those that are a suffix of it
+
+    private LiteralSet(String[] literals) {
+        this.literals = literals;
+
+        int cls = 1;
+        for (var lit : literals) {
+            for (int a = 0; a < lit.length(); a++) {
+                char c = lit.charAt(a);
+                if (classOf(c) == 0) {
+                    if (c < 128) {
+                        ascii[c] = cls++;
+                    } else {
+                        others.put(c, cls++);
+                    }
+                }
+            }
+        }
+        classes = cls;
+
+        // Build the trie
+        int max = 1;
+        for (var lit : literals)
+            max += lit.length();
+        var trie = new int[max][classes];
+        var out = new long[max];
+        int states = 1;
+        for (int l = 0; l < literals.length; l++) {
+            int s = 0;
+            for (int a = 0; a < literals[l].length(); a++) {
+                int c = classOf(literals[l].charAt(a));
+                if (trie[s][c] == 0)
+                    trie[s][c] = states++;
+                s = trie[s][c];
+            }
+            out[s] |= 1L << l;
+        }
+        // Add the fail links as transitions, breadth first so the fail state is always done already
+        var fail = new int[states];
+        var todo = new ArrayDeque<Integer>();
+        for (int c = 0; c < classes; c++) {
+            if (trie[0][c] != 0)
+                todo.add(trie[0][c]);
+        }
+        while (!todo.isEmpty()) {
+            int s = todo.poll();
+            out[s] |= out[fail[s]];
+            for (int c = 0; c < classes; c++) {
+                int t = trie[s][c];
+                if (t == 0) {
+                    trie[s][c] = trie[fail[s]][c];
+                } else {
+                    fail[t] = trie[fail[s]][c];
+                    todo.add(t);
+                }
+            }
+        }
+        next = Arrays.copyOf(trie, states);
+        output = Arrays.copyOf(out, states);
+    }
+
+    /**
+     * Build the automaton for the given literals
+     *
+     * @param literals The literals to look for, at most 64 and none empty
+     * @return The set or an empty optional if there are none, too many or an empty one
+     */
+    public static Optional<LiteralSet> of(List<String> literals) {
+        if (literals.isEmpty() || literals.size() > MAX_LITERALS || literals.stream().anyMatch(String::isEmpty))
+            return Optional.empty();
+        return Optional.of(new LiteralSet(literals.toArray(String[]::new)));
+    }
+
+    private int classOf(char c) {
+        if (c < 128)
+            return ascii[c];
+        return others.getOrDefault(c, 0);
+    }
+
+    /**
+     * Find which literals occur in the line
+     *
+     * @param line   The line to scan
+     * @param stopOn Stop scanning as soon as one of these literals is found, 0 to scan until all are found or the end
+     * @return The found literals, bit x set means literal x was found
+     */
+    public long find(CharSequence line, long stopOn) {
+        long all = literals.length == 64 ? -1L : (1L << literals.length) - 1;
+        long found = 0;
+        int s = 0;
+        for (int a = 0; a < line.length(); a++) {
+            s = next[s][classOf(line.charAt(a))];
+            if (output[s] != 0) {
+                found |= output[s];
+                if ((found & stopOn) != 0 || found == all)
+                    break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Replace all occurrences of the literals, left to right without overlap like String.replace does.
+     * Only gives the same result as a String.replace per literal if no literal can overlap with another one.
+     *
+     * @param line         The line to alter
+     * @param replacements The replacement for each literal, in the same order
+     * @return The altered line
+     */
+    public String replace(String line, String[] replacements) {
+        StringBuilder res = null;
+        int s = 0;
+        int last = 0; // End of the last match
+        for (int a = 0; a < line.length(); a++) {
+            s = next[s][classOf(line.charAt(a))];
+            if (output[s] != 0) {
+                int lit = Long.numberOfTrailingZeros(output[s]);
+                if (res == null)
+                    res = new StringBuilder(line.length() + 16);
+                res.append(line, last, a + 1 - literals[lit].length()).append(replacements[lit]);
+                last = a + 1;
+                s = 0; // No overlap, so start over
+            }
+        }
+        if (res == null)
+            return line;
+        return res.append(line, last, line.length()).toString();
+    }
+
+    public int size() {
+        return literals.length;
+    }
+}
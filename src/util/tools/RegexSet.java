@@ -0,0 +1,536 @@
+package util.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Checks which of a set of regular expressions fully match a line (like Matcher.matches) with a single pass over it.
+ * The expressions are combined in one NFA that is turned into a DFA while it's used, so each state is only determined
+ * once. Only the part of the java syntax that doesn't need backtracking is supported: literals, escapes, classes, the
+ * dot, groups, alternation and the greedy or lazy quantifiers. Use supports to check if an expression can be used,
+ * if not java.util.regex.Pattern is needed.
+ */
+public class RegexSet {
+    public static final int MAX_REGEX = 63;    // The matches are returned as bits in a long
+    public static final long FALLBACK = Long.MIN_VALUE; // Result if the line needs Pattern instead
+    private static final int MAX_NFA = 5000;   // Limit to the expanded size of the expressions
+    private static final int MAX_DFA = 2000;   // Limit to the cached states, new ones aren't kept after that
+
+    /* NFA */
+    private static final int CHAR = 0;
+    private static final int SPLIT = 1;
+    private static final int MATCH = 2;
+    private final ArrayList<Integer> types = new ArrayList<>();
+    private final ArrayList<int[]> ranges = new ArrayList<>(); // Sorted inclusive ranges of the chars a CHAR accepts
+    private final ArrayList<Integer> out1 = new ArrayList<>();
+    private final ArrayList<Integer> out2 = new ArrayList<>(); // Second exit of a SPLIT or the regex index of a MATCH
+
+    /* DFA */
+    private final HashMap<Key, State> cache = new HashMap<>();
+    private final State start;
+    private final State dead;
+    private final int count;
+
+    private RegexSet(List<Node> trees) {
+        count = trees.size();
+        var starts = new int[trees.size()];
+        for (int a = 0; a < trees.size(); a++) {
+            int match = add(MATCH, null, -1, a);
+            starts[a] = build(trees.get(a), match);
+        }
+        dead = state(new int[0]);
+        start = state(closure(starts));
+    }
+
+    /**
+     * Check if the expression only uses the supported syntax
+     *
+     * @param regex The expression
+     * @return True if it can be part of a set
+     */
+    public static boolean supports(String regex) {
+        try {
+            var node = new Parser(regex).parse();
+            return size(node) <= MAX_NFA;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Combine the expressions in a set
+     *
+     * @param regexes The expressions, at most 63
+     * @return The set or an empty optional if there are none, too many or one isn't supported
+     */
+    public static Optional<RegexSet> of(List<String> regexes) {
+        if (regexes.isEmpty() || regexes.size() > MAX_REGEX)
+            return Optional.empty();
+        try {
+            var trees = new ArrayList<Node>();
+            int total = 0;
+            for (var regex : regexes) {
+                var node = new Parser(regex).parse();
+                total += size(node);
+                trees.add(node);
+            }
+            if (total > MAX_NFA)
+                return Optional.empty();
+            return Optional.of(new RegexSet(trees));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Check which expressions fully match the line
+     *
+     * @param line The line to check
+     * @return Bit x set means expression x matches, or FALLBACK if the line contains a surrogate pair. Pattern works
+     * with code points so a pair is a single char to it, use Pattern for those lines.
+     */
+    public synchronized long matches(CharSequence line) {
+        var s = start;
+        for (int a = 0; a < line.length() && s != dead; a++) {
+            char c = line.charAt(a);
+            if (Character.isSurrogate(c))
+                return FALLBACK;
+            s = next(s, c);
+        }
+        return s.accepts;
+    }
+
+    /* ******************************************** D F A ***************************************************** */
+    private record Key(int[] nfa) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && Arrays.equals(nfa, k.nfa);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(nfa);
+        }
+    }
+
+    private static class State {
+        final int[] nfa;      // The CHAR and MATCH states of the NFA this state stands for
+        final long accepts;   // The expressions that match if the line ends here
+        final State[] ascii = new State[128];
+        HashMap<Character, State> others;
+
+        State(int[] nfa, long accepts) {
+            this.nfa = nfa;
+            this.accepts = accepts;
+        }
+    }
+
+    private State next(State s, char c) {
+        if (c < 128 && s.ascii[c] != null)
+            return s.ascii[c];
+        if (c >= 128 && s.others != null) {
+            var n = s.others.get(c);
+            if (n != null)
+                return n;
+        }
+        var targets = new ArrayList<Integer>();
+        for (int n : s.nfa) {
+            if (types.get(n) == CHAR && accepts(ranges.get(n), c))
+                targets.add(out1.get(n));
+        }
+        var n = targets.isEmpty() ? dead : state(closure(targets.stream().mapToInt(Integer::intValue).toArray()));
+        if (cache.size() < MAX_DFA) { // Only link to states that are cached
+            if (c < 128) {
+                s.ascii[c] = n;
+            } else {
+                if (s.others == null)
+                    s.others = new HashMap<>();
+                s.others.put(c, n);
+            }
+        }
+        return n;
+    }
+
+    private State state(int[] nfa) {
+        var key = new Key(nfa);
+        var s = cache.get(key);
+        if (s != null)
+            return s;
+        long acc = 0;
+        for (int n : nfa) {
+            if (types.get(n) == MATCH)
+                acc |= 1L << out2.get(n);
+        }
+        s = new State(nfa, acc);
+        if (cache.size() < MAX_DFA)
+            cache.put(key, s);
+        return s;
+    }
+
+    /**
+     * Follow the SPLIT states to get all the CHAR and MATCH states that can be reached without reading a char
+     */
+    private int[] closure(int[] from) {
+        var seen = new boolean[types.size()];
+        var stack = new ArrayList<Integer>();
+        for (int f : from)
+            stack.add(f);
+        var res = new ArrayList<Integer>();
+        while (!stack.isEmpty()) {
+            int n = stack.remove(stack.size() - 1);
+            if (seen[n])
+                continue;
+            seen[n] = true;
+            if (types.get(n) == SPLIT) {
+                stack.add(out1.get(n));
+                stack.add(out2.get(n));
+            } else {
+                res.add(n);
+            }
+        }
+        return res.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    private static boolean accepts(int[] ranges, char c) {
+        for (int a = 0; a < ranges.length; a += 2) {
+            if (c < ranges[a])
+                return false;
+            if (c <= ranges[a + 1])
+                return true;
+        }
+        return false;
+    }
+
+    /* ******************************************** N F A ***************************************************** */
+    private int add(int type, int[] range, int o1, int o2) {
+        types.add(type);
+        ranges.add(range);
+        out1.add(o1);
+        out2.add(o2);
+        return types.size() - 1;
+    }
+
+    /**
+     * Add the states for the node
+     *
+     * @param node The node to add
+     * @param next The state to go to once the node matched
+     * @return The first state of the node
+     */
+    private int build(Node node, int next) {
+        switch (node.type) {
+            case Node.CHARS -> {
+                return add(CHAR, node.ranges, next, -1);
+            }
+            case Node.CONCAT -> {
+                int s = next;
+                for (int a = node.kids.size() - 1; a >= 0; a--)
+                    s = build(node.kids.get(a), s);
+                return s;
+            }
+            case Node.ALT -> {
+                int s = build(node.kids.get(node.kids.size() - 1), next);
+                for (int a = node.kids.size() - 2; a >= 0; a--)
+                    s = add(SPLIT, null, build(node.kids.get(a), next), s);
+                return s;
+            }
+            case Node.REPEAT -> {
+                var kid = node.kids.get(0);
+                int s;
+                if (node.max == -1) { // Loop back to a split that either repeats or leaves
+                    s = add(SPLIT, null, -1, next);
+                    out1.set(s, build(kid, s));
+                } else {
+                    s = next;
+                    for (int a = node.min; a < node.max; a++)
+                        s = add(SPLIT, null, build(kid, s), next);
+                }
+                for (int a = 0; a < node.min; a++)
+                    s = build(kid, s);
+                return s;
+            }
+            default -> { // Empty
+                return next;
+            }
+        }
+    }
+
+    private static int size(Node node) {
+        return switch (node.type) {
+            case Node.CHARS -> 1;
+            case Node.CONCAT, Node.ALT -> node.kids.stream().mapToInt(RegexSet::size).sum() + node.kids.size();
+            case Node.REPEAT -> {
+                int copies = node.max == -1 ? node.min + 1 : node.max;
+                yield (size(node.kids.get(0)) + 1) * Math.max(copies, 1);
+            }
+            default -> 0;
+        };
+    }
+
+    /* ***************************************** P A R S E R ************************************************** */
+    private static class Node {
+        static final int EMPTY = 0, CHARS = 1, CONCAT = 2, ALT = 3, REPEAT = 4;
+        final int type;
+        int[] ranges;
+        final List<Node> kids = new ArrayList<>();
+        int min, max;
+
+        Node(int type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * Parser for the supported syntax, throws an IllegalArgumentException on anything else
+     */
+    private static class Parser {
+        private static final int[] DIGIT = {'0', '9'};
+        private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+        private static final int[] SPACE = {'\t', '\r', ' ', ' '}; // \t \n \x0B \f \r and space
+        private static final int[] DOT = {0, '\t', 0x0B, 0x0C, 0x0E, 0x84, 0x86, 0x2027, 0x202A, 0xFFFF}; // No line ends
+
+        private final String regex;
+        private int pos = 0;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        Node parse() {
+            if (regex.startsWith("^")) // Redundant when the whole line needs to match
+                pos++;
+            var node = alternation();
+            if (pos != regex.length())
+                throw new IllegalArgumentException("Unexpected " + regex.charAt(pos));
+            return node;
+        }
+
+        private boolean more() {
+            return pos < regex.length();
+        }
+
+        private char peek() {
+            return regex.charAt(pos);
+        }
+
+        private Node alternation() {
+            var first = concat();
+            if (!more() || peek() != '|')
+                return first;
+            var alt = new Node(Node.ALT);
+            alt.kids.add(first);
+            while (more() && peek() == '|') {
+                pos++;
+                alt.kids.add(concat());
+            }
+            return alt;
+        }
+
+        private Node concat() {
+            var cat = new Node(Node.CONCAT);
+            while (more() && peek() != '|' && peek() != ')') {
+                if (peek() == '$' && pos == regex.length() - 1) { // Redundant at the end
+                    pos++;
+                    break;
+                }
+                cat.kids.add(repeat(atom()));
+            }
+            if (cat.kids.isEmpty())
+                return new Node(Node.EMPTY);
+            return cat.kids.size() == 1 ? cat.kids.get(0) : cat;
+        }
+
+        private Node repeat(Node atom) {
+            if (!more())
+                return atom;
+            int min, max;
+            switch (peek()) {
+                case '*' -> { min = 0; max = -1; pos++; }
+                case '+' -> { min = 1; max = -1; pos++; }
+                case '?' -> { min = 0; max = 1; pos++; }
+                case '{' -> {
+                    int end = regex.indexOf('}', pos);
+                    if (end == -1)
+                        throw new IllegalArgumentException("Unclosed {");
+                    var parts = regex.substring(pos + 1, end).split(",", -1);
+                    try {
+                        min = Integer.parseInt(parts[0]);
+                        max = parts.length == 1 ? min : parts[1].isEmpty() ? -1 : Integer.parseInt(parts[1]);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid repeat");
+                    }
+                    if (parts.length > 2 || (max != -1 && max < min) || Math.max(min, max) > 1000)
+                        throw new IllegalArgumentException("Invalid repeat");
+                    pos = end + 1;
+                }
+                default -> {
+                    return atom;
+                }
+            }
+            if (more() && peek() == '?') { // Lazy, same result when the whole line needs to match
+                pos++;
+            } else if (more() && peek() == '+') { // Possessive, needs backtracking
+                throw new IllegalArgumentException("Possessive");
+            }
+            // Pattern doesn't simply nest stacked quantifiers such as x{2}{0,2}, so leave those to it
+            if (more() && "*+?{".indexOf(peek()) != -1)
+                throw new IllegalArgumentException("Stacked quantifier");
+            var rep = new Node(Node.REPEAT);
+            rep.kids.add(atom);
+            rep.min = min;
+            rep.max = max;
+            return rep;
+        }
+
+        private Node atom() {
+            char c = regex.charAt(pos++);
+            return switch (c) {
+                case '(' -> {
+                    if (more() && peek() == '?') { // Only non capturing groups, no flags or look around
+                        if (!regex.startsWith("?:", pos))
+                            throw new IllegalArgumentException("Special group");
+                        pos += 2;
+                    }
+                    var node = alternation();
+                    if (!more() || peek() != ')')
+                        throw new IllegalArgumentException("Unclosed group");
+                    pos++;
+                    yield node;
+                }
+                case '[' -> chars(charClass());
+                case '.' -> chars(DOT);
+                case '\\' -> chars(escape(false));
+                case '*', '+', '?', '{', ')', '|', '^', '$' -> throw new IllegalArgumentException("Unexpected " + c);
+                default -> chars(new int[]{c, c});
+            };
+        }
+
+        private static Node chars(int[] ranges) {
+            var node = new Node(Node.CHARS);
+            node.ranges = ranges;
+            return node;
+        }
+
+        private int[] escape(boolean inClass) {
+            if (!more())
+                throw new IllegalArgumentException("Escape at end");
+            char c = regex.charAt(pos++);
+            return switch (c) {
+                case 'd' -> DIGIT;
+                case 'D' -> invert(DIGIT);
+                case 'w' -> WORD;
+                case 'W' -> invert(WORD);
+                case 's' -> SPACE;
+                case 'S' -> invert(SPACE);
+                case 't' -> new int[]{'\t', '\t'};
+                case 'n' -> new int[]{'\n', '\n'};
+                case 'r' -> new int[]{'\r', '\r'};
+                case 'f' -> new int[]{'\f', '\f'};
+                case 'e' -> new int[]{0x1B, 0x1B};
+                case 'x' -> hex(2);
+                case 'u' -> hex(4);
+                default -> {
+                    if (Character.isLetterOrDigit(c)) // Back references, anchors, unicode classes and so on
+                        throw new IllegalArgumentException("Escape " + c);
+                    yield new int[]{c, c};
+                }
+            };
+        }
+
+        private int[] hex(int digits) {
+            if (pos + digits > regex.length())
+                throw new IllegalArgumentException("Invalid hex");
+            try {
+                int v = Integer.parseInt(regex.substring(pos, pos + digits), 16);
+                pos += digits;
+                return new int[]{v, v};
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid hex");
+            }
+        }
+
+        private int[] charClass() {
+            boolean negate = more() && peek() == '^';
+            if (negate)
+                pos++;
+            if (more() && peek() == ']') // Java handles this differently depending on the rest
+                throw new IllegalArgumentException("Empty class");
+            var parts = new ArrayList<int[]>();
+            while (true) {
+                if (!more())
+                    throw new IllegalArgumentException("Unclosed class");
+                char c = regex.charAt(pos++);
+                if (c == ']')
+                    break;
+                if (c == '[' || (c == '&' && more() && peek() == '&')) // Nested classes and intersections
+                    throw new IllegalArgumentException("Nested class");
+                int[] part;
+                if (c == '\\') {
+                    part = escape(true);
+                } else {
+                    part = new int[]{c, c};
+                }
+                // A range like a-z, a - at the end or after a class like \d is a literal
+                if (part.length == 2 && part[0] == part[1] && more() && peek() == '-'
+                        && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    char e = regex.charAt(pos++);
+                    int[] end = e == '\\' ? escape(true) : new int[]{e, e};
+                    if (end.length != 2 || end[0] != end[1] || end[0] < part[0])
+                        throw new IllegalArgumentException("Invalid range");
+                    part = new int[]{part[0], end[0]};
+                }
+                parts.add(part);
+            }
+            var merged = merge(parts);
+            return negate ? invert(merged) : merged;
+        }
+
+        /**
+         * Sort and merge the ranges
+         */
+        private static int[] merge(List<int[]> parts) {
+            var all = new ArrayList<int[]>();
+            for (var p : parts) {
+                for (int a = 0; a < p.length; a += 2)
+                    all.add(new int[]{p[a], p[a + 1]});
+            }
+            all.sort((x, y) -> Integer.compare(x[0], y[0]));
+            var res = new ArrayList<Integer>();
+            for (var r : all) {
+                int size = res.size();
+                if (size > 0 && r[0] <= res.get(size - 1) + 1) {
+                    res.set(size - 1, Math.max(res.get(size - 1), r[1]));
+                } else {
+                    res.add(r[0]);
+                    res.add(r[1]);
+                }
+            }
+            return res.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private static int[] invert(int[] ranges) {
+            var res = new ArrayList<Integer>();
+            int from = 0;
+            for (int a = 0; a < ranges.length; a += 2) {
+                if (ranges[a] > from) {
+                    res.add(from);
+                    res.add(ranges[a] - 1);
+                }
+                from = ranges[a + 1] + 1;
+            }
+            if (from <= 0xFFFF) {
+                res.add(from);
+                res.add(0xFFFF);
+            }
+            return res.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
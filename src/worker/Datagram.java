@@ -73,6 +73,7 @@ public void setData(String msg ){
     /* Other stuff */
     public String getLabel(){ return label.toLowerCase(); }
     public boolean isSilent(){ return silent;}
+    public int getPriority(){ return priority; }
 
     /* ***************************** Fluid API ******************************************* */
     public static Datagram build(String message){
@@ -1,48 +1,59 @@
 package worker;
 
 import das.Paths;
-import io.forward.steps.AbstractStep;
 import io.forward.LinkedStepsFab;
+import io.forward.steps.AbstractStep;
 import org.tinylog.Logger;
 import util.data.vals.Rtvals;
 import util.tools.TimeTools;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Instant;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.*;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Reprocesses raw files in two stages.
+ * - The files are read in chunks that are memory mapped, and the lines are grouped in fixed size batches.
+ * - Stage 1 (everything except stores) is applied on the batches in parallel, each worker has its own steps.
+ * - The results of the batches are taken in the order the batches were created, so stage 2 (including stores)
+ *   receives the lines in the original order.
+ * Progress and throughput per stage is logged periodically.
+ */
 public class RawWorker {
-    static int WORKERS = 8;
+    private static final int CHUNK_SIZE = 32 * 1024 * 1024; // Max amount of bytes mapped at once
+    private static final long REPORT_INTERVAL = 10_000;     // Millis between progress logs
 
-    int MINIMUM_SIZE = 50000;
-    final BlockingQueue<String> queue = new LinkedBlockingQueue<>(); // max size
+    private int workers = Math.min(8, Runtime.getRuntime().availableProcessors());
+    private int batchSize = 4096;
 
-    ThreadPoolExecutor executor = new ThreadPoolExecutor(3,
-            Math.min(WORKERS + 1, Runtime.getRuntime().availableProcessors()), // max allowed threads
-            30L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(WORKERS + 1));
+    private ArrayList<Path> files = new ArrayList<>();
+    private final BlockingQueue<AbstractStep> idleSteps = new LinkedBlockingQueue<>(); // Stage 1 instances not in use
+    private AbstractStep storage;
+    private ExecutorService pool;
+    private BlockingQueue<Future<String[]>> results; // In the order the batches were read
+    private Thread reader;
+    private volatile boolean aborted = false;        // Stage 2 stopped early, so the reader should too
 
-    private ArrayList<Path> files;
-    private AbstractStep[] cleanup;
-    private AbstractStep[] storage;
-    private ConcurrentHashMap<Long, String> map = new ConcurrentHashMap<>(250000);
-
-    private int stageOne = 0;
-    private long totalLines = 0;
+    /* Progress */
+    private final AtomicLong linesRead = new AtomicLong();
+    private final AtomicLong linesStage1 = new AtomicLong();
+    private final AtomicLong linesStored = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong stage1Nanos = new AtomicLong(); // Summed over all the workers
+    private final AtomicLong stage2Nanos = new AtomicLong();
+    private int filesDone = 0;
+    private int filesTotal = 0;
     private long startTime = 0;
-    private long totalSort = 0;
-    private long linesToday = 0;
-    private long workerStart = 0;
-    private long sortedLines = 0;
-    private long readingTime = 0;
-    private long waitingTime = 0;
+    private long lastReport = 0;
 
     public RawWorker(Rtvals rtvals) {
         var dig = Paths.digInSettings("rawworker");
@@ -51,98 +62,75 @@ public RawWorker(Rtvals rtvals) {
             Logger.info("No rawworker node in settings file.");
             return;
         }
+        workers = Math.max(1, dig.attr("workers", workers));
+        batchSize = Math.max(1, dig.attr("batch", batchSize));
+
         var opt = dig.attr("filepath", Paths.storage());
         if (opt.isEmpty()) {
             Logger.error("No valid path defined");
-        } else {
-            cleanup = getStageInstances(rtvals, 1);
-            storage = getStageInstances(rtvals, 2);
-            files = getFiles(opt.get());
+            return;
         }
+        for (int a = 0; a < workers; a++) {
+            var steps = getStageInstance(rtvals, 1);
+            if (steps == null)
+                return;
+            idleSteps.add(steps);
+        }
+        storage = getStageInstance(rtvals, 2);
+        if (storage == null)
+            return;
+        files = getFiles(opt.get());
     }
 
-    public void start(boolean first) {
-        if (first)
-            startTime = Instant.now().toEpochMilli();
-        executor.submit(this::fileReader);
-    }
-
-    private void fileReader() {
-        long lineNumber = 0;
-        if (files.isEmpty()) {
-            var total = Instant.now().toEpochMilli() - startTime;
-            Logger.info("Finished processing " + totalLines + " lines from files in " + TimeTools.convertPeriodToString(total, TimeUnit.MILLISECONDS));
-            Logger.info("Time spent reading: " + TimeTools.convertPeriodToString(readingTime, TimeUnit.MILLISECONDS)
-                    + " and waiting " + TimeTools.convertPeriodToString(waitingTime, TimeUnit.MILLISECONDS));
+    /**
+     * Start processing the files on a separate thread
+     */
+    public void start() {
+        if (storage == null || idleSteps.isEmpty()) {
+            Logger.error("Rawworker not started because the stages aren't valid");
             return;
         }
+        pool = Executors.newFixedThreadPool(workers);
+        results = new ArrayBlockingQueue<>(workers * 4); // Limits the amount of batches in memory
+        startTime = System.currentTimeMillis();
+        lastReport = startTime;
+        filesTotal = files.size();
+        Logger.info("Rawworker starting on " + filesTotal + " files with " + workers + " workers and batches of " + batchSize + " lines");
 
-        // Start the workers
-        IntStream.range(0, WORKERS).forEach(index -> executor.submit(() -> process(index)));
-        if (workerStart == 0)
-            workerStart = Instant.now().toEpochMilli();
-
-        var date = files.get(0).getFileName().toString().substring(0, 10);
-        Logger.info("Started reading: " + date);
-
-        while (!files.isEmpty() && files.get(0).getFileName().toString().substring(0, 10).equals(date)) {
-            try {
-                var t = Instant.now().toEpochMilli();
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(Files.newInputStream(files.remove(0)), StandardCharsets.ISO_8859_1), 64 * 1024)) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        lineNumber++;
-                        queue.put(lineNumber + "|" + line);
-                    }
-                } catch (IOException e) {
-                    Logger.error(e);
-                }
-                readingTime += Instant.now().toEpochMilli() - t;
-
-                t = Instant.now().toEpochMilli();
-                synchronized (queue) {
-                    while (queue.size() > MINIMUM_SIZE) {
-                        queue.wait(10);  // Wait with a timeout or indefinitely if needed
-                    }
-                }
-                waitingTime += Instant.now().toEpochMilli() - t;
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            }
-        }
-        Logger.info("Total lines this day: " + lineNumber);
-        linesToday = lineNumber;
-        totalLines += lineNumber;
+        reader = new Thread(this::readFiles, "rawworker-reader");
+        var stage2 = new Thread(this::doStage2, "rawworker-stage2");
+        reader.start();
+        stage2.start();
     }
 
-    private AbstractStep[] getStageInstances(Rtvals rtvals, int stage) {
-        var instances = new AbstractStep[WORKERS];
-        for (int a = 0; a < WORKERS; a++) {
-            var dig = Paths.digInSettings("rawworker");
+    private AbstractStep getStageInstance(Rtvals rtvals, int stage) {
+        var dig = Paths.digInSettings("rawworker");
 
-            if (!dig.hasPeek("stage" + stage)) {
-                Logger.error("Missing stage " + stage);
-                return new AbstractStep[0];
-            }
+        if (!dig.hasPeek("stage" + stage)) {
+            Logger.error("Missing stage " + stage);
+            return null;
+        }
 
-            dig.digDown("stage" + stage);
-            if (!dig.hasAttr("id")) {
-                dig.currentTrusted().setAttribute("id", "rawworker_stage" + stage);
-            }
-            var steps = LinkedStepsFab.buildLink(dig, rtvals, "\t");
-            if (steps.length == 0) {
-                Logger.error("No valid steps in the rawworker");
-                return new AbstractStep[0];
-            }
-            if (stage == 1)
-                steps[0].removeStore(); // We don't want to write to stores yet...
-            instances[a] = steps[0];
+        dig.digDown("stage" + stage);
+        if (!dig.hasAttr("id")) {
+            dig.currentTrusted().setAttribute("id", "rawworker_stage" + stage);
+        }
+        var steps = LinkedStepsFab.buildLink(dig, rtvals, "\t");
+        if (steps.length == 0) {
+            Logger.error("No valid steps in the rawworker");
+            return null;
         }
-        return instances;
+        if (stage == 1)
+            steps[0].removeStore(); // We don't want to write to stores yet...
+        return steps[0];
     }
 
+    /**
+     * Get the files in the folder sorted on name, so on date for the raw files
+     *
+     * @param folder The folder or a single file
+     * @return The files found
+     */
     public ArrayList<Path> getFiles(Path folder) {
         var files = new ArrayList<Path>();
 
@@ -151,7 +139,7 @@ public ArrayList<Path> getFiles(Path folder) {
         }
         if (Files.isDirectory(folder)) {
             try (var str = Files.list(folder)) {
-                str.forEach(files::add);
+                str.filter(Files::isRegularFile).sorted().forEach(files::add);
             } catch (IOException e) {
                 Logger.error("Error when trying to read " + folder, e.getMessage());
             }
@@ -161,64 +149,223 @@ public ArrayList<Path> getFiles(Path folder) {
         return files;
     }
 
-    public void process(int instance) {
-        var steps = cleanup[instance];
-        while (true) {
-            try {
-                String line = queue.poll(1, TimeUnit.SECONDS);  // Blocks if the queue is empty
-                if (line == null) {
-                    stageOne++;
-                    if (stageOne == WORKERS - 1) {
-                        stageOne = 0;
-                        executor.submit(this::sort);
-                        if (files.isEmpty()) {
-                            var total = Instant.now().toEpochMilli() - workerStart;
-                            Logger.info("Total time stage 1: " + TimeTools.convertPeriodToString(total, TimeUnit.MILLISECONDS));
-                        }
-                    }
-                    break;
-                }
-                // Split the data in the id and the original data
-                var parts = line.split("\\|", 2);
-                var result = steps.takeStep(parts[1], null);
-                if (!result.isEmpty())
-                    map.put(Long.parseLong(parts[0]), result);
+    /* ******************************************** R E A D I N G ********************************************** */
 
+    /**
+     * Read all the files, group the lines in batches and hand those to the workers
+     */
+    private void readFiles() {
+        var batch = new Batch(batchSize);
+        try {
+            for (var file : files) {
+                if (aborted)
+                    return;
+                batch = readFile(file, batch);
+                filesDone++;
+            }
+            if (batch.count != 0)
+                submit(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                if (!aborted)
+                    results.put(CompletableFuture.completedFuture(null)); // Signal the end to stage 2
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
-                break;
             }
         }
     }
 
-    public void sort() {
+    /**
+     * Read a single file in memory mapped chunks, the lines are taken straight from the mapped buffer.
+     * A line that spans two chunks is carried over.
+     *
+     * @param file  The file to read
+     * @param batch The batch to add the lines to
+     * @return The batch that isn't full yet
+     */
+    private Batch readFile(Path file, Batch batch) throws InterruptedException {
+        var line = new byte[256]; // Bytes of the current line, grows to the longest line
+        int carried = 0;          // Bytes of the line that were in the previous chunk
+        long start = System.nanoTime();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long pos = 0; pos < size; pos += CHUNK_SIZE) {
+                int length = (int) Math.min(CHUNK_SIZE, size - pos);
+                var map = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
 
-        var time = Instant.now().toEpochMilli();
-        var list = new ArrayList<String>(map.size());
-        for (long a = 0; a < linesToday + 10; a++) {
-            var x = map.get(a);
-            if (x != null) {
-                list.add(x);
+                int lineStart = 0;
+                for (int a = 0; a < length; a++) {
+                    if (map.get(a) != '\n')
+                        continue;
+                    line = append(line, carried, map, lineStart, a);
+                    batch = add(batch, toLine(line, carried + a - lineStart));
+                    carried = 0;
+                    lineStart = a + 1;
+                }
+                line = append(line, carried, map, lineStart, length);
+                carried += length - lineStart;
             }
+            if (carried != 0) // Last line without line ending
+                batch = add(batch, toLine(line, carried));
+        } catch (ClosedByInterruptException e) {
+            throw new InterruptedException("Rawworker reader interrupted");
+        } catch (IOException e) {
+            Logger.error("Rawworker failed to read " + file + " -> " + e.getMessage());
         }
+        readNanos.addAndGet(System.nanoTime() - start);
+        return batch;
+    }
+
+    /**
+     * Add the line to the batch and submit it if full
+     *
+     * @return The batch to add the next line to
+     */
+    private Batch add(Batch batch, String line) throws InterruptedException {
+        if (!batch.add(line))
+            return batch;
+        long start = System.nanoTime();
+        submit(batch); // Blocks if the workers or stage 2 can't keep up
+        readNanos.addAndGet(start - System.nanoTime()); // Waiting isn't reading
+        return new Batch(batchSize);
+    }
+
+    private static byte[] append(byte[] line, int carried, ByteBuffer map, int from, int to) {
+        int length = to - from;
+        if (carried + length > line.length)
+            line = Arrays.copyOf(line, Math.max(line.length * 2, carried + length));
+        map.get(from, line, carried, length);
+        return line;
+    }
 
-        map.clear(); // Clears  the map but retains capacity and thus memory usage
-        totalSort += Instant.now().toEpochMilli() - time;
-        sortedLines += list.size();
-        if (files.isEmpty()) {
-            Logger.info("Total time spent sorting " + sortedLines + " lines: " + TimeTools.convertPeriodToString(totalSort, TimeUnit.MILLISECONDS));
-            // No longer need to data, so free memory
-            map = new ConcurrentHashMap<>(1);
+    /**
+     * Create the line from the bytes, same as the BufferedReader this removes the \r in front of the \n
+     */
+    private static String toLine(byte[] bytes, int length) {
+        if (length > 0 && bytes[length - 1] == '\r')
+            length--;
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private void submit(Batch batch) throws InterruptedException {
+        linesRead.addAndGet(batch.count);
+        results.put(pool.submit(() -> doStage1(batch)));
+    }
+
+    /* ******************************************** S T A G E S ************************************************ */
+
+    /**
+     * Apply stage 1 on a batch, the result at the same index as the line or null if it didn't pass
+     *
+     * @param batch The batch to process
+     * @return The results
+     */
+    private String[] doStage1(Batch batch) throws InterruptedException {
+        var steps = idleSteps.take(); // As many steps as workers, so shouldn't block
+        long start = System.nanoTime();
+        try {
+            var res = new String[batch.count];
+            for (int a = 0; a < batch.count; a++) {
+                var result = steps.takeStep(batch.lines[a], null);
+                if (result != null && !result.isEmpty())
+                    res[a] = result;
+            }
+            linesStage1.addAndGet(batch.count);
+            return res;
+        } finally {
+            stage1Nanos.addAndGet(System.nanoTime() - start);
+            idleSteps.add(steps);
         }
-        // Start on stage 2...
-        executor.submit(() -> doStage2(list));
     }
 
-    public void doStage2(ArrayList<String> data) {
-        for (String line : data) {
-            storage[0].takeStep(line, null);
+    /**
+     * Take the batches in the order they were read and feed the results to stage 2
+     */
+    private void doStage2() {
+        boolean finished = false;
+        try {
+            while (true) {
+                var res = results.take().get();
+                if (res == null) // End reached
+                    break;
+                long start = System.nanoTime();
+                int stored = 0;
+                for (var line : res) {
+                    if (line != null) {
+                        storage.takeStep(line, null);
+                        stored++;
+                    }
+                }
+                linesStored.addAndGet(stored);
+                stage2Nanos.addAndGet(System.nanoTime() - start);
+
+                if (System.currentTimeMillis() - lastReport >= REPORT_INTERVAL) {
+                    lastReport = System.currentTimeMillis();
+                    Logger.info("Rawworker progress -> " + getStatus());
+                }
+            }
+            finished = true;
+            var total = System.currentTimeMillis() - startTime;
+            Logger.info("Rawworker finished processing " + linesRead.get() + " lines from " + filesDone + " files in "
+                    + TimeTools.convertPeriodToString(total, TimeUnit.MILLISECONDS));
+            Logger.info("Rawworker totals -> " + getStatus());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Logger.error("Rawworker stage 1 failed, aborting -> " + e.getCause());
+        } finally {
+            if (!finished) { // Make sure the reader isn't left waiting for room in the queue
+                aborted = true;
+                reader.interrupt();
+                results.forEach(res -> res.cancel(true));
+                results.clear();
+            }
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the progress with the throughput of each stage, the rates are based on the time spent in that stage.
+     * For stage 1 this is the combined time of the workers, so the rate of a single worker.
+     *
+     * @return Single line status
+     */
+    public String getStatus() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        return "files " + filesDone + "/" + filesTotal
+                + ", read " + linesRead.get() + " (" + rate(linesRead.get(), readNanos.get()) + ")"
+                + ", stage1 " + linesStage1.get() + " (" + rate(linesStage1.get(), stage1Nanos.get()) + " per worker)"
+                + ", stage2 " + linesStored.get() + " (" + rate(linesStored.get(), stage2Nanos.get()) + ")"
+                + ", overall " + (linesRead.get() * 1000 / elapsed) + " lines/s";
+    }
+
+    private static String rate(long lines, long nanos) {
+        if (nanos == 0)
+            return "0 lines/s";
+        return (long) (lines / (nanos / 1e9)) + " lines/s";
+    }
+
+    /**
+     * Group of lines that is processed by a single worker
+     */
+    private static class Batch {
+        final String[] lines;
+        int count = 0;
+
+        Batch(int size) {
+            lines = new String[size];
+        }
+
+        /**
+         * Add a line to the batch
+         *
+         * @return True if the batch is full
+         */
+        boolean add(String line) {
+            lines[count++] = line;
+            return count == lines.length;
         }
-        data.clear();
-        start(false);
     }
 }